@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>
+ * Entry point of the benchmarks JAR. Accepts the usual JMH command line options and always enables the GC profiler,
+ * so each result comes with its allocation rate ({@code gc.alloc.rate} and {@code gc.alloc.rate.norm}).
+ * </p>
+ *
+ * <p>
+ * Example processing only large files: {@code java -jar benchmarks.jar -p fileSize=65536 -rf json}.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public final class BenchmarkRunner {
+
+    /**
+     * <p>
+     * Prevent instantiation.
+     * </p>
+     */
+    private BenchmarkRunner() {
+    }
+
+    /**
+     * <p>
+     * Runs the benchmarks.
+     * </p>
+     *
+     * @param args JMH options
+     * @throws Exception if the options are invalid or a benchmark fails
+     */
+    public static void main(final String[] args) throws Exception {
+        final Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven.benchmark;
+
+import com.github.wuic.util.IOUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * <p>
+ * Generates a synthetic corpus of JS, CSS and HTML files with the WUIC configuration processing them. Files are spread
+ * over the given number of workflows, each workflow having one heap per type of file. Contents are generated from a
+ * fixed seed so two corpora built with the same parameters are identical.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public class Corpus {
+
+    /**
+     * Seed of the generated contents.
+     */
+    private static final long SEED = 42L;
+
+    /**
+     * Directory of the corpus.
+     */
+    private final File directory;
+
+    /**
+     * <p>
+     * Builds a new corpus in the given directory.
+     * </p>
+     *
+     * @param directory the directory
+     * @param jsFiles number of JS files
+     * @param cssFiles number of CSS files
+     * @param htmlFiles number of HTML files
+     * @param fileSize approximate size of each JS and CSS file in bytes
+     * @param workflows number of workflows
+     * @throws IOException if a file can't be written
+     */
+    public Corpus(final File directory,
+                  final int jsFiles,
+                  final int cssFiles,
+                  final int htmlFiles,
+                  final int fileSize,
+                  final int workflows)
+            throws IOException {
+        this.directory = directory;
+        final Random random = new Random(SEED);
+        final File src = new File(directory, "src");
+
+        for (int i = 0; i < jsFiles; i++) {
+            write(new File(src, "wf" + (i % workflows) + "/script" + i + ".js"), script(random, fileSize));
+        }
+
+        for (int i = 0; i < cssFiles; i++) {
+            write(new File(src, "wf" + (i % workflows) + "/style" + i + ".css"), style(random, fileSize));
+        }
+
+        for (int i = 0; i < htmlFiles; i++) {
+            write(new File(src, "wf" + (i % workflows) + "/page" + i + ".html"), page(i, workflows, jsFiles, cssFiles));
+        }
+
+        write(getXml(), configuration(src, workflows, htmlFiles > 0));
+    }
+
+    /**
+     * <p>
+     * Gets the WUIC configuration of the corpus.
+     * </p>
+     *
+     * @return the wuic.xml file
+     */
+    public File getXml() {
+        return new File(directory, "wuic.xml");
+    }
+
+    /**
+     * <p>
+     * Gets the directory of the corpus.
+     * </p>
+     *
+     * @return the directory
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * <p>
+     * Generates a script.
+     * </p>
+     *
+     * @param random the random generator
+     * @param size the approximate size
+     * @return the script
+     */
+    private static String script(final Random random, final int size) {
+        final StringBuilder sb = new StringBuilder(size + 128);
+
+        while (sb.length() < size) {
+            final int n = random.nextInt(100000);
+            sb.append("var v").append(n).append(" = function(value) {\n    // adds a constant to the value\n    return value + ")
+                    .append(n).append(";\n};\n");
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * <p>
+     * Generates a style sheet.
+     * </p>
+     *
+     * @param random the random generator
+     * @param size the approximate size
+     * @return the style sheet
+     */
+    private static String style(final Random random, final int size) {
+        final StringBuilder sb = new StringBuilder(size + 128);
+
+        while (sb.length() < size) {
+            sb.append(".c").append(random.nextInt(100000)).append(" {\n    color: #")
+                    .append(Integer.toHexString(0x100000 + random.nextInt(0xefffff))).append(";\n    margin: ")
+                    .append(random.nextInt(20)).append("px;\n}\n");
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * <p>
+     * Generates a page referencing the first script and style sheet of its workflow.
+     * </p>
+     *
+     * @param index the index of the page
+     * @param workflows the number of workflows
+     * @param jsFiles number of JS files
+     * @param cssFiles number of CSS files
+     * @return the page
+     */
+    private static String page(final int index, final int workflows, final int jsFiles, final int cssFiles) {
+        final int workflow = index % workflows;
+        final StringBuilder sb = new StringBuilder("<!DOCTYPE html>\n<html>\n<head>\n<title>Page ")
+                .append(index).append("</title>\n");
+
+        if (workflow < cssFiles) {
+            sb.append("<link rel=\"stylesheet\" href=\"style").append(workflow).append(".css\" />\n");
+        }
+
+        if (workflow < jsFiles) {
+            sb.append("<script src=\"script").append(workflow).append(".js\"></script>\n");
+        }
+
+        return sb.append("</head>\n<body>\n<p>Page ").append(index).append("</p>\n</body>\n</html>\n").toString();
+    }
+
+    /**
+     * <p>
+     * Generates the WUIC configuration declaring one heap per type of file and per workflow.
+     * </p>
+     *
+     * @param src the directory of the files
+     * @param workflows the number of workflows
+     * @param html if HTML heaps are declared
+     * @return the configuration
+     */
+    private static String configuration(final File src, final int workflows, final boolean html) {
+        final StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<wuic>\n")
+                .append("    <nut-dao-builders>\n")
+                .append("        <nut-dao-builder id=\"corpus\" type=\"DiskNutDaoBuilder\">\n")
+                .append("            <properties>\n")
+                .append("                <property key=\"c.g.wuic.dao.basePath\">")
+                .append(IOUtils.normalizePathSeparator(src.getAbsolutePath())).append("</property>\n")
+                .append("                <property key=\"c.g.wuic.dao.regex\">true</property>\n")
+                .append("            </properties>\n")
+                .append("        </nut-dao-builder>\n")
+                .append("    </nut-dao-builders>\n")
+                .append("    <heaps>\n");
+
+        for (int i = 0; i < workflows; i++) {
+            heap(sb, "js-" + i, "wf" + i + "/.*\\.js");
+            heap(sb, "css-" + i, "wf" + i + "/.*\\.css");
+
+            if (html) {
+                heap(sb, "html-" + i, "wf" + i + "/.*\\.html");
+            }
+        }
+
+        return sb.append("    </heaps>\n</wuic>\n").toString();
+    }
+
+    /**
+     * <p>
+     * Appends a heap to the configuration.
+     * </p>
+     *
+     * @param sb the configuration
+     * @param id the heap ID
+     * @param path the regex matching the nuts
+     */
+    private static void heap(final StringBuilder sb, final String id, final String path) {
+        sb.append("        <heap id=\"").append(id).append("\" dao-builder-id=\"corpus\">\n")
+                .append("            <nut-path>").append(path).append("</nut-path>\n")
+                .append("        </heap>\n");
+    }
+
+    /**
+     * <p>
+     * Writes the given content to a file.
+     * </p>
+     *
+     * @param file the file
+     * @param content the content
+     * @throws IOException if the file can't be written
+     */
+    private static void write(final File file, final String content) throws IOException {
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Could not create " + file.getParent());
+        }
+
+        Writer writer = null;
+
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            writer.write(content);
+        } finally {
+            IOUtils.close(writer);
+        }
+    }
+}
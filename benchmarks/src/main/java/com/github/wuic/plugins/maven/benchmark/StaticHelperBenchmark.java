@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven.benchmark;
+
+import com.github.wuic.WuicTask;
+import com.github.wuic.plugins.maven.StaticHelperMojo;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Measures the end-to-end processing of a synthetic corpus. The {@link #mojo()} benchmark covers the whole plugin
+ * (class loader, fingerprints, task and post processing) while {@link #task()} runs {@link WuicTask} alone, so the
+ * overhead of the plugin is the difference between the two. Run with the GC profiler (the default in
+ * {@link BenchmarkRunner}) to get the allocation rate.
+ * </p>
+ *
+ * <p>
+ * The default parameters only vary the size of the files. Other shapes of corpus are measured by overriding the
+ * parameters on the command line, for instance {@code -p jsFiles=10,100 -p workflows=1,4}.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StaticHelperBenchmark {
+
+    /**
+     * Number of JS files.
+     */
+    @Param({ "100" })
+    private int jsFiles;
+
+    /**
+     * Number of CSS files.
+     */
+    @Param({ "100" })
+    private int cssFiles;
+
+    /**
+     * Number of HTML files.
+     */
+    @Param({ "10" })
+    private int htmlFiles;
+
+    /**
+     * Approximate size of each JS and CSS file in bytes.
+     */
+    @Param({ "1024", "65536" })
+    private int fileSize;
+
+    /**
+     * Number of workflows.
+     */
+    @Param({ "4" })
+    private int workflows;
+
+    /**
+     * Enables the precompression of the outputs in the {@link #mojo()} benchmark.
+     */
+    @Param({ "false" })
+    private boolean precompress;
+
+    /**
+     * The corpus.
+     */
+    private Corpus corpus;
+
+    /**
+     * Build directory of the processed corpus.
+     */
+    private File target;
+
+    /**
+     * <p>
+     * Generates the corpus.
+     * </p>
+     *
+     * @throws IOException if the corpus can't be written
+     */
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        final File directory = File.createTempFile("wuic-benchmark", "");
+
+        if (!directory.delete() || !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        corpus = new Corpus(directory, jsFiles, cssFiles, htmlFiles, fileSize, workflows);
+        target = new File(directory, "target");
+    }
+
+    /**
+     * <p>
+     * Deletes the outputs of the previous invocation, so each invocation is a full build instead of an up-to-date
+     * check. A build lasts long enough for the cost of an invocation level fixture to be negligible.
+     * </p>
+     */
+    @Setup(Level.Invocation)
+    public void clean() {
+        delete(target);
+    }
+
+    /**
+     * <p>
+     * Deletes the corpus.
+     * </p>
+     */
+    @TearDown(Level.Trial)
+    public void delete() {
+        delete(corpus.getDirectory());
+    }
+
+    /**
+     * <p>
+     * Processes the corpus with the plugin.
+     * </p>
+     *
+     * @return the MOJO
+     * @throws Exception if processing fails
+     */
+    @Benchmark
+    public StaticHelperMojo mojo() throws Exception {
+        final Model model = new Model();
+        model.setBuild(new Build());
+        final MavenProject project = new MavenProject(model);
+        project.setFile(new File(corpus.getDirectory(), "pom.xml"));
+        project.getBuild().setDirectory(target.getAbsolutePath());
+        project.getBuild().setOutputDirectory(new File(target, "classes").getAbsolutePath());
+
+        final StaticHelperMojo mojo = new StaticHelperMojo();
+        mojo.setMavenProject(project);
+        mojo.setProjectHelper(projectHelper());
+        mojo.setXml(corpus.getXml().getAbsolutePath());
+        mojo.setOutput("generated");
+
+        // Parameters are not injected outside Maven, the default values are set as declared in the MOJO
+        mojo.setContextPath("/");
+        mojo.setRelocateTransformedXml(Boolean.FALSE);
+        mojo.setPackageAsJar(Boolean.TRUE);
+        mojo.setStreamJar(Boolean.FALSE);
+        mojo.setPrecompress(precompress);
+        mojo.setPrecompressDeflate(Boolean.FALSE);
+        mojo.setIncremental(Boolean.TRUE);
+        mojo.setCacheMaxSize(512);
+        mojo.setSpillThreshold(4);
+        mojo.setParallelism(0);
+        mojo.setReproducible(Boolean.FALSE);
+        mojo.setStaticIndex(Boolean.TRUE);
+        mojo.setDeduplicate(Boolean.FALSE);
+        mojo.setPersistListing(Boolean.TRUE);
+        mojo.setVirtualThreads(Boolean.FALSE);
+        mojo.setPrecompressTimeBudget(0);
+        mojo.setIntegrityManifest(Boolean.FALSE);
+        mojo.setTimingReport(Boolean.TRUE);
+        parameter(mojo, "taskName", "wuic-task");
+        parameter(mojo, "useRegex", "false");
+        parameter(mojo, "jarName", "wuic-static.jar");
+        parameter(mojo, "precompressMinSize", 1024);
+        parameter(mojo, "precompressMinRatio", 0.1f);
+        parameter(mojo, "reportTopN", 5);
+        mojo.execute();
+
+        return mojo;
+    }
+
+    /**
+     * <p>
+     * Processes the corpus with {@link WuicTask} only.
+     * </p>
+     *
+     * @return the task
+     * @throws Exception if processing fails
+     */
+    @Benchmark
+    public WuicTask task() throws Exception {
+        final WuicTask task = new WuicTask();
+        task.setXml(corpus.getXml().getAbsolutePath());
+        task.setOutput(new File(target, "task").getAbsolutePath());
+        task.setContextPath("/");
+        task.execute();
+
+        return task;
+    }
+
+    /**
+     * <p>
+     * Creates a project helper ignoring all calls.
+     * </p>
+     *
+     * @return the helper
+     */
+    private static MavenProjectHelper projectHelper() {
+        return (MavenProjectHelper) Proxy.newProxyInstance(StaticHelperBenchmark.class.getClassLoader(),
+                new Class<?>[] { MavenProjectHelper.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * <p>
+     * Sets a parameter of the given MOJO that has no setter.
+     * </p>
+     *
+     * @param mojo the MOJO
+     * @param name the name of the parameter
+     * @param value the value
+     * @throws Exception if the parameter can't be set
+     */
+    private static void parameter(final StaticHelperMojo mojo, final String name, final Object value) throws Exception {
+        final Field field = StaticHelperMojo.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(mojo, value);
+    }
+
+    /**
+     * <p>
+     * Deletes recursively the given file.
+     * </p>
+     *
+     * @param file the file
+     */
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+}
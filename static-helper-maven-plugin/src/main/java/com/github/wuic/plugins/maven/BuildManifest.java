@@ -0,0 +1,623 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import com.github.wuic.util.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * This class represents the manifest persisted between two builds by the {@link StaticHelperMojo}. It records a hash
+ * for each input nut, for the configuration and for the active profiles in order to detect which workflows have to be
+ * processed again.
+ * </p>
+ *
+ * <p>
+ * Nut hashes are stored with the size and the last modification date of the file. When both are unchanged, the
+ * previous hash is reused and the file is not read again.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public class BuildManifest {
+
+    /**
+     * Algorithm used to compute the hashes.
+     */
+    public static final String ALGORITHM = "SHA-1";
+
+    /**
+     * Prefix of keys associated to the nuts.
+     */
+    private static final String NUT_PREFIX = "nut.";
+
+    /**
+     * Prefix of keys associated to the references extracted from the nuts.
+     */
+    private static final String REFERENCES_PREFIX = "references.";
+
+    /**
+     * Separator of the references of a nut.
+     */
+    private static final char REFERENCE_SEPARATOR = '\t';
+
+    /**
+     * Prefix of keys associated to the workflows.
+     */
+    private static final String WORKFLOW_PREFIX = "workflow.";
+
+    /**
+     * Prefix of the keys associated to the size of the outputs.
+     */
+    private static final String OUTPUT_PREFIX = "output.";
+
+    /**
+     * Key associated to the configuration hash.
+     */
+    private static final String CONFIGURATION = "configuration";
+
+    /**
+     * Key associated to the profiles hash.
+     */
+    private static final String PROFILES = "profiles";
+
+    /**
+     * Key associated to the stamp of the inputs.
+     */
+    private static final String STAMP = "stamp";
+
+    /**
+     * Separator of the fields of a nut entry.
+     */
+    private static final char SEPARATOR = '|';
+
+    /**
+     * Size of the buffer used to read the files.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * All the entries sorted by key.
+     */
+    private final Map<String, String> entries;
+
+    /**
+     * <p>
+     * Builds an empty manifest.
+     * </p>
+     */
+    public BuildManifest() {
+        entries = new TreeMap<String, String>();
+    }
+
+    /**
+     * <p>
+     * Reads the manifest from the given file. An empty manifest is returned if the file does not exist or can't be read.
+     * </p>
+     *
+     * @param file the file
+     * @return the manifest
+     */
+    public static BuildManifest read(final File file) {
+        final BuildManifest retval = new BuildManifest();
+
+        if (!file.isFile()) {
+            return retval;
+        }
+
+        InputStream is = null;
+
+        try {
+            is = new FileInputStream(file);
+            final Properties properties = new Properties();
+            properties.load(is);
+
+            for (final String key : properties.stringPropertyNames()) {
+                retval.entries.put(key, properties.getProperty(key));
+            }
+        } catch (IOException ioe) {
+            // A corrupted manifest just means that everything will be processed again
+            retval.entries.clear();
+        } finally {
+            IOUtils.close(is);
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Writes this manifest to the given file. Parent directories are created if necessary.
+     * </p>
+     *
+     * @param file the file
+     * @throws IOException if manifest can't be written
+     */
+    public void write(final File file) throws IOException {
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            throw new IOException(String.format("Could not create directory for manifest '%s'", file.getAbsolutePath()));
+        }
+
+        final Properties properties = new Properties();
+        properties.putAll(entries);
+        OutputStream os = null;
+
+        try {
+            os = new FileOutputStream(file);
+            properties.store(os, "WUIC static helper manifest");
+        } finally {
+            IOUtils.close(os);
+        }
+    }
+
+    /**
+     * <p>
+     * Computes the hash of the given file and records it. If the previous manifest contains an entry for the same file
+     * with the same size and last modification date, its hash is reused.
+     * </p>
+     *
+     * @param file the file
+     * @param previous the previous manifest
+     * @return the hash
+     * @throws IOException if the file can't be read
+     */
+    public String putNut(final File file, final BuildManifest previous) throws IOException {
+        final String key = NUT_PREFIX + IOUtils.normalizePathSeparator(file.getAbsolutePath());
+        final String stamp = String.valueOf(file.length()) + SEPARATOR + file.lastModified() + SEPARATOR;
+        final String old = previous.entries.get(key);
+        final String hash;
+
+        if (old != null && old.startsWith(stamp)) {
+            hash = old.substring(stamp.length());
+        } else {
+            hash = hash(file);
+        }
+
+        synchronized (entries) {
+            entries.put(key, stamp + hash);
+        }
+
+        return hash;
+    }
+
+    /**
+     * <p>
+     * Gets the references recorded for the given file when it had the given hash.
+     * </p>
+     *
+     * @param file the file
+     * @param hash the hash of the file
+     * @return the references, {@code null} if they are not recorded for this hash
+     */
+    public List<String> getReferences(final File file, final String hash) {
+        final String value = entries.get(REFERENCES_PREFIX + IOUtils.normalizePathSeparator(file.getAbsolutePath()));
+        final String prefix = hash + SEPARATOR;
+
+        if (value == null || !value.startsWith(prefix)) {
+            return null;
+        }
+
+        final List<String> retval = new ArrayList<String>();
+        int start = prefix.length();
+
+        while (start < value.length()) {
+            final int end = value.indexOf(REFERENCE_SEPARATOR, start);
+            retval.add(value.substring(start, end == -1 ? value.length() : end));
+            start = end == -1 ? value.length() : end + 1;
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Records the references extracted from the given file with its hash.
+     * </p>
+     *
+     * @param file the file
+     * @param hash the hash of the file
+     * @param references the references
+     */
+    public void putReferences(final File file, final String hash, final List<String> references) {
+        final StringBuilder value = new StringBuilder(hash).append(SEPARATOR);
+
+        for (int i = 0; i < references.size(); i++) {
+            if (i > 0) {
+                value.append(REFERENCE_SEPARATOR);
+            }
+
+            value.append(references.get(i));
+        }
+
+        synchronized (entries) {
+            entries.put(REFERENCES_PREFIX + IOUtils.normalizePathSeparator(file.getAbsolutePath()), value.toString());
+        }
+    }
+
+    /**
+     * <p>
+     * Records the hash of the configuration.
+     * </p>
+     *
+     * @param hash the hash
+     */
+    public void setConfiguration(final String hash) {
+        entries.put(CONFIGURATION, hash);
+    }
+
+    /**
+     * <p>
+     * Records the hash of the active profiles.
+     * </p>
+     *
+     * @param hash the hash
+     */
+    public void setProfiles(final String hash) {
+        entries.put(PROFILES, hash);
+    }
+
+    /**
+     * <p>
+     * Records the stamp computed by {@link #stamp(String, String, Collection, Collection, DirectoryScanner)} before the
+     * build.
+     * </p>
+     *
+     * @param stamp the stamp
+     */
+    public void setStamp(final String stamp) {
+        entries.put(STAMP, stamp);
+    }
+
+    /**
+     * <p>
+     * Indicates if this manifest has been recorded with the given stamp.
+     * </p>
+     *
+     * @param stamp the stamp
+     * @return {@code true} if the stamp is recorded, {@code false} otherwise
+     */
+    public boolean hasStamp(final String stamp) {
+        return stamp.equals(entries.get(STAMP));
+    }
+
+    /**
+     * <p>
+     * Records the hash of all the inputs of the given workflow.
+     * </p>
+     *
+     * @param workflowId the workflow ID
+     * @param hash the hash
+     */
+    public void setWorkflow(final String workflowId, final String hash) {
+        entries.put(WORKFLOW_PREFIX + workflowId, hash);
+    }
+
+    /**
+     * <p>
+     * Sets an arbitrary value that must be retrieved by the next build.
+     * </p>
+     *
+     * @param key the key
+     * @param value the value, {@code null} to remove the entry
+     */
+    public void set(final String key, final String value) {
+        if (value == null) {
+            entries.remove(key);
+        } else {
+            entries.put(key, value);
+        }
+    }
+
+    /**
+     * <p>
+     * Gets a value previously set with {@link #set(String, String)}.
+     * </p>
+     *
+     * @param key the key
+     * @return the value, {@code null} if not set
+     */
+    public String get(final String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * <p>
+     * Records the size of an output of the build.
+     * </p>
+     *
+     * @param directory the output directory
+     * @param path the path of the output relatively to the directory
+     */
+    public void putOutput(final File directory, final String path) {
+        entries.put(OUTPUT_PREFIX + path, String.valueOf(new File(directory, path).length()));
+    }
+
+    /**
+     * <p>
+     * Records the outputs recorded in the given manifest, when they are reused as they are.
+     * </p>
+     *
+     * @param other the other manifest
+     */
+    public void putOutputs(final BuildManifest other) {
+        for (final Map.Entry<String, String> entry : other.entries.entrySet()) {
+            if (entry.getKey().startsWith(OUTPUT_PREFIX)) {
+                entries.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Indicates if all the outputs recorded in this manifest exist in the given directory with their recorded size.
+     * </p>
+     *
+     * @param directory the output directory
+     * @return {@code true} if at least one output is recorded and none is missing or resized, {@code false} otherwise
+     */
+    public boolean outputsExist(final File directory) {
+        boolean retval = false;
+
+        for (final Map.Entry<String, String> entry : entries.entrySet()) {
+            if (entry.getKey().startsWith(OUTPUT_PREFIX)) {
+                final File file = new File(directory, entry.getKey().substring(OUTPUT_PREFIX.length()));
+
+                if (!file.isFile() || file.length() != Long.parseLong(entry.getValue())) {
+                    return false;
+                }
+
+                retval = true;
+            }
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Indicates if the configuration and the profiles recorded in this manifest are the same as in the given one.
+     * </p>
+     *
+     * @param other the other manifest
+     * @return {@code true} if configuration and profiles are unchanged, {@code false} otherwise
+     */
+    public boolean sameConfiguration(final BuildManifest other) {
+        return same(other, CONFIGURATION) && same(other, PROFILES);
+    }
+
+    /**
+     * <p>
+     * Collects the IDs of workflows whose inputs are different in the given manifest.
+     * </p>
+     *
+     * @param other the other manifest
+     * @param changed the collection where the changed workflows are added
+     */
+    public void changedWorkflows(final BuildManifest other, final Collection<String> changed) {
+        for (final String key : entries.keySet()) {
+            if (key.startsWith(WORKFLOW_PREFIX) && !same(other, key)) {
+                changed.add(key.substring(WORKFLOW_PREFIX.length()));
+            }
+        }
+
+        for (final String key : other.entries.keySet()) {
+            if (key.startsWith(WORKFLOW_PREFIX) && !entries.containsKey(key)) {
+                changed.add(key.substring(WORKFLOW_PREFIX.length()));
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Computes a key representing the configuration, the profiles and the inputs of all the workflows. Unlike the
+     * recorded nut entries, the key does not depend on the location or the last modification date of the files.
+     * </p>
+     *
+     * @return the key
+     */
+    public String key() {
+        final List<String> values = new ArrayList<String>();
+
+        for (final Map.Entry<String, String> entry : entries.entrySet()) {
+            if (entry.getKey().equals(CONFIGURATION) || entry.getKey().equals(PROFILES) || entry.getKey().startsWith(WORKFLOW_PREFIX)) {
+                values.add(entry.getKey());
+                values.add(entry.getValue());
+            }
+        }
+
+        return hash(values.toArray(new String[values.size()]));
+    }
+
+    /**
+     * <p>
+     * Indicates if the given key is associated to the same value in the given manifest.
+     * </p>
+     *
+     * @param other the manifest
+     * @param key the key
+     * @return {@code true} if both values are equal or {@code null}
+     */
+    private boolean same(final BuildManifest other, final String key) {
+        final String value = entries.get(key);
+        return value == null ? other.entries.get(key) == null : value.equals(other.entries.get(key));
+    }
+
+    /**
+     * <p>
+     * Creates a new {@code MessageDigest} for the {@link #ALGORITHM}.
+     * </p>
+     *
+     * @return the message digest
+     */
+    public static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException nsae) {
+            // Every JVM must support SHA-1
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    /**
+     * <p>
+     * Computes the hexadecimal hash of the given file content.
+     * </p>
+     *
+     * @param file the file
+     * @return the hash
+     * @throws IOException if the file can't be read
+     */
+    public static String hash(final File file) throws IOException {
+        final MessageDigest md = newMessageDigest();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        InputStream is = null;
+
+        try {
+            is = new FileInputStream(file);
+            int offset;
+
+            while ((offset = is.read(buffer)) != -1) {
+                md.update(buffer, 0, offset);
+            }
+        } finally {
+            IOUtils.close(is);
+        }
+
+        return toHex(md.digest());
+    }
+
+    /**
+     * <p>
+     * Computes the hexadecimal hash of the given strings. A {@code null} string is distinguished from an empty string.
+     * </p>
+     *
+     * @param values the strings
+     * @return the hash
+     */
+    public static String hash(final String ... values) {
+        final MessageDigest md = newMessageDigest();
+
+        try {
+            for (final String value : values) {
+                md.update(value == null ? new byte[] { 0 } : ("+" + value).getBytes("UTF-8"));
+                md.update((byte) SEPARATOR);
+            }
+        } catch (UnsupportedEncodingException uee) {
+            // Every JVM must support UTF-8
+            throw new IllegalStateException(uee);
+        }
+
+        return toHex(md.digest());
+    }
+
+    /**
+     * <p>
+     * Computes a stamp of the configuration, the profiles and the listing of the given directories. Only the path, the
+     * size and the last modification date of the files are considered: no file is read, so the stamp is cheap enough to
+     * be computed before anything else and to detect a build with nothing to do. The directories are listed by the
+     * given scanner, which reuses the entries of the unmodified directories, and the attributes of each file are read
+     * with a single call.
+     * </p>
+     *
+     * @param configuration the configuration hash
+     * @param profiles the profiles hash
+     * @param directories the directories to list
+     * @param excluded the directories not listed
+     * @param scanner the scanner
+     * @return the stamp
+     * @throws IOException if a directory can't be walked
+     */
+    public static String stamp(final String configuration,
+                               final String profiles,
+                               final Collection<File> directories,
+                               final Collection<File> excluded,
+                               final DirectoryScanner scanner)
+            throws IOException {
+        final MessageDigest md = newMessageDigest();
+        md.update(hash(configuration, profiles).getBytes());
+
+        for (final File directory : directories) {
+            md.update(directory.getAbsolutePath().getBytes());
+            md.update((byte) SEPARATOR);
+
+            for (final String path : scanner.scan(directory, null, excluded)) {
+                md.update((path + SEPARATOR + attributes(new File(directory, path)) + '\n').getBytes());
+            }
+        }
+
+        return toHex(md.digest());
+    }
+
+    /**
+     * <p>
+     * Reads the size and the last modification date of the given file.
+     * </p>
+     *
+     * @param file the file
+     * @return the size and the date separated by {@link #SEPARATOR}, a marker if the file has been deleted meanwhile
+     */
+    private static String attributes(final File file) {
+        try {
+            final BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return String.valueOf(attributes.size()) + SEPARATOR + attributes.lastModifiedTime().toMillis();
+        } catch (IOException ioe) {
+            return "-";
+        }
+    }
+
+    /**
+     * <p>
+     * Converts the given bytes to a lower case hexadecimal string.
+     * </p>
+     *
+     * @param bytes the bytes
+     * @return the hexadecimal string
+     */
+    public static String toHex(final byte[] bytes) {
+        final StringBuilder sb = new StringBuilder(bytes.length * 2);
+
+        for (final byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return sb.toString();
+    }
+}
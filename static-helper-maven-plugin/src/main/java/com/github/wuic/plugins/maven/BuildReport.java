@@ -0,0 +1,350 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import com.github.wuic.util.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * Collects timings and volumes of an execution of the {@link StaticHelperMojo}. Each stage of the execution records
+ * its wall time and the CPU time of the thread running it. Each workflow records the number and the size of its input
+ * and output nuts. The report is written as a JSON file and a summary of the slowest stages is printed to the log.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public class BuildReport {
+
+    /**
+     * <p>
+     * A timed stage of the execution.
+     * </p>
+     *
+     * @author Guillaume DROUET
+     * @since 0.5.3
+     */
+    public final class Stage {
+
+        /**
+         * The name.
+         */
+        private final String name;
+
+        /**
+         * Wall time at start in nanoseconds.
+         */
+        private final long startWall;
+
+        /**
+         * CPU time at start in nanoseconds, -1 if not supported.
+         */
+        private final long startCpu;
+
+        /**
+         * Wall time in nanoseconds.
+         */
+        private long wall;
+
+        /**
+         * CPU time in nanoseconds, -1 if not supported.
+         */
+        private long cpu;
+
+        /**
+         * <p>
+         * Starts a new stage.
+         * </p>
+         *
+         * @param name the name
+         */
+        private Stage(final String name) {
+            this.name = name;
+            this.startCpu = cpuTime();
+            this.startWall = System.nanoTime();
+            this.cpu = -1L;
+        }
+
+        /**
+         * <p>
+         * Ends this stage.
+         * </p>
+         */
+        public void end() {
+            wall = System.nanoTime() - startWall;
+            cpu = startCpu == -1L ? -1L : cpuTime() - startCpu;
+
+            synchronized (stages) {
+                stages.add(this);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Volumes of a workflow.
+     * </p>
+     *
+     * @author Guillaume DROUET
+     * @since 0.5.3
+     */
+    private static final class Workflow {
+
+        /**
+         * Number of input nuts.
+         */
+        private long nutsIn;
+
+        /**
+         * Size of input nuts in bytes.
+         */
+        private long bytesIn;
+
+        /**
+         * Number of output nuts.
+         */
+        private long nutsOut;
+
+        /**
+         * Size of output nuts in bytes.
+         */
+        private long bytesOut;
+    }
+
+    /**
+     * Nanoseconds in a millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1000000d;
+
+    /**
+     * The ended stages.
+     */
+    private final List<Stage> stages;
+
+    /**
+     * The workflows by ID.
+     */
+    private final Map<String, Workflow> workflows;
+
+    /**
+     * The thread MX bean.
+     */
+    private final ThreadMXBean threadMXBean;
+
+    /**
+     * <p>
+     * Builds a new report.
+     * </p>
+     */
+    public BuildReport() {
+        stages = new ArrayList<Stage>();
+        workflows = new TreeMap<String, Workflow>();
+        threadMXBean = ManagementFactory.getThreadMXBean();
+    }
+
+    /**
+     * <p>
+     * Starts a new stage.
+     * </p>
+     *
+     * @param name the stage name
+     * @return the stage to end
+     */
+    public Stage start(final String name) {
+        return new Stage(name);
+    }
+
+    /**
+     * <p>
+     * Records the input nuts of the given workflow.
+     * </p>
+     *
+     * @param workflowId the workflow ID
+     * @param nuts the number of nuts
+     * @param bytes the size of the nuts
+     */
+    public synchronized void inputs(final String workflowId, final long nuts, final long bytes) {
+        final Workflow workflow = workflow(workflowId);
+        workflow.nutsIn += nuts;
+        workflow.bytesIn += bytes;
+    }
+
+    /**
+     * <p>
+     * Records the files written to the given directory. The first segment of a path is the ID of the workflow that
+     * produced the file.
+     * </p>
+     *
+     * @param directory the directory
+     * @param paths the paths of the files relatively to the directory
+     */
+    public synchronized void outputs(final File directory, final Collection<String> paths) {
+        for (final String path : paths) {
+            final int index = path.indexOf('/');
+            final Workflow workflow = workflow(index == -1 ? "" : path.substring(0, index));
+            workflow.nutsOut++;
+            workflow.bytesOut += new File(directory, path).length();
+        }
+    }
+
+    /**
+     * <p>
+     * Writes the report as JSON to the given file.
+     * </p>
+     *
+     * @param file the file
+     * @throws IOException if the file can't be written
+     */
+    public synchronized void write(final File file) throws IOException {
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            throw new IOException(String.format("Could not create directory for report '%s'", file.getAbsolutePath()));
+        }
+
+        Writer writer = null;
+
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            writer.write("{\n  \"stages\": [");
+            String separator = "\n";
+
+            for (final Stage stage : stages) {
+                writer.write(String.format(Locale.ENGLISH, "%s    {\"name\": %s, \"wallMillis\": %.3f, \"cpuMillis\": %.3f}",
+                        separator, quote(stage.name), stage.wall / NANOS_PER_MILLI, stage.cpu / NANOS_PER_MILLI));
+                separator = ",\n";
+            }
+
+            writer.write("\n  ],\n  \"workflows\": [");
+            separator = "\n";
+
+            for (final Map.Entry<String, Workflow> entry : workflows.entrySet()) {
+                final Workflow w = entry.getValue();
+                writer.write(String.format(Locale.ENGLISH, "%s    {\"id\": %s, \"nutsIn\": %d, \"bytesIn\": %d, \"nutsOut\": %d, \"bytesOut\": %d}",
+                        separator, quote(entry.getKey()), w.nutsIn, w.bytesIn, w.nutsOut, w.bytesOut));
+                separator = ",\n";
+            }
+
+            writer.write("\n  ]\n}\n");
+        } finally {
+            IOUtils.close(writer);
+        }
+    }
+
+    /**
+     * <p>
+     * Logs the slowest stages.
+     * </p>
+     *
+     * @param log the log
+     * @param topN the maximum number of stages to log
+     */
+    public synchronized void summary(final Log log, final int topN) {
+        final List<Stage> sorted = new ArrayList<Stage>(stages);
+        Collections.sort(sorted, new Comparator<Stage>() {
+            @Override
+            public int compare(final Stage o1, final Stage o2) {
+                return Long.valueOf(o2.wall).compareTo(o1.wall);
+            }
+        });
+
+        log.info(String.format("Slowest stages of %d:", sorted.size()));
+
+        for (int i = 0; i < sorted.size() && i < topN; i++) {
+            final Stage stage = sorted.get(i);
+            log.info(String.format("  %-30s %10.1f ms wall %10.1f ms CPU",
+                    stage.name, stage.wall / NANOS_PER_MILLI, stage.cpu / NANOS_PER_MILLI));
+        }
+    }
+
+    /**
+     * <p>
+     * Gets the CPU time of the current thread.
+     * </p>
+     *
+     * @return the CPU time in nanoseconds, -1 if not supported
+     */
+    private long cpuTime() {
+        return threadMXBean.isCurrentThreadCpuTimeSupported() ? threadMXBean.getCurrentThreadCpuTime() : -1L;
+    }
+
+    /**
+     * <p>
+     * Gets the given workflow, creating it if necessary.
+     * </p>
+     *
+     * @param id the workflow ID
+     * @return the workflow
+     */
+    private Workflow workflow(final String id) {
+        Workflow retval = workflows.get(id);
+
+        if (retval == null) {
+            retval = new Workflow();
+            workflows.put(id, retval);
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Quotes the given string for JSON.
+     * </p>
+     *
+     * @param value the string
+     * @return the quoted string
+     */
+    static String quote(final String value) {
+        final StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < ' ') {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+
+        return sb.append('"').toString();
+    }
+}
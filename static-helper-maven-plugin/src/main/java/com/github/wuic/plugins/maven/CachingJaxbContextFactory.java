@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * <p>
+ * A JAXB context factory caching the contexts it creates, since creating a context introspects all the bound classes.
+ * The contexts are created by the JAXB reference implementation, either the standalone one or the one bundled with the
+ * JDK, and are thread-safe.
+ * </p>
+ *
+ * <p>
+ * The {@link TaskClassLoader} declares this factory in the 'jaxb.properties' of the WUIC packages, so the contexts
+ * created by WUIC are reused by all the modules processed with the same class loader. JAXB loads the factory with the
+ * context class loader, which is the {@link TaskClassLoader} during a processing: this class is then loaded again by
+ * each {@link TaskClassLoader} and its cache is released with it.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public final class CachingJaxbContextFactory {
+
+    /**
+     * The property declaring the factory in a 'jaxb.properties' file.
+     */
+    public static final String FACTORY_PROPERTY = "javax.xml.bind.context.factory";
+
+    /**
+     * The factories of the reference implementation, standalone first.
+     */
+    private static final String[] DELEGATES = {
+        "com.sun.xml.bind.v2.ContextFactory", "com.sun.xml.internal.bind.v2.ContextFactory",
+    };
+
+    /**
+     * The contexts by class loader of the bound classes and by bound classes or context path.
+     */
+    private static final Map<ClassLoader, Map<String, JAXBContext>> CACHE = new WeakHashMap<ClassLoader, Map<String, JAXBContext>>();
+
+    /**
+     * <p>
+     * Prevents instantiation.
+     * </p>
+     */
+    private CachingJaxbContextFactory() {
+    }
+
+    /**
+     * <p>
+     * Gets the context of the given classes, created on first call. Contexts created with properties are not cached.
+     * </p>
+     *
+     * @param classes the bound classes
+     * @param properties the properties of the implementation, could be {@code null}
+     * @return the context
+     * @throws JAXBException if the context can't be created
+     */
+    public static JAXBContext createContext(final Class<?>[] classes, final Map<String, Object> properties)
+            throws JAXBException {
+        final ClassLoader classLoader = classes.length == 0 ? null : classes[0].getClassLoader();
+        final StringBuilder key = new StringBuilder("classes:");
+
+        for (final Class<?> clazz : classes) {
+            key.append(clazz.getName()).append(',');
+        }
+
+        return get(classLoader, key.toString(), properties, new Class<?>[] { Class[].class, Map.class },
+                new Object[] { classes, properties });
+    }
+
+    /**
+     * <p>
+     * Gets the context of the given packages, created on first call. Contexts created with properties are not cached.
+     * </p>
+     *
+     * @param contextPath the packages separated by ':'
+     * @param classLoader the class loader of the bound classes
+     * @param properties the properties of the implementation, could be {@code null}
+     * @return the context
+     * @throws JAXBException if the context can't be created
+     */
+    public static JAXBContext createContext(final String contextPath,
+                                            final ClassLoader classLoader,
+                                            final Map<String, Object> properties)
+            throws JAXBException {
+        return get(classLoader, "path:" + contextPath, properties,
+                new Class<?>[] { String.class, ClassLoader.class, Map.class },
+                new Object[] { contextPath, classLoader, properties });
+    }
+
+    /**
+     * <p>
+     * Gets the cached context or creates it with the reference implementation.
+     * </p>
+     *
+     * @param classLoader the class loader of the bound classes
+     * @param key the key of the context for this class loader
+     * @param properties the properties of the implementation, could be {@code null}
+     * @param types the parameter types of the factory method of the implementation
+     * @param args the arguments of the factory method of the implementation
+     * @return the context
+     * @throws JAXBException if the context can't be created
+     */
+    private static JAXBContext get(final ClassLoader classLoader,
+                                   final String key,
+                                   final Map<String, Object> properties,
+                                   final Class<?>[] types,
+                                   final Object[] args)
+            throws JAXBException {
+        if (properties != null && !properties.isEmpty()) {
+            return create(classLoader, types, args);
+        }
+
+        synchronized (CACHE) {
+            final Map<String, JAXBContext> contexts = CACHE.get(classLoader);
+
+            if (contexts != null && contexts.containsKey(key)) {
+                return contexts.get(key);
+            }
+        }
+
+        // Concurrent calls may create the same context, the first one is kept
+        final JAXBContext retval = create(classLoader, types, args);
+
+        synchronized (CACHE) {
+            Map<String, JAXBContext> contexts = CACHE.get(classLoader);
+
+            if (contexts == null) {
+                contexts = new HashMap<String, JAXBContext>();
+                CACHE.put(classLoader, contexts);
+            } else if (contexts.containsKey(key)) {
+                return contexts.get(key);
+            }
+
+            contexts.put(key, retval);
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Creates a context with the first reference implementation found by the given class loader or by the class
+     * loader of this class.
+     * </p>
+     *
+     * @param classLoader the class loader of the bound classes
+     * @param types the parameter types of the factory method
+     * @param args the arguments of the factory method
+     * @return the created context
+     * @throws JAXBException if no accessible implementation is found or if the context can't be created
+     */
+    private static JAXBContext create(final ClassLoader classLoader, final Class<?>[] types, final Object[] args)
+            throws JAXBException {
+        final ClassLoader lookup = classLoader == null ? CachingJaxbContextFactory.class.getClassLoader() : classLoader;
+        IllegalAccessException denied = null;
+
+        for (final String delegate : DELEGATES) {
+            final Method method;
+
+            try {
+                method = Class.forName(delegate, true, lookup).getMethod("createContext", types);
+            } catch (ClassNotFoundException cnfe) {
+                continue;
+            } catch (NoSuchMethodException nsme) {
+                continue;
+            }
+
+            try {
+                return JAXBContext.class.cast(method.invoke(null, args));
+            } catch (IllegalAccessException iae) {
+                // The internal implementation may not be exported, try the next implementation
+                denied = iae;
+            } catch (InvocationTargetException ite) {
+                if (ite.getCause() instanceof JAXBException) {
+                    throw JAXBException.class.cast(ite.getCause());
+                }
+
+                throw new JAXBException(ite.getCause());
+            }
+        }
+
+        throw new JAXBException(String.format("No JAXB implementation found among %s", Arrays.toString(DELEGATES)),
+                denied);
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import com.github.wuic.util.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+
+/**
+ * <p>
+ * Replaces the byte-identical files of a directory by hard links to a single copy. Candidates are grouped by size and
+ * only files sharing their size with another file are hashed. The first path in lexicographic order is kept and the
+ * other ones become links to it.
+ * </p>
+ *
+ * <p>
+ * A linked file must not be written again in place, otherwise all its links would change. The duplicates are recorded
+ * in an index so they can be removed with {@link #unlink(File, File)} before the directory is written again.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public class Deduplicator {
+
+    /**
+     * The executor hashing the files.
+     */
+    private final ParallelExecutor executor;
+
+    /**
+     * Number of bytes saved by the last deduplication.
+     */
+    private long savedBytes;
+
+    /**
+     * The error that stopped the last deduplication, {@code null} if none.
+     */
+    private IOException failure;
+
+    /**
+     * <p>
+     * Builds a new instance.
+     * </p>
+     *
+     * @param executor the executor
+     */
+    public Deduplicator(final ParallelExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * <p>
+     * Links the duplicated files among the given paths. Linking stops at the first link that can't be created and the
+     * remaining duplicates are kept as copies: nothing is reported if the file system provider does not support
+     * hard links, other errors are returned by {@link #getFailure()}.
+     * </p>
+     *
+     * @param directory the directory containing the files
+     * @param paths the paths of the files relative to the directory
+     * @return the duplicated paths associated to the path of the kept file, empty if links are not supported
+     * @throws IOException if a file can't be read
+     */
+    public Map<String, String> deduplicate(final File directory, final Collection<String> paths) throws IOException {
+        final Map<Long, List<String>> bySize = new TreeMap<Long, List<String>>();
+
+        for (final String path : new TreeSet<String>(paths)) {
+            final long size = new File(directory, path).length();
+
+            if (size > 0) {
+                List<String> group = bySize.get(size);
+
+                if (group == null) {
+                    group = new ArrayList<String>();
+                    bySize.put(size, group);
+                }
+
+                group.add(path);
+            }
+        }
+
+        final List<String> candidates = new ArrayList<String>();
+        final List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+
+        for (final List<String> group : bySize.values()) {
+            if (group.size() > 1) {
+                for (final String path : group) {
+                    candidates.add(path);
+                    tasks.add(new Callable<String>() {
+                        @Override
+                        public String call() throws IOException {
+                            return BuildManifest.hash(new File(directory, path));
+                        }
+                    });
+                }
+            }
+        }
+
+        final List<String> hashes = executor.invokeAll(tasks);
+        final Map<String, String> canonicals = new LinkedHashMap<String, String>();
+        final Map<String, String> retval = new TreeMap<String, String>();
+        savedBytes = 0L;
+        failure = null;
+
+        for (int i = 0; i < candidates.size(); i++) {
+            final String path = candidates.get(i);
+            final File file = new File(directory, path);
+            final String key = file.length() + "|" + hashes.get(i);
+            final String canonical = canonicals.get(key);
+
+            if (canonical == null) {
+                canonicals.put(key, path);
+            } else {
+                try {
+                    if (!link(file.toPath(), new File(directory, canonical).toPath())) {
+                        // File system does not support hard links
+                        return retval;
+                    }
+                } catch (IOException ioe) {
+                    failure = ioe;
+                    return retval;
+                }
+
+                retval.put(path, canonical);
+                savedBytes += file.length();
+            }
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Gets the number of bytes saved by the last deduplication.
+     * </p>
+     *
+     * @return the saved bytes
+     */
+    public long getSavedBytes() {
+        return savedBytes;
+    }
+
+    /**
+     * <p>
+     * Gets the error that stopped the last deduplication.
+     * </p>
+     *
+     * @return the error, {@code null} if all the duplicates have been linked or if links are not supported
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * <p>
+     * Writes the index of the duplicates.
+     * </p>
+     *
+     * @param index the index file
+     * @param duplicates the duplicated paths associated to the path of the kept file
+     * @throws IOException if the index can't be written
+     */
+    public static void write(final File index, final Map<String, String> duplicates) throws IOException {
+        if (!index.getParentFile().isDirectory() && !index.getParentFile().mkdirs()) {
+            throw new IOException(String.format("Could not create directory '%s'", index.getParent()));
+        }
+
+        final Properties properties = new Properties();
+        properties.putAll(duplicates);
+        OutputStream os = null;
+
+        try {
+            os = new FileOutputStream(index);
+            properties.store(os, null);
+        } finally {
+            IOUtils.close(os);
+        }
+    }
+
+    /**
+     * <p>
+     * Deletes the duplicates recorded in the given index, so the directory can be written again without changing the
+     * files they are linked to. The index is deleted too.
+     * </p>
+     *
+     * @param directory the directory containing the files
+     * @param index the index file
+     * @throws IOException if the index can't be read or a duplicate can't be deleted
+     */
+    public static void unlink(final File directory, final File index) throws IOException {
+        if (!index.isFile()) {
+            return;
+        }
+
+        final Properties properties = new Properties();
+        InputStream is = null;
+
+        try {
+            is = new FileInputStream(index);
+            properties.load(is);
+        } finally {
+            IOUtils.close(is);
+        }
+
+        for (final String path : properties.stringPropertyNames()) {
+            final File file = new File(directory, path);
+
+            if (file.exists() && !file.delete()) {
+                throw new IOException(String.format("Could not delete linked file '%s'", file.getAbsolutePath()));
+            }
+        }
+
+        if (!index.delete()) {
+            throw new IOException(String.format("Could not delete index '%s'", index.getAbsolutePath()));
+        }
+    }
+
+    /**
+     * <p>
+     * Replaces the given file by a hard link to the given target.
+     * </p>
+     *
+     * @param file the file
+     * @param target the target
+     * @return {@code true} if the link has been created, {@code false} if hard links are not supported
+     * @throws IOException if the link can't be created or the file can't be replaced
+     */
+    private static boolean link(final Path file, final Path target) throws IOException {
+        final Path temp = file.resolveSibling(file.getFileName() + ".link");
+        Files.deleteIfExists(temp);
+
+        try {
+            Files.createLink(temp, target);
+        } catch (UnsupportedOperationException uoe) {
+            return false;
+        } catch (IOException ioe) {
+            Files.deleteIfExists(temp);
+            throw ioe;
+        }
+
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            Files.deleteIfExists(temp);
+            throw ioe;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import com.github.wuic.util.IOUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Lists the files of a directory tree matching a set of patterns. Patterns are compiled once and a directory is walked
+ * only if one of the patterns could match a path starting with the path of that directory, so large trees that can't
+ * contain any nut are pruned. The subdirectories of the root are walked concurrently.
+ * </p>
+ *
+ * <p>
+ * The content of each directory can be persisted between two builds. A directory whose last modification date is
+ * unchanged has the same entries, so its content is taken from the previous listing instead of being read again. Only
+ * the directories modified since are listed.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public class DirectoryScanner {
+
+    /**
+     * <p>
+     * The entries of a directory.
+     * </p>
+     *
+     * @author Guillaume DROUET
+     * @since 0.5.3
+     */
+    static final class Entries {
+
+        /**
+         * Last modification date of the directory when listed.
+         */
+        private final long lastModified;
+
+        /**
+         * Names of the subdirectories.
+         */
+        private final List<String> directories;
+
+        /**
+         * Names of the files.
+         */
+        private final List<String> files;
+
+        /**
+         * <p>
+         * Builds a new instance.
+         * </p>
+         *
+         * @param lastModified the last modification date
+         * @param directories the subdirectories
+         * @param files the files
+         */
+        Entries(final long lastModified, final List<String> directories, final List<String> files) {
+            this.lastModified = lastModified;
+            this.directories = directories;
+            this.files = files;
+        }
+    }
+
+    /**
+     * First line of a persisted listing.
+     */
+    private static final String HEADER = "# wuic-static-helper directory listing v1";
+
+    /**
+     * Directories modified less than this delay in milliseconds before a listing are listed again, because a change
+     * made in the same time unit than the listing can't be detected from the last modification date.
+     */
+    private static final long RACY_DELAY = 2000L;
+
+    /**
+     * Separator of the fields of a persisted directory.
+     */
+    private static final char SEPARATOR = '\t';
+
+    /**
+     * The executor walking subdirectories concurrently.
+     */
+    private final ParallelExecutor executor;
+
+    /**
+     * Entries of the previous listing by directory.
+     */
+    private final Map<String, Entries> previous;
+
+    /**
+     * Entries of the current listing by directory.
+     */
+    private final Map<String, Entries> current;
+
+    /**
+     * Time of the previous listing.
+     */
+    private long previousTime;
+
+    /**
+     * Time of the current listing.
+     */
+    private final long time;
+
+    /**
+     * <p>
+     * Builds a new instance.
+     * </p>
+     *
+     * @param executor the executor
+     */
+    public DirectoryScanner(final ParallelExecutor executor) {
+        this.executor = executor;
+        this.previous = new ConcurrentHashMap<String, Entries>();
+        this.current = new ConcurrentHashMap<String, Entries>();
+        this.time = System.currentTimeMillis();
+    }
+
+    /**
+     * <p>
+     * Reads the listing persisted by a previous build. Nothing is read if the file does not exist or is corrupted.
+     * </p>
+     *
+     * @param file the file
+     */
+    public void load(final File file) {
+        if (!file.isFile()) {
+            return;
+        }
+
+        BufferedReader reader = null;
+
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+            if (!HEADER.equals(reader.readLine())) {
+                return;
+            }
+
+            previousTime = Long.parseLong(reader.readLine());
+
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                final String[] fields = line.split(String.valueOf(SEPARATOR), -1);
+                final List<String> directories = new ArrayList<String>();
+                final List<String> files = new ArrayList<String>();
+
+                for (int i = 2; i < fields.length; i++) {
+                    (fields[i].charAt(0) == 'd' ? directories : files).add(fields[i].substring(1));
+                }
+
+                previous.put(fields[0], new Entries(Long.parseLong(fields[1]), directories, files));
+            }
+        } catch (IOException ioe) {
+            // Everything will be listed again
+            previous.clear();
+        } catch (RuntimeException re) {
+            previous.clear();
+        } finally {
+            IOUtils.close(reader);
+        }
+    }
+
+    /**
+     * <p>
+     * Persists the directories listed since this scanner has been created.
+     * </p>
+     *
+     * @param file the file
+     * @throws IOException if the file can't be written
+     */
+    public void store(final File file) throws IOException {
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            throw new IOException(String.format("Could not create directory '%s'", file.getParent()));
+        }
+
+        Writer writer = null;
+
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            writer.write(HEADER);
+            writer.write('\n');
+            writer.write(String.valueOf(time));
+            writer.write('\n');
+
+            for (final Map.Entry<String, Entries> entry : new TreeMap<String, Entries>(current).entrySet()) {
+                writer.write(entry.getKey());
+                writer.write(SEPARATOR);
+                writer.write(String.valueOf(entry.getValue().lastModified));
+
+                for (final String directory : entry.getValue().directories) {
+                    writer.write(SEPARATOR);
+                    writer.write('d');
+                    writer.write(directory);
+                }
+
+                for (final String f : entry.getValue().files) {
+                    writer.write(SEPARATOR);
+                    writer.write('f');
+                    writer.write(f);
+                }
+
+                writer.write('\n');
+            }
+        } finally {
+            IOUtils.close(writer);
+        }
+    }
+
+    /**
+     * <p>
+     * Lists the files of the given directory whose relative path matches one of the given patterns.
+     * </p>
+     *
+     * @param root the directory
+     * @param patterns the patterns, {@code null} to list all the files
+     * @return the relative paths with '/' as separator, sorted
+     * @throws IOException if a directory can't be walked
+     */
+    public List<String> scan(final File root, final List<Pattern> patterns) throws IOException {
+        return scan(root, patterns, Collections.<File>emptySet());
+    }
+
+    /**
+     * <p>
+     * Lists the files of the given directory whose relative path matches one of the given patterns. The given
+     * subdirectories are pruned.
+     * </p>
+     *
+     * @param root the directory
+     * @param patterns the patterns, {@code null} to list all the files
+     * @param excluded the absolute directories not walked
+     * @return the relative paths with '/' as separator, sorted
+     * @throws IOException if a directory can't be walked
+     */
+    public List<String> scan(final File root, final List<Pattern> patterns, final Collection<File> excluded)
+            throws IOException {
+        final List<String> retval = new ArrayList<String>();
+        final Entries entries = entries(root);
+
+        if (entries == null) {
+            return retval;
+        }
+
+        final List<Callable<List<String>>> tasks = new ArrayList<Callable<List<String>>>();
+
+        for (final String name : entries.directories) {
+            final String path = name + '/';
+
+            if (mayMatch(patterns, path) && !excluded.contains(new File(root, name).getAbsoluteFile())) {
+                tasks.add(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() {
+                        final List<String> paths = new ArrayList<String>();
+                        walk(new File(root, name), path, patterns, excluded, paths);
+                        return paths;
+                    }
+                });
+            }
+        }
+
+        addMatching(entries, "", patterns, retval);
+
+        for (final List<String> paths : executor.invokeAll(tasks)) {
+            retval.addAll(paths);
+        }
+
+        Collections.sort(retval);
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Walks recursively the given directory.
+     * </p>
+     *
+     * @param directory the directory
+     * @param prefix the path of the directory relatively to the root, ending with '/'
+     * @param patterns the patterns, {@code null} to list all the files
+     * @param excluded the absolute directories not walked
+     * @param paths where matching paths are added
+     */
+    private void walk(final File directory,
+                      final String prefix,
+                      final List<Pattern> patterns,
+                      final Collection<File> excluded,
+                      final List<String> paths) {
+        final Entries entries = entries(directory);
+
+        if (entries == null) {
+            return;
+        }
+
+        addMatching(entries, prefix, patterns, paths);
+
+        for (final String name : entries.directories) {
+            final String path = prefix + name + '/';
+
+            final File subdirectory = new File(directory, name);
+
+            if (mayMatch(patterns, path) && !excluded.contains(subdirectory.getAbsoluteFile())) {
+                walk(subdirectory, path, patterns, excluded, paths);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Adds the files of the given entries matching one of the patterns.
+     * </p>
+     *
+     * @param entries the entries
+     * @param prefix the path of the directory relatively to the root, ending with '/' if not empty
+     * @param patterns the patterns, {@code null} to add all the files
+     * @param paths where matching paths are added
+     */
+    private static void addMatching(final Entries entries,
+                                    final String prefix,
+                                    final List<Pattern> patterns,
+                                    final List<String> paths) {
+        for (final String name : entries.files) {
+            final String path = prefix + name;
+
+            if (patterns == null) {
+                paths.add(path);
+            } else {
+                for (final Pattern pattern : patterns) {
+                    if (pattern.matcher(path).matches()) {
+                        paths.add(path);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Indicates if a path starting with the given directory path could match one of the patterns. A directory is
+     * pruned when the matcher fails before reaching the end of its path, which means that no longer path can match.
+     * </p>
+     *
+     * @param patterns the patterns, {@code null} to match everything
+     * @param path the path of the directory ending with '/'
+     * @return {@code true} if the directory must be walked, {@code false} otherwise
+     */
+    static boolean mayMatch(final List<Pattern> patterns, final String path) {
+        if (patterns == null) {
+            return true;
+        }
+
+        for (final Pattern pattern : patterns) {
+            final Matcher matcher = pattern.matcher(path);
+
+            if (matcher.matches() || matcher.hitEnd()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * <p>
+     * Gets the entries of the given directory, from the previous listing if the directory has not been modified since.
+     * </p>
+     *
+     * @param directory the directory
+     * @return the entries, {@code null} if the directory can't be listed
+     */
+    private Entries entries(final File directory) {
+        final String key = directory.getAbsolutePath();
+        final long lastModified = directory.lastModified();
+        Entries retval = previous.get(key);
+
+        if (retval == null || retval.lastModified != lastModified || lastModified >= previousTime - RACY_DELAY) {
+            final File[] files = directory.listFiles();
+
+            if (files == null) {
+                return null;
+            }
+
+            Arrays.sort(files);
+            final List<String> directories = new ArrayList<String>();
+            final List<String> names = new ArrayList<String>();
+            boolean persistable = true;
+
+            for (final File file : files) {
+                (file.isDirectory() ? directories : names).add(file.getName());
+                persistable &= file.getName().indexOf(SEPARATOR) == -1 && file.getName().indexOf('\n') == -1
+                        && file.getName().indexOf('\r') == -1;
+            }
+
+            retval = new Entries(lastModified, directories, names);
+
+            if (!persistable) {
+                return retval;
+            }
+        }
+
+        current.put(key, retval);
+        return retval;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Watches recursively a set of directories with a {@link WatchService}. Directories created after the registration
+ * are watched too. Changes inside an excluded directory, typically the build directory where outputs are written,
+ * are ignored.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public class DirectoryWatcher implements Closeable {
+
+    /**
+     * The watch service.
+     */
+    private final WatchService watchService;
+
+    /**
+     * The watched directories by key.
+     */
+    private final Map<WatchKey, Path> keys;
+
+    /**
+     * The excluded directory.
+     */
+    private final Path excluded;
+
+    /**
+     * <p>
+     * Builds a new instance watching the given directories.
+     * </p>
+     *
+     * @param directories the directories
+     * @param excluded the excluded directory, {@code null} if nothing is excluded
+     * @throws IOException if the directories can't be watched
+     */
+    public DirectoryWatcher(final List<File> directories, final File excluded) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.keys = new HashMap<WatchKey, Path>();
+        this.excluded = excluded == null ? null : excluded.getAbsoluteFile().toPath();
+
+        for (final File directory : directories) {
+            if (directory.isDirectory()) {
+                register(directory.getAbsoluteFile().toPath());
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Blocks until a change is detected and then until no change happens during the given delay, so a burst of events
+     * produced by a single save or a checkout is reported once.
+     * </p>
+     *
+     * @param debounce the delay in milliseconds
+     * @throws IOException if a new directory can't be watched
+     * @throws InterruptedException if the thread is interrupted
+     */
+    public void await(final long debounce) throws IOException, InterruptedException {
+        boolean changed = drain(watchService.take());
+
+        while (!changed) {
+            changed = drain(watchService.take());
+        }
+
+        WatchKey key;
+
+        while ((key = watchService.poll(debounce, TimeUnit.MILLISECONDS)) != null) {
+            drain(key);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    /**
+     * <p>
+     * Registers the given directory and its sub directories.
+     * </p>
+     *
+     * @param directory the directory
+     * @throws IOException if a directory can't be registered
+     */
+    private void register(final Path directory) throws IOException {
+        if (excluded != null && directory.startsWith(excluded)) {
+            return;
+        }
+
+        keys.put(directory.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE), directory);
+        final File[] files = directory.toFile().listFiles();
+
+        if (files != null) {
+            for (final File file : files) {
+                if (file.isDirectory()) {
+                    register(file.toPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Consumes the events of the given key.
+     * </p>
+     *
+     * @param key the key
+     * @return {@code true} if a relevant change has been detected, {@code false} otherwise
+     * @throws IOException if a new directory can't be watched
+     */
+    private boolean drain(final WatchKey key) throws IOException {
+        final Path directory = keys.get(key);
+        boolean retval = false;
+
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (directory == null || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                retval = true;
+                continue;
+            }
+
+            final Path path = directory.resolve(Path.class.cast(event.context()));
+
+            if (excluded == null || !path.startsWith(excluded)) {
+                retval = true;
+
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                    register(path);
+                }
+            }
+        }
+
+        if (!key.reset()) {
+            keys.remove(key);
+        }
+
+        return retval;
+    }
+}
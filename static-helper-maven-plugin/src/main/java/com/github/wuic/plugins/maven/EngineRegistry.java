@@ -0,0 +1,319 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import com.github.wuic.WuicTask;
+import com.github.wuic.util.IOUtils;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * <p>
+ * A JVM-wide registry of the WUIC engines initialized by the {@link StaticHelperMojo}. An engine is represented by the
+ * {@link TaskClassLoader} that loads WUIC with its dependencies: once a module has been processed, its classes are
+ * loaded and their static state is initialized, so the next modules with the same dependencies only feed their own
+ * nuts to it.
+ * </p>
+ *
+ * <p>
+ * A module processes its nuts with a class loader acquired with {@link #acquire(Object, List, List)} and released with
+ * {@link #release(TaskClassLoader)}. A class loader is used by a single module at a time, which attaches its
+ * directories to it: modules with the same dependencies processed concurrently by a parallel build get distinct class
+ * loaders, that are reused by the next modules once released.
+ * </p>
+ *
+ * <p>
+ * The registry is bound to a Maven session. When an execution belongs to a new session, which happens when the JVM
+ * is reused to run several builds, the engines of the previous session are released.
+ * </p>
+ *
+ * <p>
+ * An engine can be warmed up in background with {@link #warmUp(TaskClassLoader, File)}, typically by the
+ * {@link PrepareMojo} early in the build: the JAXB contexts of WUIC are created and the configuration is parsed while
+ * Maven runs the other phases. The processing waits for the warm-up with {@link #awaitWarmUp(TaskClassLoader)} before using the
+ * engine.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public final class EngineRegistry {
+
+    /**
+     * The class loaders by URLs of the dependencies, in creation order.
+     */
+    private static final Map<List<URL>, List<TaskClassLoader>> CLASS_LOADERS = new HashMap<List<URL>, List<TaskClassLoader>>();
+
+    /**
+     * The class loaders currently used by a module.
+     */
+    private static final Set<TaskClassLoader> ACQUIRED = new HashSet<TaskClassLoader>();
+
+    /**
+     * The warm-ups started for the class loaders.
+     */
+    private static final Map<TaskClassLoader, Future<Integer>> WARM_UPS = new HashMap<TaskClassLoader, Future<Integer>>();
+
+    /**
+     * Package of the JAXB classes bound during a warm-up.
+     */
+    private static final String WUIC_PACKAGE = "com.github.wuic";
+
+    /**
+     * The current session.
+     */
+    private static Object session;
+
+    /**
+     * <p>
+     * Prevent instantiation of this class which provides only static methods.
+     * </p>
+     */
+    private EngineRegistry() {
+    }
+
+    /**
+     * <p>
+     * Gets a class loader for the given dependencies that is not used by a module, creating it if necessary. The
+     * oldest class loader is preferred since it is the most likely to be warm.
+     * </p>
+     *
+     * @param currentSession an object identifying the current session, {@code null} if unknown
+     * @param urls the URLs of the dependencies
+     * @return the class loader
+     */
+    public static synchronized TaskClassLoader classLoader(final Object currentSession, final List<URL> urls) {
+        enterSession(currentSession);
+        final List<URL> key = new ArrayList<URL>(urls);
+        List<TaskClassLoader> classLoaders = CLASS_LOADERS.get(key);
+
+        if (classLoaders == null) {
+            classLoaders = new ArrayList<TaskClassLoader>();
+            CLASS_LOADERS.put(key, classLoaders);
+        }
+
+        for (final TaskClassLoader classLoader : classLoaders) {
+            if (!ACQUIRED.contains(classLoader)) {
+                return classLoader;
+            }
+        }
+
+        final TaskClassLoader retval = new TaskClassLoader(key);
+        classLoaders.add(retval);
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Acquires a class loader for the given dependencies and attaches the directories of the module to it. The class
+     * loader is not given to another module until it is released.
+     * </p>
+     *
+     * @param currentSession an object identifying the current session, {@code null} if unknown
+     * @param urls the URLs of the dependencies
+     * @param directories the directories of the module
+     * @return the class loader
+     */
+    public static synchronized TaskClassLoader acquire(final Object currentSession,
+                                                       final List<URL> urls,
+                                                       final List<File> directories) {
+        final TaskClassLoader retval = classLoader(currentSession, urls);
+        retval.enter(directories);
+        ACQUIRED.add(retval);
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Detaches the directories of the module from the given class loader and makes it available to other modules.
+     * </p>
+     *
+     * @param classLoader the class loader acquired with {@link #acquire(Object, List, List)}
+     */
+    public static synchronized void release(final TaskClassLoader classLoader) {
+        classLoader.exit();
+        ACQUIRED.remove(classLoader);
+
+        // Cleared while used by the module
+        if (!isRegistered(classLoader)) {
+            IOUtils.close(classLoader);
+        }
+    }
+
+    /**
+     * <p>
+     * Starts the warm-up of the given engine in a background thread, unless already started. The JAXB contexts of
+     * the WUIC classes annotated with {@code XmlRootElement} are created, found by scanning the archives rather than
+     * loading all the classes. They are cached by the {@link CachingJaxbContextFactory} of the class loader and reused
+     * by WUIC. The given configuration is parsed by the plugin, so its {@link XmlConfiguration} is cached for the
+     * processing. WUIC still unmarshals it when the task runs.
+     * </p>
+     *
+     * @param classLoader the class loader of the engine
+     * @param xml the XML configuration, {@code null} if none
+     */
+    public static synchronized void warmUp(final TaskClassLoader classLoader, final File xml) {
+        if (WARM_UPS.containsKey(classLoader)) {
+            return;
+        }
+
+        final FutureTask<Integer> task = new FutureTask<Integer>(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                Class.forName(WuicTask.class.getName(), true, classLoader);
+
+                if (xml != null && xml.isFile()) {
+                    XmlConfiguration.read(xml);
+                }
+
+                int retval = 0;
+
+                for (final String name : classLoader.xmlRootElements(WUIC_PACKAGE)) {
+                    final Class<?> clazz;
+
+                    try {
+                        clazz = Class.forName(name, false, classLoader);
+                    } catch (ClassNotFoundException cnfe) {
+                        // Not loadable, it will fail the same way when used
+                        continue;
+                    } catch (LinkageError le) {
+                        // Optional dependency missing
+                        continue;
+                    }
+
+                    if (clazz.getAnnotation(XmlRootElement.class) == null) {
+                        continue;
+                    }
+
+                    // Created by the caching factory declared by the class loader for the WUIC packages
+                    JAXBContext.newInstance(clazz);
+                    retval++;
+                }
+
+                return retval;
+            }
+        });
+
+        final Thread thread = new Thread(task, "wuic-engine-warm-up");
+        thread.setDaemon(true);
+        thread.setContextClassLoader(classLoader);
+        thread.start();
+        WARM_UPS.put(classLoader, task);
+    }
+
+    /**
+     * <p>
+     * Waits for the end of the warm-up of the given engine, if any.
+     * </p>
+     *
+     * @param classLoader the class loader of the engine
+     * @return the number of created JAXB contexts, -1 if no warm-up has been started
+     * @throws IOException if the warm-up failed or the current thread has been interrupted
+     */
+    public static int awaitWarmUp(final TaskClassLoader classLoader) throws IOException {
+        final Future<Integer> future;
+
+        synchronized (EngineRegistry.class) {
+            future = WARM_UPS.get(classLoader);
+        }
+
+        if (future == null) {
+            return -1;
+        }
+
+        try {
+            return future.get();
+        } catch (ExecutionException ee) {
+            throw new IOException("Warm-up of the engine failed", ee.getCause());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ie);
+        }
+    }
+
+    /**
+     * <p>
+     * Releases all the engines and the parsed configurations. The class loaders are closed, once released for the
+     * class loaders used by a module.
+     * </p>
+     */
+    public static synchronized void clear() {
+        for (final List<TaskClassLoader> classLoaders : CLASS_LOADERS.values()) {
+            for (final TaskClassLoader classLoader : classLoaders) {
+                if (!ACQUIRED.contains(classLoader)) {
+                    IOUtils.close(classLoader);
+                }
+            }
+        }
+
+        CLASS_LOADERS.clear();
+        WARM_UPS.clear();
+        XmlConfiguration.clear();
+    }
+
+    /**
+     * <p>
+     * Indicates if the given class loader can still be given to a module.
+     * </p>
+     *
+     * @param classLoader the class loader
+     * @return {@code true} if the class loader is registered, {@code false} if it has been cleared
+     */
+    private static boolean isRegistered(final TaskClassLoader classLoader) {
+        for (final List<TaskClassLoader> classLoaders : CLASS_LOADERS.values()) {
+            if (classLoaders.contains(classLoader)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * <p>
+     * Releases the engines of the previous session if the given session is a new one.
+     * </p>
+     *
+     * @param currentSession the current session, {@code null} if unknown
+     */
+    private static void enterSession(final Object currentSession) {
+        if (currentSession != null && !currentSession.equals(session)) {
+            clear();
+            session = currentSession;
+        }
+    }
+}
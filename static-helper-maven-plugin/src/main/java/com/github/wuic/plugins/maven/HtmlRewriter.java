@@ -0,0 +1,485 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import com.github.wuic.util.IOUtils;
+import org.attoparser.AbstractChainedMarkupHandler;
+import org.attoparser.AbstractMarkupHandler;
+import org.attoparser.IMarkupParser;
+import org.attoparser.MarkupParser;
+import org.attoparser.ParseException;
+import org.attoparser.config.ParseConfiguration;
+import org.attoparser.output.OutputMarkupHandler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * <p>
+ * Rewrites the asset references of HTML pages to the versioned URLs of the processed nuts. A page is parsed as a stream
+ * of markup events by attoparser and written back unchanged by an {@link OutputMarkupHandler}, so only the buffer of
+ * the parser is held in memory. The 'src' and 'href' attributes referencing a nut by its unversioned URL, the context
+ * path followed by the workflow ID and the nut name, are replaced by the URL of the nut written in its version
+ * directory.
+ * </p>
+ *
+ * <p>
+ * A page is decoded and written with the charset declared by its {@code <meta charset>} element in its first bytes,
+ * or with the default charset given to this instance. The URLs are computed once from the processed nuts and shared
+ * by all the pages, which are rewritten concurrently.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public class HtmlRewriter {
+
+    /**
+     * Prefix of the names of the rewriting tasks.
+     */
+    public static final String TASK_PREFIX = "html:";
+
+    /**
+     * Charset of the pages when none is specified.
+     */
+    public static final String DEFAULT_CHARSET = "UTF-8";
+
+    /**
+     * Number of bytes searched for a {@code <meta charset>} element, as in the prescan of the HTML specification.
+     */
+    private static final int PRESCAN_SIZE = 1024;
+
+    /**
+     * Size of the buffer of the reader and of the writer.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The parser, which can be shared by concurrent rewritings.
+     */
+    private static final IMarkupParser PARSER = new MarkupParser(ParseConfiguration.htmlConfiguration());
+
+    /**
+     * <p>
+     * Finds the charset declared by the 'charset' attribute of the first {@code <meta>} element.
+     * </p>
+     *
+     * @author Guillaume DROUET
+     * @since 0.5.3
+     */
+    private static final class CharsetHandler extends AbstractMarkupHandler {
+
+        /**
+         * If the attributes being parsed belong to a {@code <meta>} element.
+         */
+        private boolean meta;
+
+        /**
+         * The declared charset, {@code null} if not found yet.
+         */
+        private String charset;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void handleOpenElementStart(final char[] buffer,
+                                           final int nameOffset,
+                                           final int nameLen,
+                                           final int line,
+                                           final int col) {
+            meta = is(buffer, nameOffset, nameLen, "meta");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void handleStandaloneElementStart(final char[] buffer,
+                                                 final int nameOffset,
+                                                 final int nameLen,
+                                                 final boolean minimized,
+                                                 final int line,
+                                                 final int col) {
+            meta = is(buffer, nameOffset, nameLen, "meta");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void handleAttribute(final char[] buffer,
+                                    final int nameOffset,
+                                    final int nameLen,
+                                    final int nameLine,
+                                    final int nameCol,
+                                    final int operatorOffset,
+                                    final int operatorLen,
+                                    final int operatorLine,
+                                    final int operatorCol,
+                                    final int valueContentOffset,
+                                    final int valueContentLen,
+                                    final int valueOuterOffset,
+                                    final int valueOuterLen,
+                                    final int valueLine,
+                                    final int valueCol) {
+            if (meta && charset == null && is(buffer, nameOffset, nameLen, "charset")) {
+                charset = new String(buffer, valueContentOffset, valueContentLen).trim();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Replaces the references to the processed nuts before passing the attributes to the next handler.
+     * </p>
+     *
+     * @author Guillaume DROUET
+     * @since 0.5.3
+     */
+    private final class RewritingHandler extends AbstractChainedMarkupHandler {
+
+        /**
+         * The number of rewritten references.
+         */
+        private int count;
+
+        /**
+         * <p>
+         * Builds a new instance.
+         * </p>
+         *
+         * @param writer the writer of the rewritten page
+         */
+        private RewritingHandler(final Writer writer) {
+            super(new OutputMarkupHandler(writer));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void handleAttribute(final char[] buffer,
+                                    final int nameOffset,
+                                    final int nameLen,
+                                    final int nameLine,
+                                    final int nameCol,
+                                    final int operatorOffset,
+                                    final int operatorLen,
+                                    final int operatorLine,
+                                    final int operatorCol,
+                                    final int valueContentOffset,
+                                    final int valueContentLen,
+                                    final int valueOuterOffset,
+                                    final int valueOuterLen,
+                                    final int valueLine,
+                                    final int valueCol)
+                throws ParseException {
+            final String rewritten = is(buffer, nameOffset, nameLen, "src") || is(buffer, nameOffset, nameLen, "href") ?
+                    versioned(new String(buffer, valueContentOffset, valueContentLen)) : null;
+
+            if (rewritten == null) {
+                getNext().handleAttribute(buffer, nameOffset, nameLen, nameLine, nameCol,
+                        operatorOffset, operatorLen, operatorLine, operatorCol,
+                        valueContentOffset, valueContentLen, valueOuterOffset, valueOuterLen, valueLine, valueCol);
+                return;
+            }
+
+            // Copies the name, the operator and the quotes around the new value in a new buffer
+            final int quote = valueContentOffset - valueOuterOffset;
+            final int endQuote = valueOuterOffset + valueOuterLen - valueContentOffset - valueContentLen;
+            final int outer = nameLen + operatorLen;
+            final char[] attribute = new char[outer + quote + rewritten.length() + endQuote];
+            System.arraycopy(buffer, nameOffset, attribute, 0, nameLen);
+            System.arraycopy(buffer, operatorOffset, attribute, nameLen, operatorLen);
+            System.arraycopy(buffer, valueOuterOffset, attribute, outer, quote);
+            rewritten.getChars(0, rewritten.length(), attribute, outer + quote);
+            System.arraycopy(buffer, valueContentOffset + valueContentLen, attribute, attribute.length - endQuote, endQuote);
+            count++;
+
+            getNext().handleAttribute(attribute, 0, nameLen, nameLine, nameCol, nameLen, operatorLen, operatorLine,
+                    operatorCol, outer + quote, rewritten.length(), outer, attribute.length - outer, valueLine, valueCol);
+        }
+    }
+
+    /**
+     * The versioned URL of each unversioned URL, {@code null} if ambiguous.
+     */
+    private final Map<String, String> urls;
+
+    /**
+     * The charset of the pages not declaring their charset.
+     */
+    private final String charset;
+
+    /**
+     * <p>
+     * Builds a new instance.
+     * </p>
+     *
+     * @param urls the versioned URL of each unversioned URL
+     * @param charset the charset of the pages not declaring their charset, {@code null} for {@link #DEFAULT_CHARSET}
+     */
+    public HtmlRewriter(final Map<String, String> urls, final String charset) {
+        this.urls = urls;
+        this.charset = charset == null ? DEFAULT_CHARSET : charset;
+    }
+
+    /**
+     * <p>
+     * Computes the versioned URLs of the given processed nuts. The path of a nut is its workflow ID, its version and
+     * its name. Paths without version are ignored, as well as the unversioned URLs matching several versions.
+     * </p>
+     *
+     * @param contextPath the context path
+     * @param paths the paths of the processed nuts
+     * @return the versioned URL of each unversioned URL
+     */
+    public static Map<String, String> versionedUrls(final String contextPath, final Collection<String> paths) {
+        final Map<String, String> retval = new HashMap<String, String>();
+
+        for (final String path : paths) {
+            final int workflow = path.indexOf('/');
+            final int version = workflow == -1 ? -1 : path.indexOf('/', workflow + 1);
+
+            if (version != -1) {
+                final String unversioned = IOUtils.mergePath(contextPath, path.substring(0, workflow + 1) + path.substring(version + 1));
+                final String versioned = IOUtils.mergePath(contextPath, path);
+
+                if (retval.containsKey(unversioned) && !versioned.equals(retval.get(unversioned))) {
+                    retval.put(unversioned, null);
+                } else {
+                    retval.put(unversioned, versioned);
+                }
+            }
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Rewrites concurrently the given pages, the largest first.
+     * </p>
+     *
+     * @param directory the directory containing the pages
+     * @param pages the paths of the pages relative to the directory
+     * @param output the directory where the pages are written with the same relative path
+     * @param scheduler the scheduler
+     * @param integrity the manifest recording the digests of the written pages, {@code null} if not recorded
+     * @return the number of rewritten references
+     * @throws IOException if a page can't be read or written
+     */
+    public int rewrite(final File directory,
+                       final List<String> pages,
+                       final File output,
+                       final WorkScheduler scheduler,
+                       final IntegrityManifest integrity)
+            throws IOException {
+        final Map<String, Callable<Integer>> tasks = new LinkedHashMap<String, Callable<Integer>>();
+        final Map<String, Long> sizes = new HashMap<String, Long>();
+
+        for (final String page : pages) {
+            final File source = new File(directory, page);
+            final File target = new File(output, page);
+            final String name = TASK_PREFIX + page;
+
+            tasks.put(name, new Callable<Integer>() {
+                @Override
+                public Integer call() throws IOException {
+                    return rewrite(source, target, integrity);
+                }
+            });
+            sizes.put(name, source.length());
+        }
+
+        int retval = 0;
+
+        for (final Integer count : scheduler.invokeAll(tasks, sizes, 0L, null)) {
+            retval += count;
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Rewrites the given page with the charset it declares or the default charset.
+     * </p>
+     *
+     * @param source the page
+     * @param target the rewritten page
+     * @param integrity the manifest recording the digest of the rewritten page, {@code null} if not recorded
+     * @return the number of rewritten references
+     * @throws IOException if the page can't be read or written
+     */
+    public int rewrite(final File source, final File target, final IntegrityManifest integrity) throws IOException {
+        if (!target.getParentFile().isDirectory() && !target.getParentFile().mkdirs()) {
+            throw new IOException(String.format("Could not create directory '%s'", target.getParent()));
+        }
+
+        InputStream is = null;
+        Writer writer = null;
+
+        try {
+            is = new BufferedInputStream(new FileInputStream(source), BUFFER_SIZE);
+            final String cs = charset(is);
+            final OutputStream os = new FileOutputStream(target);
+            writer = new BufferedWriter(new OutputStreamWriter(
+                    integrity == null ? os : integrity.output(target, os), cs), BUFFER_SIZE);
+            return rewrite(new InputStreamReader(is, cs), writer);
+        } finally {
+            IOUtils.close(is, writer);
+        }
+    }
+
+    /**
+     * <p>
+     * Rewrites the HTML read from the given reader to the given writer.
+     * </p>
+     *
+     * @param reader the reader
+     * @param writer the writer
+     * @return the number of rewritten references
+     * @throws IOException if an I/O error occurs or if the HTML can't be parsed
+     */
+    public int rewrite(final Reader reader, final Writer writer) throws IOException {
+        final RewritingHandler handler = new RewritingHandler(writer);
+
+        try {
+            PARSER.parse(reader, handler);
+        } catch (ParseException pe) {
+            if (pe.getCause() instanceof IOException) {
+                throw (IOException) pe.getCause();
+            }
+
+            throw new IOException("Could not parse HTML", pe);
+        }
+
+        return handler.count;
+    }
+
+    /**
+     * <p>
+     * Gets the charset declared by a {@code <meta charset>} element in the first bytes of the given stream, which is
+     * reset to its start. The default charset is returned if none is declared or if the declared one is not supported.
+     * </p>
+     *
+     * @param is the stream, supporting mark
+     * @return the charset
+     * @throws IOException if the stream can't be read
+     */
+    private String charset(final InputStream is) throws IOException {
+        final byte[] prefix = new byte[PRESCAN_SIZE];
+        int length = 0;
+        int n;
+        is.mark(PRESCAN_SIZE);
+
+        while (length < prefix.length && (n = is.read(prefix, length, prefix.length - length)) != -1) {
+            length += n;
+        }
+
+        is.reset();
+
+        // The declaration is in ASCII, whatever the charset of the page
+        final CharsetHandler handler = new CharsetHandler();
+
+        try {
+            PARSER.parse(new String(prefix, 0, length, "ISO-8859-1"), handler);
+        } catch (ParseException pe) {
+            // The prefix may end in the middle of a tag
+            return charset;
+        }
+
+        try {
+            return handler.charset != null && Charset.isSupported(handler.charset) ? handler.charset : charset;
+        } catch (IllegalCharsetNameException icne) {
+            return charset;
+        }
+    }
+
+    /**
+     * <p>
+     * Gets the versioned URL of the given reference, keeping its query string and its fragment.
+     * </p>
+     *
+     * @param reference the reference
+     * @return the versioned URL, {@code null} if the reference is not a processed nut
+     */
+    private String versioned(final String reference) {
+        int end = reference.length();
+
+        for (int i = 0; i < reference.length(); i++) {
+            if (reference.charAt(i) == '?' || reference.charAt(i) == '#') {
+                end = i;
+                break;
+            }
+        }
+
+        final String versioned = urls.get(reference.substring(0, end));
+        return versioned == null ? null : versioned + reference.substring(end);
+    }
+
+    /**
+     * <p>
+     * Indicates if the given characters are the given name, ignoring case.
+     * </p>
+     *
+     * @param buffer the buffer
+     * @param offset the offset of the characters
+     * @param len the number of characters
+     * @param name the name in lower case
+     * @return {@code true} if they are the same, {@code false} otherwise
+     */
+    private static boolean is(final char[] buffer, final int offset, final int len, final String name) {
+        if (len != name.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < len; i++) {
+            if (Character.toLowerCase(buffer[offset + i]) != name.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
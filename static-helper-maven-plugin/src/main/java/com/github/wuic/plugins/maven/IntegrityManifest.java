@@ -0,0 +1,436 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import com.github.wuic.util.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Collects the size and the SHA-256 digest of the files produced by the static processing and writes them as a JSON
+ * manifest. Each path is mapped to its size, its hexadecimal digest and its subresource integrity string, so a CDN
+ * uploader can skip unchanged objects and templates can inline the integrity attributes.
+ * </p>
+ *
+ * <p>
+ * Digests are computed while the bytes go through the streams returned by {@link #input(File, InputStream)} and
+ * {@link #output(File, OutputStream)}, so the files read or written by the plugin are not read again. The files
+ * written by WUIC itself and never read afterwards are read back and hashed concurrently by
+ * {@link #complete(File, Collection, ParallelExecutor)}, since they are written inside the task.
+ * </p>
+ *
+ * <p>
+ * A recorded digest is trusted until the file is written again by the plugin: opening a stream with
+ * {@link #output(File, OutputStream)} or calling {@link #invalidate(File)} discards it, the size of the file is never
+ * used to detect a change.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public class IntegrityManifest {
+
+    /**
+     * Name of the manifest in the output directory or in the JAR.
+     */
+    public static final String FILE_NAME = "integrity.json";
+
+    /**
+     * Algorithm of the digests.
+     */
+    public static final String ALGORITHM = "SHA-256";
+
+    /**
+     * Prefix of the subresource integrity strings.
+     */
+    private static final String SRI_PREFIX = "sha256-";
+
+    /**
+     * Alphabet of the base 64 encoding.
+     */
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    /**
+     * Stream discarding the bytes read to compute a digest.
+     */
+    private static final OutputStream NULL_OUTPUT_STREAM = new OutputStream() {
+        @Override
+        public void write(final int b) {
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+        }
+    };
+
+    /**
+     * <p>
+     * The size and the digest of a file.
+     * </p>
+     *
+     * @author Guillaume DROUET
+     * @since 0.5.3
+     */
+    static final class Entry {
+
+        /**
+         * The size in bytes.
+         */
+        private final long size;
+
+        /**
+         * The digest.
+         */
+        private final byte[] digest;
+
+        /**
+         * <p>
+         * Builds a new instance.
+         * </p>
+         *
+         * @param size the size
+         * @param digest the digest
+         */
+        Entry(final long size, final byte[] digest) {
+            this.size = size;
+            this.digest = digest;
+        }
+    }
+
+    /**
+     * The entries by absolute file.
+     */
+    private final Map<File, Entry> entries = new ConcurrentHashMap<File, Entry>();
+
+    /**
+     * <p>
+     * Creates a new {@code MessageDigest} for the {@link #ALGORITHM}.
+     * </p>
+     *
+     * @return the message digest
+     */
+    public static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException nsae) {
+            // Every JVM must support SHA-256
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    /**
+     * <p>
+     * Wraps the given stream reading the given file. The digest of the file is recorded when the stream is closed after
+     * having been read entirely.
+     * </p>
+     *
+     * @param file the file
+     * @param is the stream
+     * @return the wrapping stream
+     */
+    public InputStream input(final File file, final InputStream is) {
+        final MessageDigest md = newMessageDigest();
+
+        return new FilterInputStream(is) {
+
+            /**
+             * Number of read bytes.
+             */
+            private long size;
+
+            /**
+             * If the end of the stream has been reached.
+             */
+            private boolean eof;
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public int read() throws IOException {
+                final int retval = super.read();
+
+                if (retval == -1) {
+                    eof = true;
+                } else {
+                    md.update((byte) retval);
+                    size++;
+                }
+
+                return retval;
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public int read(final byte[] b, final int off, final int len) throws IOException {
+                final int retval = super.read(b, off, len);
+
+                if (retval == -1) {
+                    eof = true;
+                } else {
+                    md.update(b, off, retval);
+                    size += retval;
+                }
+
+                return retval;
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public long skip(final long n) throws IOException {
+                // Skipped bytes would be missing from the digest
+                return 0L;
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void close() throws IOException {
+                super.close();
+
+                if (eof) {
+                    entries.put(file.getAbsoluteFile(), new Entry(size, md.digest()));
+                }
+            }
+        };
+    }
+
+    /**
+     * <p>
+     * Wraps the given stream writing the given file. The digest previously recorded for the file is discarded and the
+     * new one is recorded when the stream is closed.
+     * </p>
+     *
+     * @param file the file
+     * @param os the stream
+     * @return the wrapping stream
+     */
+    public OutputStream output(final File file, final OutputStream os) {
+        final MessageDigest md = newMessageDigest();
+        invalidate(file);
+
+        return new FilterOutputStream(os) {
+
+            /**
+             * Number of written bytes.
+             */
+            private long size;
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void write(final int b) throws IOException {
+                out.write(b);
+                md.update((byte) b);
+                size++;
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void write(final byte[] b, final int off, final int len) throws IOException {
+                out.write(b, off, len);
+                md.update(b, off, len);
+                size += len;
+            }
+
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public void close() throws IOException {
+                super.close();
+                entries.put(file.getAbsoluteFile(), new Entry(size, md.digest()));
+            }
+        };
+    }
+
+    /**
+     * <p>
+     * Discards the digest recorded for the given file, which is being written again or has not been written with the
+     * recorded content.
+     * </p>
+     *
+     * @param file the file
+     */
+    public void invalidate(final File file) {
+        entries.remove(file.getAbsoluteFile());
+    }
+
+    /**
+     * <p>
+     * Hashes concurrently the given files that have not been recorded while read or written.
+     * </p>
+     *
+     * @param directory the directory containing the files
+     * @param paths the paths of the files relative to the directory
+     * @param executor the executor
+     * @return the number of hashed files
+     * @throws IOException if a file can't be read
+     */
+    public int complete(final File directory, final Collection<String> paths, final ParallelExecutor executor)
+            throws IOException {
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+        for (final String path : paths) {
+            final File file = new File(directory, path).getAbsoluteFile();
+
+            if (file.isFile() && !entries.containsKey(file)) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        final InputStream is = input(file, new FileInputStream(file));
+
+                        try {
+                            ResultCache.copy(is, NULL_OUTPUT_STREAM);
+                        } finally {
+                            IOUtils.close(is);
+                        }
+
+                        return null;
+                    }
+                });
+            }
+        }
+
+        executor.invokeAll(tasks);
+        return tasks.size();
+    }
+
+    /**
+     * <p>
+     * Serializes the manifest of the given files as JSON, sorted by path. Must be called after
+     * {@link #complete(File, Collection, ParallelExecutor)}.
+     * </p>
+     *
+     * @param directory the directory containing the files
+     * @param paths the paths of the files relative to the directory
+     * @return the JSON content encoded in UTF-8
+     * @throws IOException if a file has not been hashed
+     */
+    public byte[] toJson(final File directory, final Collection<String> paths) throws IOException {
+        final Map<String, Entry> sorted = new TreeMap<String, Entry>();
+
+        for (final String path : paths) {
+            final File file = new File(directory, path).getAbsoluteFile();
+            final Entry entry = entries.get(file);
+
+            if (entry != null) {
+                sorted.put(path, entry);
+            } else if (file.isFile()) {
+                throw new IOException(String.format("'%s' has not been hashed", file.getAbsolutePath()));
+            }
+        }
+
+        final StringBuilder sb = new StringBuilder("{");
+        String separator = "\n";
+
+        for (final Map.Entry<String, Entry> entry : sorted.entrySet()) {
+            final byte[] digest = entry.getValue().digest;
+            sb.append(separator).append("  ").append(BuildReport.quote(entry.getKey()))
+                    .append(": {\"size\": ").append(entry.getValue().size)
+                    .append(", \"sha256\": \"").append(BuildManifest.toHex(digest))
+                    .append("\", \"integrity\": \"").append(SRI_PREFIX).append(base64(digest)).append("\"}");
+            separator = ",\n";
+        }
+
+        return sb.append("\n}\n").toString().getBytes("UTF-8");
+    }
+
+    /**
+     * <p>
+     * Writes the manifest of the given files to the given file.
+     * </p>
+     *
+     * @param directory the directory containing the files
+     * @param paths the paths of the files relative to the directory
+     * @param file the manifest file
+     * @throws IOException if the manifest can't be written
+     */
+    public void write(final File directory, final Collection<String> paths, final File file) throws IOException {
+        final byte[] content = toJson(directory, paths);
+        OutputStream os = null;
+
+        try {
+            os = new FileOutputStream(file);
+            os.write(content);
+        } finally {
+            IOUtils.close(os);
+        }
+    }
+
+    /**
+     * <p>
+     * Encodes the given bytes in base 64 with padding.
+     * </p>
+     *
+     * @param bytes the bytes
+     * @return the encoded string
+     */
+    static String base64(final byte[] bytes) {
+        final StringBuilder sb = new StringBuilder((bytes.length + 2) / 3 * 4);
+
+        for (int i = 0; i < bytes.length; i += 3) {
+            final int b = (bytes[i] & 0xff) << 16
+                    | (i + 1 < bytes.length ? (bytes[i + 1] & 0xff) << 8 : 0)
+                    | (i + 2 < bytes.length ? bytes[i + 2] & 0xff : 0);
+            sb.append(BASE64[b >> 18 & 0x3f]).append(BASE64[b >> 12 & 0x3f]);
+            sb.append(i + 1 < bytes.length ? BASE64[b >> 6 & 0x3f] : '=');
+            sb.append(i + 2 < bytes.length ? BASE64[b & 0x3f] : '=');
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import com.github.wuic.WuicTask;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+
+/**
+ * <p>
+ * Runs a {@link WuicTask} loaded by a {@link TaskClassLoader}. Since the task class is not the one known by the
+ * plugin, it is configured and executed through reflection. During each invocation, the class loader is set as context
+ * class loader of the current thread.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public class IsolatedWuicTask {
+
+    /**
+     * The class loader.
+     */
+    private final TaskClassLoader classLoader;
+
+    /**
+     * The task instance.
+     */
+    private final Object task;
+
+    /**
+     * <p>
+     * Creates a new task with the given class loader.
+     * </p>
+     *
+     * @param classLoader the class loader, acquired with the directories of the module
+     * @throws TaskException if the task can't be created
+     */
+    public IsolatedWuicTask(final TaskClassLoader classLoader) throws TaskException {
+        this.classLoader = classLoader;
+
+        try {
+            task = classLoader.loadClass(WuicTask.class.getName()).newInstance();
+        } catch (ClassNotFoundException cnfe) {
+            throw new TaskException(cnfe);
+        } catch (InstantiationException ie) {
+            throw new TaskException(ie);
+        } catch (IllegalAccessException iae) {
+            throw new TaskException(iae);
+        }
+    }
+
+    /**
+     * <p>
+     * Sets a string property of the task.
+     * </p>
+     *
+     * @param property the property name
+     * @param value the value
+     * @return this instance
+     * @throws TaskException if the property can't be set
+     */
+    public IsolatedWuicTask set(final String property, final String value) throws TaskException {
+        invoke(setter(property), String.class, value);
+        return this;
+    }
+
+    /**
+     * <p>
+     * Sets a boolean property of the task.
+     * </p>
+     *
+     * @param property the property name
+     * @param value the value
+     * @return this instance
+     * @throws TaskException if the property can't be set
+     */
+    public IsolatedWuicTask set(final String property, final boolean value) throws TaskException {
+        invoke(setter(property), boolean.class, value);
+        return this;
+    }
+
+    /**
+     * <p>
+     * Executes the task.
+     * </p>
+     *
+     * @throws TaskException if the execution fails
+     */
+    public void execute() throws TaskException {
+        invoke("execute", null, null);
+    }
+
+    /**
+     * <p>
+     * Executes the task and returns the relocated files.
+     * </p>
+     *
+     * @return the relocated files
+     * @throws TaskException if the execution fails
+     */
+    @SuppressWarnings("unchecked")
+    public List<String> executeTask() throws TaskException {
+        return (List<String>) invoke("executeTask", null, null);
+    }
+
+    /**
+     * <p>
+     * Builds the setter name of the given property.
+     * </p>
+     *
+     * @param property the property
+     * @return the setter name
+     */
+    private static String setter(final String property) {
+        return "set" + Character.toUpperCase(property.charAt(0)) + property.substring(1);
+    }
+
+    /**
+     * <p>
+     * Invokes a method of the task with the class loader set as context class loader.
+     * </p>
+     *
+     * @param name the method name
+     * @param type the parameter type, {@code null} if the method has no parameter
+     * @param arg the argument
+     * @return the result
+     * @throws TaskException if the invocation fails
+     */
+    private Object invoke(final String name, final Class<?> type, final Object arg) throws TaskException {
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(classLoader);
+
+        try {
+            if (type == null) {
+                return task.getClass().getMethod(name).invoke(task);
+            } else {
+                return task.getClass().getMethod(name, type).invoke(task, arg);
+            }
+        } catch (InvocationTargetException ite) {
+            throw new TaskException(ite.getCause());
+        } catch (NoSuchMethodException nsme) {
+            throw new TaskException(nsme);
+        } catch (IllegalAccessException iae) {
+            throw new TaskException(iae);
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+    }
+
+    /**
+     * <p>
+     * Thrown when the isolated task can't be created, configured or executed.
+     * </p>
+     *
+     * @author Guillaume DROUET
+     * @since 0.5.3
+     */
+    public static class TaskException extends Exception {
+
+        /**
+         * Serial version UID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * <p>
+         * Builds a new instance.
+         * </p>
+         *
+         * @param cause the cause
+         */
+        public TaskException(final Throwable cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,528 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import com.github.wuic.util.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * <p>
+ * Writes the processed nuts to a JAR file as they are produced. Entries with an already compressed content (images,
+ * fonts, archives, etc) are written with the {@link ZipEntry#STORED} method since deflating them again costs CPU
+ * without reducing their size. Other entries are deflated.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public class JarPackager implements Closeable {
+
+    /**
+     * Extensions of files with an already compressed content.
+     */
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<String>(Arrays.asList(
+            "png", "jpg", "jpeg", "gif", "webp", "ico", "woff", "woff2", "eot", "gz", "deflate", "br", "zip", "jar",
+            "mp3", "mp4", "ogg", "webm", "pdf", "swf"));
+
+    /**
+     * Files larger than this size are read twice for STORED entries instead of being buffered in memory.
+     */
+    private static final int MAX_BUFFERED_SIZE = 1024 * 1024;
+
+    /**
+     * Size of the buffer used to copy the files.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Format of the local time parsed by {@link #PARSE_LOCAL_DATE_TIME}.
+     */
+    private static final String LOCAL_DATE_TIME_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
+
+    /**
+     * {@code LocalDateTime.parse(CharSequence)}, {@code null} if {@link #SET_TIME_LOCAL} is not supported.
+     */
+    private static final Method PARSE_LOCAL_DATE_TIME;
+
+    /**
+     * {@code ZipEntry.setTimeLocal(LocalDateTime)}, {@code null} before Java 9.
+     */
+    private static final Method SET_TIME_LOCAL;
+
+    static {
+        Method parse = null;
+        Method setTimeLocal = null;
+
+        // Looked up by reflection to keep the plugin running on older JVMs
+        try {
+            final Class<?> localDateTime = Class.forName("java.time.LocalDateTime");
+            parse = localDateTime.getMethod("parse", CharSequence.class);
+            setTimeLocal = ZipEntry.class.getMethod("setTimeLocal", localDateTime);
+        } catch (ClassNotFoundException cnfe) {
+            // Java 7 or older
+        } catch (NoSuchMethodException nsme) {
+            // Java 8
+        }
+
+        PARSE_LOCAL_DATE_TIME = setTimeLocal == null ? null : parse;
+        SET_TIME_LOCAL = setTimeLocal;
+    }
+
+    /**
+     * The stream.
+     */
+    private final JarOutputStream jarOutputStream;
+
+    /**
+     * The directory entries already written.
+     */
+    private final Set<String> directories;
+
+    /**
+     * Modification time of all the entries, negative to use the current time.
+     */
+    private final long time;
+
+    /**
+     * The manifest recording the digests of the added files, {@code null} if not recorded.
+     */
+    private final IntegrityManifest integrity;
+
+    /**
+     * <p>
+     * Opens a new JAR file. Parent directories are created if necessary.
+     * </p>
+     *
+     * @param jar the JAR file
+     * @throws IOException if the file can't be created
+     */
+    public JarPackager(final File jar) throws IOException {
+        this(jar, -1L);
+    }
+
+    /**
+     * <p>
+     * Opens a new JAR file whose entries have all the given modification time, stored as UTC whatever the time zone
+     * is. Parent directories are created if necessary. Combined with {@link #addDirectory(File)}, which adds files in
+     * a stable order, identical files produce a bit-identical JAR.
+     * </p>
+     *
+     * @param jar the JAR file
+     * @param time the modification time of the entries in milliseconds since epoch, negative for the current time
+     * @throws IOException if the file can't be created
+     */
+    public JarPackager(final File jar, final long time) throws IOException {
+        this(jar, time, null);
+    }
+
+    /**
+     * <p>
+     * Opens a new JAR file whose entries have all the given modification time. The digests of the added files are
+     * recorded in the given manifest while they are read.
+     * </p>
+     *
+     * @param jar the JAR file
+     * @param time the modification time of the entries in milliseconds since epoch, negative for the current time
+     * @param integrity the integrity manifest, {@code null} if digests are not recorded
+     * @throws IOException if the file can't be created
+     */
+    public JarPackager(final File jar, final long time, final IntegrityManifest integrity) throws IOException {
+        if (!jar.getParentFile().isDirectory() && !jar.getParentFile().mkdirs()) {
+            throw new IOException(String.format("Could not create directory for '%s'", jar.getAbsolutePath()));
+        }
+
+        this.time = time;
+        this.integrity = integrity;
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        jarOutputStream = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(jar)));
+        directories = new HashSet<String>();
+
+        try {
+            jarOutputStream.putNextEntry(newEntry(JarFile.MANIFEST_NAME));
+            manifest.write(jarOutputStream);
+            jarOutputStream.closeEntry();
+        } catch (IOException ioe) {
+            IOUtils.close(jarOutputStream);
+            throw ioe;
+        }
+    }
+
+    /**
+     * <p>
+     * Indicates if the given name denotes a file with an already compressed content.
+     * </p>
+     *
+     * @param name the file name
+     * @return {@code true} if the content is compressed, {@code false} otherwise
+     */
+    public static boolean isCompressed(final String name) {
+        final int index = name.lastIndexOf('.');
+        return index != -1 && COMPRESSED_EXTENSIONS.contains(name.substring(index + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * <p>
+     * Adds recursively all the files of the given directory.
+     * </p>
+     *
+     * @param directory the directory
+     * @throws IOException if an I/O error occurs
+     */
+    public void addDirectory(final File directory) throws IOException {
+        addDirectory(directory, Collections.<String, SpillingOutputStream>emptyMap());
+    }
+
+    /**
+     * <p>
+     * Adds recursively all the files of the given directory and the given contents, all sorted by name so the order
+     * of the entries does not depend on the file system. A content is added instead of the file with the same name.
+     * </p>
+     *
+     * @param directory the directory
+     * @param contents the contents by entry name, which are not written to the directory
+     * @throws IOException if an I/O error occurs
+     */
+    public void addDirectory(final File directory, final Map<String, SpillingOutputStream> contents)
+            throws IOException {
+        final Map<String, File> files = new TreeMap<String, File>();
+        list(directory, directory, files);
+        final Set<String> names = new TreeSet<String>(files.keySet());
+        names.addAll(contents.keySet());
+
+        for (final String name : names) {
+            final SpillingOutputStream content = contents.get(name);
+
+            if (content != null) {
+                add(name, content);
+            } else {
+                add(name, files.get(name));
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Adds the given file.
+     * </p>
+     *
+     * @param name the entry name
+     * @param file the file
+     * @throws IOException if an I/O error occurs
+     */
+    public void add(final String name, final File file) throws IOException {
+        if (isCompressed(name) && file.length() > MAX_BUFFERED_SIZE) {
+            // Compute the CRC first so the content can be streamed
+            putEntry(name, ZipEntry.STORED, file.length(), crc(open(file)));
+            InputStream is = null;
+
+            try {
+                is = new FileInputStream(file);
+                ResultCache.copy(is, jarOutputStream);
+            } finally {
+                IOUtils.close(is);
+            }
+
+            jarOutputStream.closeEntry();
+        } else if (isCompressed(name)) {
+            add(name, read(file));
+        } else {
+            putEntry(name, ZipEntry.DEFLATED, -1L, -1L);
+            InputStream is = null;
+
+            try {
+                is = open(file);
+                ResultCache.copy(is, jarOutputStream);
+            } finally {
+                IOUtils.close(is);
+            }
+
+            jarOutputStream.closeEntry();
+        }
+    }
+
+    /**
+     * <p>
+     * Adds the given content.
+     * </p>
+     *
+     * @param name the entry name
+     * @param content the content
+     * @throws IOException if an I/O error occurs
+     */
+    public void add(final String name, final byte[] content) throws IOException {
+        if (isCompressed(name)) {
+            final CRC32 crc = new CRC32();
+            crc.update(content);
+            putEntry(name, ZipEntry.STORED, content.length, crc.getValue());
+        } else {
+            putEntry(name, ZipEntry.DEFLATED, -1L, -1L);
+        }
+
+        jarOutputStream.write(content);
+        jarOutputStream.closeEntry();
+    }
+
+    /**
+     * <p>
+     * Adds the given content, which is read twice if it is stored.
+     * </p>
+     *
+     * @param name the entry name
+     * @param content the closed content
+     * @throws IOException if an I/O error occurs
+     */
+    public void add(final String name, final SpillingOutputStream content) throws IOException {
+        if (isCompressed(name)) {
+            putEntry(name, ZipEntry.STORED, content.size(), crc(content.openInputStream()));
+        } else {
+            putEntry(name, ZipEntry.DEFLATED, -1L, -1L);
+        }
+
+        InputStream is = null;
+
+        try {
+            is = content.openInputStream();
+            ResultCache.copy(is, jarOutputStream);
+        } finally {
+            IOUtils.close(is);
+        }
+
+        jarOutputStream.closeEntry();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        jarOutputStream.close();
+    }
+
+    /**
+     * <p>
+     * Lists recursively the files of the given directory.
+     * </p>
+     *
+     * @param root the root directory
+     * @param directory the current directory
+     * @param files the files by path relative to the root directory
+     */
+    private static void list(final File root, final File directory, final Map<String, File> files) {
+        final File[] children = directory.listFiles();
+
+        if (children == null) {
+            return;
+        }
+
+        for (final File file : children) {
+            if (file.isDirectory()) {
+                list(root, file, files);
+            } else {
+                files.put(WorkflowInputs.relativize(root, file), file);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Computes the CRC-32 of the given stream, which is closed.
+     * </p>
+     *
+     * @param is the stream
+     * @return the CRC-32
+     * @throws IOException if an I/O error occurs
+     */
+    private static long crc(final InputStream is) throws IOException {
+        final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+
+        try {
+            int offset;
+
+            while ((offset = is.read(buffer)) != -1) {
+                crc.update(buffer, 0, offset);
+            }
+        } finally {
+            IOUtils.close(is);
+        }
+
+        return crc.getValue();
+    }
+
+    /**
+     * <p>
+     * Starts a new entry, writing the entries of its parent directories first.
+     * </p>
+     *
+     * @param name the entry name
+     * @param method the compression method
+     * @param size the size, ignored for deflated entries
+     * @param crc the CRC-32, ignored for deflated entries
+     * @throws IOException if an I/O error occurs
+     */
+    private void putEntry(final String name, final int method, final long size, final long crc) throws IOException {
+        for (int i = name.indexOf('/'); i != -1; i = name.indexOf('/', i + 1)) {
+            final String directory = name.substring(0, i + 1);
+
+            if (directories.add(directory)) {
+                jarOutputStream.putNextEntry(newEntry(directory));
+                jarOutputStream.closeEntry();
+            }
+        }
+
+        final JarEntry entry = newEntry(name);
+        entry.setMethod(method);
+
+        if (method == ZipEntry.STORED) {
+            entry.setSize(size);
+            entry.setCompressedSize(size);
+            entry.setCrc(crc);
+        }
+
+        jarOutputStream.putNextEntry(entry);
+    }
+
+    /**
+     * <p>
+     * Creates an entry with the modification time of this JAR.
+     * </p>
+     *
+     * @param name the entry name
+     * @return the entry
+     */
+    private JarEntry newEntry(final String name) {
+        final JarEntry retval = new JarEntry(name);
+
+        if (time >= 0) {
+            setUtcTime(retval, time);
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Sets the time of the given entry. ZIP stores local times without time zone: the time is stored as a UTC local
+     * time so the JAR does not depend on the time zone of the build.
+     * </p>
+     *
+     * @param entry the entry
+     * @param time the time in milliseconds since epoch
+     */
+    private static void setUtcTime(final ZipEntry entry, final long time) {
+        if (SET_TIME_LOCAL != null) {
+            final SimpleDateFormat format = new SimpleDateFormat(LOCAL_DATE_TIME_FORMAT, Locale.ENGLISH);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+            try {
+                SET_TIME_LOCAL.invoke(entry, PARSE_LOCAL_DATE_TIME.invoke(null, format.format(new Date(time))));
+                return;
+            } catch (IllegalAccessException iae) {
+                // Falls back to the shifted time
+            } catch (InvocationTargetException ite) {
+                // Falls back to the shifted time
+            }
+        }
+
+        // setTime() converts to the default time zone: the offset is taken at the shifted time, which differs from
+        // the offset at the given time around a daylight saving time transition
+        final TimeZone zone = TimeZone.getDefault();
+        final long shifted = time - zone.getOffset(time);
+        entry.setTime(time - zone.getOffset(shifted));
+    }
+
+    /**
+     * <p>
+     * Opens the given file, recording its digest if an integrity manifest is set.
+     * </p>
+     *
+     * @param file the file
+     * @return the stream
+     * @throws IOException if the file can't be opened
+     */
+    private InputStream open(final File file) throws IOException {
+        final InputStream is = new FileInputStream(file);
+        return integrity == null ? is : integrity.input(file, is);
+    }
+
+    /**
+     * <p>
+     * Reads the given file in memory.
+     * </p>
+     *
+     * @param file the file
+     * @return the content
+     * @throws IOException if an I/O error occurs
+     */
+    private byte[] read(final File file) throws IOException {
+        final byte[] retval = new byte[(int) file.length()];
+        InputStream is = null;
+
+        try {
+            is = open(file);
+            int offset = 0;
+            int read;
+
+            while (offset < retval.length && (read = is.read(retval, offset, retval.length - offset)) != -1) {
+                offset += read;
+            }
+
+            // The end of the stream must be reached for the digest to be recorded
+            if (offset != retval.length || is.read() != -1) {
+                throw new IOException(String.format("Could not read '%s' entirely", file.getAbsolutePath()));
+            }
+        } finally {
+            IOUtils.close(is);
+        }
+
+        return retval;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Runs independent I/O tasks on a bounded pool of threads. Results are always returned in the order of submission,
+ * so the outcome of a parallel execution is the same as a sequential one. When the parallelism is lower or equal to
+ * one, tasks are run in the calling thread.
+ * </p>
+ *
+ * <p>
+ * Blocking I/O tasks can be run on virtual threads, one per task, when the JVM supports them (Java 21+). Older JVMs
+ * fall back to a pool of platform threads larger than the number of processors, since threads mostly wait for I/O.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public class ParallelExecutor {
+
+    /**
+     * Number of platform threads by processor when virtual threads are not supported.
+     */
+    private static final int IO_THREADS_PER_PROCESSOR = 4;
+
+    /**
+     * The executor, {@code null} if tasks are run in the calling thread.
+     */
+    private final ExecutorService executorService;
+
+    /**
+     * If tasks run on virtual threads.
+     */
+    private final boolean virtual;
+
+    /**
+     * <p>
+     * Builds a new instance running tasks on platform threads.
+     * </p>
+     *
+     * @param parallelism the maximum number of tasks running concurrently
+     */
+    public ParallelExecutor(final int parallelism) {
+        executorService = parallelism > 1 ? Executors.newFixedThreadPool(parallelism) : null;
+        virtual = false;
+    }
+
+    /**
+     * <p>
+     * Builds a new instance running tasks on virtual threads if supported, on a pool of platform threads otherwise.
+     * </p>
+     *
+     * @param parallelism the size of the pool of platform threads, 0 or less for a size based on the processors
+     * @param virtualThreads {@code true} to use virtual threads, {@code false} to always use the pool
+     */
+    public ParallelExecutor(final int parallelism, final boolean virtualThreads) {
+        final ExecutorService service = virtualThreads ? newVirtualThreadPerTaskExecutor() : null;
+
+        if (service != null) {
+            executorService = service;
+            virtual = true;
+        } else {
+            final int size = parallelism > 0 ?
+                    parallelism : Runtime.getRuntime().availableProcessors() * IO_THREADS_PER_PROCESSOR;
+            executorService = size > 1 ? Executors.newFixedThreadPool(size) : null;
+            virtual = false;
+        }
+    }
+
+    /**
+     * <p>
+     * Creates an executor starting a new virtual thread for each task. Looked up by reflection to keep the plugin
+     * running on older JVMs.
+     * </p>
+     *
+     * @return the executor, {@code null} if virtual threads are not supported
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return ExecutorService.class.cast(Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null));
+        } catch (NoSuchMethodException nsme) {
+            return null;
+        } catch (IllegalAccessException iae) {
+            return null;
+        } catch (InvocationTargetException ite) {
+            // Preview feature not enabled
+            return null;
+        }
+    }
+
+    /**
+     * <p>
+     * Indicates if tasks run on virtual threads.
+     * </p>
+     *
+     * @return {@code true} if threads are virtual, {@code false} otherwise
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * <p>
+     * Runs the given tasks and waits for their completion.
+     * </p>
+     *
+     * @param tasks the tasks
+     * @param <T> the type of result
+     * @return the results in the order of the tasks
+     * @throws IOException if a task fails
+     */
+    public <T> List<T> invokeAll(final List<? extends Callable<T>> tasks) throws IOException {
+        final List<T> retval = new ArrayList<T>(tasks.size());
+
+        try {
+            if (executorService == null) {
+                for (final Callable<T> task : tasks) {
+                    retval.add(task.call());
+                }
+            } else {
+                for (final Future<T> future : executorService.invokeAll(tasks)) {
+                    retval.add(future.get());
+                }
+            }
+        } catch (ExecutionException ee) {
+            throw rethrow(ee.getCause());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ie);
+        } catch (Exception e) {
+            throw rethrow(e);
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Stops the threads. This instance can't be used anymore.
+     * </p>
+     */
+    public void shutdown() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * <p>
+     * Rethrows the given exception thrown by a task.
+     * </p>
+     *
+     * @param cause the exception
+     * @return the exception to throw
+     */
+    private static IOException rethrow(final Throwable cause) {
+        if (cause instanceof IOException) {
+            return IOException.class.cast(cause);
+        } else if (cause instanceof RuntimeException) {
+            throw RuntimeException.class.cast(cause);
+        } else if (cause instanceof Error) {
+            throw Error.class.cast(cause);
+        } else {
+            return new IOException(cause);
+        }
+    }
+}
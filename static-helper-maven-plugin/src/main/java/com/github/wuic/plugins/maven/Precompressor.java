@@ -0,0 +1,340 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import com.github.wuic.util.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>
+ * Writes precompressed variants of the text files produced by the static processing. A '.gz' sibling and optionally a
+ * '.deflate' sibling are written next to each file, so a web server or a CDN origin can serve them directly. Files
+ * smaller than a threshold are ignored, as well as variants that do not save enough bytes.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public class Precompressor {
+
+    /**
+     * Extension of the GZIP variant.
+     */
+    public static final String GZIP_EXTENSION = ".gz";
+
+    /**
+     * Extension of the deflate variant.
+     */
+    public static final String DEFLATE_EXTENSION = ".deflate";
+
+    /**
+     * Prefix of the names of the compression tasks.
+     */
+    public static final String TASK_PREFIX = "precompress:";
+
+    /**
+     * Extensions of text-like files.
+     */
+    private static final Set<String> TEXT_EXTENSIONS = new HashSet<String>(Arrays.asList(
+            "js", "css", "html", "htm", "svg", "json", "xml", "txt", "map", "appcache", "ttf", "otf"));
+
+    /**
+     * If the deflate variant is written.
+     */
+    private final boolean deflate;
+
+    /**
+     * Files smaller than this size in bytes are not compressed.
+     */
+    private final int minSize;
+
+    /**
+     * Minimal ratio of saved bytes for a variant to be written.
+     */
+    private final float minRatio;
+
+    /**
+     * Maximum number of bytes of a variant kept in memory before spilling to disk.
+     */
+    private final int memoryThreshold;
+
+    /**
+     * Directory of the variants spilled to disk, {@code null} for the default temporary directory.
+     */
+    private final File spillDirectory;
+
+    /**
+     * <p>
+     * Builds a new instance.
+     * </p>
+     *
+     * @param deflate if the deflate variant must be written in addition to the GZIP variant
+     * @param minSize the minimal size of a file in bytes
+     * @param minRatio the minimal ratio of saved bytes, between 0 and 1
+     * @param memoryThreshold the maximum number of bytes of a variant kept in memory
+     * @param spillDirectory the directory of the variants spilled to disk, {@code null} for the default temporary
+     * directory, must not be a directory whose files are packaged or published
+     */
+    public Precompressor(final boolean deflate,
+                         final int minSize,
+                         final float minRatio,
+                         final int memoryThreshold,
+                         final File spillDirectory) {
+        this.deflate = deflate;
+        this.minSize = minSize;
+        this.minRatio = minRatio;
+        this.memoryThreshold = memoryThreshold;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * <p>
+     * Indicates if the given name denotes a text-like file.
+     * </p>
+     *
+     * @param name the name
+     * @return {@code true} if the file is text-like, {@code false} otherwise
+     */
+    public static boolean isText(final String name) {
+        final int index = name.lastIndexOf('.');
+        return index != -1 && TEXT_EXTENSIONS.contains(name.substring(index + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * <p>
+     * Writes concurrently the variants of the given files, the largest first. A file whose compression exceeds the
+     * budget is kept without variant. The digests of the compressed files and of their variants are recorded in the
+     * given manifest while they are read and written.
+     * </p>
+     *
+     * @param directory the directory containing the files
+     * @param paths the paths of the files relative to the directory
+     * @param scheduler the scheduler
+     * @param budget the maximum duration in milliseconds to compress a file, 0 or less for no limit
+     * @param integrity the integrity manifest, {@code null} if digests are not recorded
+     * @return the paths of the written variants
+     * @throws IOException if an I/O error occurs
+     */
+    public List<String> compress(final File directory,
+                                 final Collection<String> paths,
+                                 final WorkScheduler scheduler,
+                                 final long budget,
+                                 final IntegrityManifest integrity)
+            throws IOException {
+        return compress(directory, paths, scheduler, budget, integrity, null);
+    }
+
+    /**
+     * <p>
+     * Computes concurrently the variants of the given files as {@link #compress(File, Collection, WorkScheduler, long,
+     * IntegrityManifest)} does. When a map is given, the variants are kept in that map by path instead of being written
+     * next to their file, so they can be packaged without being written to disk. The caller then discards them.
+     * </p>
+     *
+     * @param directory the directory containing the files
+     * @param paths the paths of the files relative to the directory
+     * @param scheduler the scheduler
+     * @param budget the maximum duration in milliseconds to compress a file, 0 or less for no limit
+     * @param integrity the integrity manifest, {@code null} if digests are not recorded
+     * @param variants the map receiving the variants, {@code null} to write them to files
+     * @return the paths of the variants
+     * @throws IOException if an I/O error occurs
+     */
+    public List<String> compress(final File directory,
+                                 final Collection<String> paths,
+                                 final WorkScheduler scheduler,
+                                 final long budget,
+                                 final IntegrityManifest integrity,
+                                 final Map<String, SpillingOutputStream> variants)
+            throws IOException {
+        final Map<String, Callable<List<String>>> tasks = new LinkedHashMap<String, Callable<List<String>>>();
+        final Map<String, Long> sizes = new HashMap<String, Long>();
+
+        for (final String path : paths) {
+            final File file = new File(directory, path);
+
+            if (isText(path) && file.length() >= minSize) {
+                tasks.put(TASK_PREFIX + path, new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() throws IOException {
+                        return compress(path, file, integrity, variants);
+                    }
+                });
+                sizes.put(TASK_PREFIX + path, file.length());
+            }
+        }
+
+        final List<String> retval = new ArrayList<String>();
+
+        for (final List<String> written : scheduler.invokeAll(tasks, sizes, budget, Collections.<String>emptyList())) {
+            retval.addAll(written);
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Writes the variants of the given file. The file is read once by chunks and each chunk is sent to all the
+     * compressors, whose outputs spill to disk above the memory threshold.
+     * </p>
+     *
+     * @param path the path of the file
+     * @param file the file
+     * @param integrity the integrity manifest, {@code null} if digests are not recorded
+     * @param variants the map receiving the variants, {@code null} to write them to files
+     * @return the paths of the written variants
+     * @throws IOException if an I/O error occurs
+     */
+    private List<String> compress(final String path,
+                                  final File file,
+                                  final IntegrityManifest integrity,
+                                  final Map<String, SpillingOutputStream> variants)
+            throws IOException {
+        final SpillingOutputStream gzip = new SpillingOutputStream(spillDirectory, memoryThreshold);
+        final SpillingOutputStream deflated = deflate ? new SpillingOutputStream(spillDirectory, memoryThreshold) : null;
+        final Deflater deflater = deflate ? new Deflater(Deflater.BEST_COMPRESSION) : null;
+        final File gzipFile = new File(file.getPath() + GZIP_EXTENSION);
+        final File deflateFile = new File(file.getPath() + DEFLATE_EXTENSION);
+        final List<String> retval = new ArrayList<String>(2);
+        InputStream is = null;
+
+        try {
+            final OutputStream gzipOutputStream = new GZIPOutputStream(
+                    integrity == null ? gzip : integrity.output(gzipFile, gzip), ResultCache.BUFFER_SIZE);
+            final OutputStream deflaterOutputStream = deflate ? new DeflaterOutputStream(
+                    integrity == null ? deflated : integrity.output(deflateFile, deflated), deflater) : null;
+            final byte[] buffer = new byte[ResultCache.BUFFER_SIZE];
+            long size = 0;
+            int offset;
+            is = integrity == null ? new FileInputStream(file) : integrity.input(file, new FileInputStream(file));
+
+            while ((offset = is.read(buffer)) != -1) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException(String.format("Compression of '%s' interrupted", path));
+                }
+
+                gzipOutputStream.write(buffer, 0, offset);
+
+                if (deflaterOutputStream != null) {
+                    deflaterOutputStream.write(buffer, 0, offset);
+                }
+
+                size += offset;
+            }
+
+            gzipOutputStream.close();
+
+            if (write(path + GZIP_EXTENSION, gzipFile, size, gzip, variants)) {
+                retval.add(path + GZIP_EXTENSION);
+            } else if (integrity != null) {
+                // A variant from a previous build may remain on disk
+                integrity.invalidate(gzipFile);
+            }
+
+            if (deflaterOutputStream != null) {
+                deflaterOutputStream.close();
+
+                if (write(path + DEFLATE_EXTENSION, deflateFile, size, deflated, variants)) {
+                    retval.add(path + DEFLATE_EXTENSION);
+                } else if (integrity != null) {
+                    integrity.invalidate(deflateFile);
+                }
+            }
+        } finally {
+            IOUtils.close(is, gzip);
+
+            // Variants kept in the map are discarded by the caller
+            if (variants == null || !retval.contains(path + GZIP_EXTENSION)) {
+                gzip.discard();
+            }
+
+            if (deflate) {
+                deflater.end();
+                IOUtils.close(deflated);
+
+                if (variants == null || !retval.contains(path + DEFLATE_EXTENSION)) {
+                    deflated.discard();
+                }
+            }
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Moves the given variant to its file, or puts it in the given map, if it saves enough bytes.
+     * </p>
+     *
+     * @param path the path of the variant
+     * @param file the file of the variant
+     * @param originalSize the size of the original file
+     * @param variant the compressed content
+     * @param variants the map receiving the variants, {@code null} to write them to files
+     * @return {@code true} if the variant has been kept, {@code false} otherwise
+     * @throws IOException if an I/O error occurs
+     */
+    private boolean write(final String path,
+                          final File file,
+                          final long originalSize,
+                          final SpillingOutputStream variant,
+                          final Map<String, SpillingOutputStream> variants)
+            throws IOException {
+        if (originalSize == 0 || 1f - (float) variant.size() / originalSize < minRatio) {
+            return false;
+        }
+
+        if (variants == null) {
+            variant.moveTo(file);
+        } else {
+            synchronized (variants) {
+                variants.put(path, variant);
+            }
+        }
+
+        return true;
+    }
+}
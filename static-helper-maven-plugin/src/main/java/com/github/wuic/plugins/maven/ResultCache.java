@@ -0,0 +1,450 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import com.github.wuic.util.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * <p>
+ * A content-addressed cache of the files produced by the {@link StaticHelperMojo}. Each entry is an archive named
+ * with a key computed from the content of the input nuts, the configuration of the engines and the active profiles.
+ * The directory can be located outside the build directory in order to survive a 'clean' and to be shared between
+ * builds.
+ * </p>
+ *
+ * <p>
+ * The total size of the cache is limited. When the limit is exceeded, the least recently used entries are evicted.
+ * The last modification date of an archive is updated each time it is restored and is used to determine the order
+ * of eviction.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public class ResultCache {
+
+    /**
+     * Extension of the archives.
+     */
+    private static final String EXTENSION = ".zip";
+
+    /**
+     * Prefix of the entries written to the output directory.
+     */
+    private static final String OUTPUT_PREFIX = "output/";
+
+    /**
+     * Prefix of the entries written to the directory of relocated files.
+     */
+    private static final String RELOCATED_PREFIX = "relocated/";
+
+    /**
+     * Size of the buffer used to copy the files.
+     */
+    static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Files modified less than this delay in milliseconds before a snapshot could be rewritten without changing their
+     * last modification date, because a change made in the same time unit can't be detected.
+     */
+    private static final long RACY_DELAY = 2000L;
+
+    /**
+     * The cache directory.
+     */
+    private final File directory;
+
+    /**
+     * The maximum size in bytes.
+     */
+    private final long maxSize;
+
+    /**
+     * <p>
+     * Builds a new instance.
+     * </p>
+     *
+     * @param directory the cache directory
+     * @param maxSize the maximum size in bytes
+     */
+    public ResultCache(final File directory, final long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * <p>
+     * Takes a snapshot of the size and the last modification date of the files in the given directory. The snapshot
+     * is used to list the files written by the current build.
+     * </p>
+     *
+     * <p>
+     * A file rewritten with the same size in the time unit of its last modification would not be detected. When the
+     * most recent file has been modified less than {@link #RACY_DELAY} ago, the method waits for the end of this delay
+     * so that any later write changes the last modification date.
+     * </p>
+     *
+     * @param dir the directory
+     * @return the snapshot
+     * @throws IOException if the thread is interrupted while waiting
+     */
+    public static Map<String, String> snapshot(final File dir) throws IOException {
+        final Map<String, String> retval = new HashMap<String, String>();
+        final long newest = snapshot(dir, dir, retval);
+        final long delay = newest + RACY_DELAY - System.currentTimeMillis();
+
+        // Dates in the future are not waited for
+        if (delay > 0 && delay <= RACY_DELAY) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException(String.format("Interrupted while taking a snapshot of '%s'",
+                        dir.getAbsolutePath()), ie);
+            }
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Lists the files of the given directory that have been created or modified since the given snapshot.
+     * </p>
+     *
+     * @param dir the directory
+     * @param before the snapshot, {@code null} to list all the files
+     * @return the paths relative to the directory in lexicographic order
+     */
+    public static List<String> written(final File dir, final Map<String, String> before) {
+        final List<String> retval = new ArrayList<String>();
+        final Map<String, String> after = new HashMap<String, String>();
+        snapshot(dir, dir, after);
+
+        for (final Map.Entry<String, String> entry : after.entrySet()) {
+            if (before == null || !entry.getValue().equals(before.get(entry.getKey()))) {
+                retval.add(entry.getKey());
+            }
+        }
+
+        Collections.sort(retval);
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Restores the entry associated to the given key.
+     * </p>
+     *
+     * @param key the key
+     * @param output the output directory
+     * @param outputs the list where the paths of the restored outputs are added
+     * @param relocatedDir the directory of relocated files, {@code null} if relocated files must be ignored
+     * @param relocated the list where the paths of relocated files are added
+     * @return {@code true} if the entry has been restored, {@code false} if the key is not in the cache
+     * @throws IOException if the entry can't be read or contains a file outside the directories
+     */
+    public boolean restore(final String key,
+                           final File output,
+                           final List<String> outputs,
+                           final File relocatedDir,
+                           final List<String> relocated)
+            throws IOException {
+        final File archive = new File(directory, key + EXTENSION);
+
+        if (!archive.isFile()) {
+            return false;
+        }
+
+        ZipInputStream zis = null;
+
+        try {
+            try {
+                zis = new ZipInputStream(new FileInputStream(archive));
+            } catch (FileNotFoundException fnfe) {
+                // Evicted by a concurrent build
+                return false;
+            }
+
+            ZipEntry entry;
+
+            while ((entry = zis.getNextEntry()) != null) {
+                final String name = entry.getName();
+
+                if (name.startsWith(OUTPUT_PREFIX)) {
+                    write(zis, resolve(archive, output, name.substring(OUTPUT_PREFIX.length())));
+                    outputs.add(name.substring(OUTPUT_PREFIX.length()));
+                } else if (relocatedDir != null && name.startsWith(RELOCATED_PREFIX)) {
+                    final File file = resolve(archive, relocatedDir, name.substring(RELOCATED_PREFIX.length()));
+                    relocated.add(name.substring(RELOCATED_PREFIX.length()));
+                    write(zis, file);
+                }
+            }
+        } finally {
+            IOUtils.close(zis);
+        }
+
+        // Keep track of the last usage for eviction, the entry may have been evicted by a concurrent build meanwhile
+        if (!archive.setLastModified(System.currentTimeMillis()) && archive.isFile()) {
+            throw new IOException(String.format("Could not update last modification date of '%s'", archive.getAbsolutePath()));
+        }
+
+        return true;
+    }
+
+    /**
+     * <p>
+     * Stores the given outputs of the current build and the relocated files. The archive is written to a temporary
+     * file and then renamed, so concurrent builds sharing the cache never read a partial entry. Least recently used
+     * entries are evicted if the maximum size is exceeded.
+     * </p>
+     *
+     * @param key the key
+     * @param output the output directory
+     * @param outputs the paths of the outputs relatively to the output directory
+     * @param relocatedDir the directory of relocated files, {@code null} if there is no relocated file
+     * @param relocated the relocated files
+     * @throws IOException if the entry can't be written
+     */
+    public void store(final String key,
+                      final File output,
+                      final List<String> outputs,
+                      final File relocatedDir,
+                      final List<String> relocated)
+            throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException(String.format("Could not create cache directory '%s'", directory.getAbsolutePath()));
+        }
+
+        final File archive = new File(directory, key + EXTENSION);
+        final File temp = File.createTempFile(key, ".tmp", directory);
+        ZipOutputStream zos = null;
+
+        try {
+            zos = new ZipOutputStream(new FileOutputStream(temp));
+
+            for (final String o : outputs) {
+                add(zos, OUTPUT_PREFIX + o, new File(output, o));
+            }
+
+            if (relocatedDir != null) {
+                for (final String r : relocated) {
+                    add(zos, RELOCATED_PREFIX + r, new File(relocatedDir, r));
+                }
+            }
+        } finally {
+            IOUtils.close(zos);
+        }
+
+        if (!temp.renameTo(archive)) {
+            // Another build stored the same key in the meantime
+            if (!temp.delete()) {
+                temp.deleteOnExit();
+            }
+        }
+
+        evict();
+    }
+
+    /**
+     * <p>
+     * Deletes the least recently used entries until the size of the cache does not exceed the maximum size.
+     * </p>
+     */
+    public void evict() {
+        final File[] archives = directory.listFiles();
+
+        if (archives == null) {
+            return;
+        }
+
+        // Dates are read once since they could be updated by a concurrent build while sorting
+        final Map<File, Long> dates = new HashMap<File, Long>();
+        long size = 0L;
+
+        for (final File archive : archives) {
+            if (archive.getName().endsWith(EXTENSION)) {
+                dates.put(archive, archive.lastModified());
+                size += archive.length();
+            }
+        }
+
+        // Least recently used first
+        final List<File> sorted = new ArrayList<File>(dates.keySet());
+        Collections.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(final File o1, final File o2) {
+                return dates.get(o1).compareTo(dates.get(o2));
+            }
+        });
+
+        for (int i = 0; i < sorted.size() && size > maxSize; i++) {
+            final long length = sorted.get(i).length();
+
+            if (sorted.get(i).delete()) {
+                size -= length;
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Records recursively the files of the given directory.
+     * </p>
+     *
+     * @param root the root directory
+     * @param dir the current directory
+     * @param snapshot the snapshot where the files are recorded
+     * @return the most recent last modification date of the recorded files
+     */
+    private static long snapshot(final File root, final File dir, final Map<String, String> snapshot) {
+        final File[] files = dir.listFiles();
+        long retval = 0L;
+
+        if (files == null) {
+            return retval;
+        }
+
+        for (final File file : files) {
+            if (file.isDirectory()) {
+                retval = Math.max(retval, snapshot(root, file, snapshot));
+            } else {
+                final long lastModified = file.lastModified();
+                snapshot.put(WorkflowInputs.relativize(root, file), file.length() + "|" + lastModified);
+                retval = Math.max(retval, lastModified);
+            }
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Adds the given file to the archive.
+     * </p>
+     *
+     * @param zos the archive
+     * @param name the entry name
+     * @param file the file
+     * @throws IOException if an I/O error occurs
+     */
+    private static void add(final ZipOutputStream zos, final String name, final File file) throws IOException {
+        InputStream is = null;
+
+        try {
+            is = new FileInputStream(file);
+            zos.putNextEntry(new ZipEntry(name));
+            copy(is, zos);
+            zos.closeEntry();
+        } finally {
+            IOUtils.close(is);
+        }
+    }
+
+    /**
+     * <p>
+     * Resolves the file where an entry of an archive is restored. Since the cache can be shared, the entry is rejected
+     * if its canonical path is not inside the directory.
+     * </p>
+     *
+     * @param archive the archive
+     * @param dir the directory
+     * @param path the path of the entry relatively to the directory
+     * @return the file
+     * @throws IOException if the entry escapes the directory
+     */
+    private static File resolve(final File archive, final File dir, final String path) throws IOException {
+        final File retval = new File(dir, path);
+
+        if (!retval.getCanonicalPath().startsWith(dir.getCanonicalPath() + File.separator)) {
+            throw new IOException(String.format("Entry '%s' of '%s' is outside of '%s'",
+                    path, archive.getAbsolutePath(), dir.getAbsolutePath()));
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Writes the current entry of the given stream to a file. An existing file is deleted first: it may be a hard
+     * link created by the {@link Deduplicator}, whose other links must not be truncated.
+     * </p>
+     *
+     * @param is the stream
+     * @param file the file
+     * @throws IOException if an I/O error occurs
+     */
+    private static void write(final InputStream is, final File file) throws IOException {
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            throw new IOException(String.format("Could not create directory for '%s'", file.getAbsolutePath()));
+        }
+
+        if (file.isFile() && !file.delete()) {
+            throw new IOException(String.format("Could not delete '%s'", file.getAbsolutePath()));
+        }
+
+        OutputStream os = null;
+
+        try {
+            os = new FileOutputStream(file);
+            copy(is, os);
+        } finally {
+            IOUtils.close(os);
+        }
+    }
+
+    /**
+     * <p>
+     * Copies the given input stream to the given output stream without closing them.
+     * </p>
+     *
+     * @param is the input stream
+     * @param os the output stream
+     * @throws IOException if an I/O error occurs
+     */
+    static void copy(final InputStream is, final OutputStream os) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int offset;
+
+        while ((offset = is.read(buffer)) != -1) {
+            os.write(buffer, 0, offset);
+        }
+    }
+}
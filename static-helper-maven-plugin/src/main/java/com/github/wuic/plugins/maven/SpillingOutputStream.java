@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import com.github.wuic.util.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * <p>
+ * An output stream keeping its content in memory until a threshold is reached. Above the threshold, the content is
+ * spilled to a temporary file and the following bytes are written to that file, so the heap used by a stream never
+ * exceeds the threshold whatever the size of the content is.
+ * </p>
+ *
+ * <p>
+ * Once closed, the content is either discarded, read with {@link #openInputStream()} or moved to its final location
+ * with {@link #moveTo(File)}.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public class SpillingOutputStream extends OutputStream {
+
+    /**
+     * Content in memory, {@code null} once spilled.
+     */
+    private ByteArrayOutputStream memory;
+
+    /**
+     * Stream of the temporary file, {@code null} until spilled.
+     */
+    private OutputStream fileOutputStream;
+
+    /**
+     * The temporary file, {@code null} until spilled.
+     */
+    private File spill;
+
+    /**
+     * Directory where the temporary file is created, {@code null} for the default temporary directory.
+     */
+    private final File directory;
+
+    /**
+     * Maximum number of bytes kept in memory.
+     */
+    private final int threshold;
+
+    /**
+     * Number of written bytes.
+     */
+    private long size;
+
+    /**
+     * <p>
+     * Builds a new instance.
+     * </p>
+     *
+     * @param directory the directory of the temporary file, {@code null} for the default temporary directory
+     * @param threshold the maximum number of bytes kept in memory
+     */
+    public SpillingOutputStream(final File directory, final int threshold) {
+        this.directory = directory;
+        this.threshold = threshold;
+        this.memory = new ByteArrayOutputStream(Math.min(threshold, ResultCache.BUFFER_SIZE));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        if (memory != null && memory.size() + len > threshold) {
+            spill = File.createTempFile("wuic-spill", ".tmp", directory);
+            fileOutputStream = new FileOutputStream(spill);
+            memory.writeTo(fileOutputStream);
+            memory = null;
+        }
+
+        if (memory != null) {
+            memory.write(b, off, len);
+        } else {
+            fileOutputStream.write(b, off, len);
+        }
+
+        size += len;
+    }
+
+    /**
+     * <p>
+     * Gets the number of written bytes.
+     * </p>
+     *
+     * @return the size
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * <p>
+     * Indicates if the content has been spilled to a temporary file.
+     * </p>
+     *
+     * @return {@code true} if the content is in a file, {@code false} if it is in memory
+     */
+    public boolean isSpilled() {
+        return spill != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        IOUtils.close(fileOutputStream);
+    }
+
+    /**
+     * <p>
+     * Opens a stream reading the content. The stream must be closed.
+     * </p>
+     *
+     * @return the stream
+     * @throws IOException if the temporary file can't be opened
+     */
+    public InputStream openInputStream() throws IOException {
+        return spill != null ? new FileInputStream(spill) : new ByteArrayInputStream(memory.toByteArray());
+    }
+
+    /**
+     * <p>
+     * Moves the content to the given file. The stream must be closed. The temporary file is renamed, or copied if it
+     * is on another file system than the given file. An existing file is always replaced by a new one, so the other
+     * hard links to that file are not changed.
+     * </p>
+     *
+     * @param file the file
+     * @throws IOException if the file can't be written
+     */
+    public void moveTo(final File file) throws IOException {
+        if (file.isFile() && !file.delete()) {
+            throw new IOException(String.format("Could not replace '%s'", file));
+        }
+
+        if (spill != null) {
+            if (!spill.renameTo(file)) {
+                copy(spill, file);
+            }
+
+            spill = null;
+        } else {
+            OutputStream os = null;
+
+            try {
+                os = new FileOutputStream(file);
+                memory.writeTo(os);
+            } finally {
+                IOUtils.close(os);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Copies the given temporary file to the given file and deletes it.
+     * </p>
+     *
+     * @param temporary the temporary file
+     * @param file the file
+     * @throws IOException if the file can't be written
+     */
+    private static void copy(final File temporary, final File file) throws IOException {
+        InputStream is = null;
+        OutputStream os = null;
+
+        try {
+            is = new FileInputStream(temporary);
+            os = new FileOutputStream(file);
+            ResultCache.copy(is, os);
+        } finally {
+            IOUtils.close(is, os);
+        }
+
+        if (!temporary.delete()) {
+            temporary.deleteOnExit();
+        }
+    }
+
+    /**
+     * <p>
+     * Discards the content, deleting the temporary file if any. The stream must be closed.
+     * </p>
+     */
+    public void discard() {
+        if (spill != null && spill.delete()) {
+            spill = null;
+        }
+
+        memory = null;
+    }
+}
@@ -23,7 +23,6 @@
 package com.github.wuic.plugins.maven;
 
 import com.github.wuic.WuicTask;
-import com.github.wuic.exception.WuicException;
 import com.github.wuic.util.IOUtils;
 import org.apache.maven.model.Build;
 import org.apache.maven.model.Resource;
@@ -37,15 +36,33 @@ import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
 
-import javax.xml.bind.JAXBException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.net.MalformedURLException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
-import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
 
 /**
  * <p>
@@ -57,7 +74,7 @@ import java.util.List;
  * @author Guillaume DROUET
  * @since 0.4.1
  */
-@Mojo(name = "process", defaultPhase = LifecyclePhase.GENERATE_RESOURCES, requiresDependencyResolution = ResolutionScope.COMPILE)
+@Mojo(name = "process", defaultPhase = LifecyclePhase.GENERATE_RESOURCES, requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
 public class StaticHelperMojo extends AbstractMojo {
 
     /**
@@ -65,6 +82,159 @@ public class StaticHelperMojo extends AbstractMojo {
      */
     private static final String FAIL_MESSAGE = String.format("Unable to run %s", StaticHelperMojo.class.getName());
 
+    /**
+     * Location of the manifest relatively to the build directory.
+     */
+    private static final String MANIFEST = "wuic-static-helper/manifest.properties";
+
+    /**
+     * Manifest key for the directory containing the relocated XML.
+     */
+    private static final String RELOCATED_DIR = "relocated.directory";
+
+    /**
+     * Manifest key for the relocated files.
+     */
+    private static final String RELOCATED_FILES = "relocated.files";
+
+    /**
+     * Location of the directory where the task writes the nuts before they are packaged, relatively to the build
+     * directory. The variants computed by the plugin are added to the JAR without being written there.
+     */
+    private static final String STAGING = "wuic-static-helper/staging";
+
+    /**
+     * Location of the directory where the precompressed variants larger than {@link #spillThreshold} are written
+     * before being moved or packaged, relatively to the build directory.
+     */
+    private static final String SPILL = "wuic-static-helper/spill";
+
+    /**
+     * Default name of the JAR file written when nuts are streamed to the package.
+     */
+    private static final String DEFAULT_JAR_NAME = "wuic-static.jar";
+
+    /**
+     * Default minimal size in bytes of a file to precompress.
+     */
+    private static final int DEFAULT_PRECOMPRESS_MIN_SIZE = 1024;
+
+    /**
+     * Default minimal ratio of bytes saved by a precompressed variant.
+     */
+    private static final float DEFAULT_PRECOMPRESS_MIN_RATIO = 0.1f;
+
+    /**
+     * Location of the timing report relatively to the build directory.
+     */
+    private static final String REPORT = "wuic-static-helper/report.json";
+
+    /**
+     * Default number of stages in the summary of the timing report.
+     */
+    private static final int DEFAULT_REPORT_TOP_N = 5;
+
+    /**
+     * Default maximum size of the cache in megabytes.
+     */
+    private static final int DEFAULT_CACHE_MAX_SIZE = 512;
+
+    /**
+     * Default size in megabytes above which intermediate content is spilled to disk.
+     */
+    private static final int DEFAULT_SPILL_THRESHOLD = 4;
+
+    /**
+     * Location of the index of deduplicated outputs relatively to the build directory.
+     */
+    private static final String DUPLICATES = "wuic-static-helper/duplicates.properties";
+
+    /**
+     * Location of the durations of the scheduled tasks relatively to the build directory.
+     */
+    private static final String TIMINGS = "wuic-static-helper/timings.properties";
+
+    /**
+     * Prefix of the names of the tasks processing a set of profiles.
+     */
+    private static final String PROFILE_SET_TASK_PREFIX = "profiles:";
+
+    /**
+     * Nanoseconds in a millisecond.
+     */
+    private static final double NANOS_PER_MILLI = 1000000d;
+
+    /**
+     * ID of the heap fingerprinting the {@link #htmlPages}.
+     */
+    private static final String HTML_PAGES_HEAP = "wuic-static-helper:html-pages";
+
+    /**
+     * Pattern of the paths of the {@link #htmlPages}.
+     */
+    private static final String HTML_PAGE = "(?i).*\\.html?";
+
+    /**
+     * Output directory of a profile set without any profile.
+     */
+    private static final String DEFAULT_PROFILE_SET = "default";
+
+    /**
+     * Location of the persisted directory listing relatively to the build directory.
+     */
+    private static final String LISTING = "wuic-static-helper/listing.txt";
+
+    /**
+     * Location of the relocated XML relatively to the build directory.
+     */
+    private static final String RELOCATED = "wuic-static-helper/relocated";
+
+    /**
+     * Location where the XML is relocated by the task relatively to the build directory.
+     */
+    private static final String RELOCATED_STAGING = "wuic-static-helper/relocated-staging";
+
+    /**
+     * Marker of the snapshot archives in the classpath.
+     */
+    private static final String SNAPSHOT = "SNAPSHOT";
+
+    /**
+     * Location of the Maven properties of the plugin in its archive.
+     */
+    private static final String PLUGIN_PROPERTIES =
+            "META-INF/maven/com.github.wuic.plugins/static-helper-maven-plugin/pom.properties";
+
+    /**
+     * Location of the Maven properties of WUIC in its archive.
+     */
+    private static final String WUIC_PROPERTIES = "META-INF/maven/com.github.wuic/wuic-core/pom.properties";
+
+    /**
+     * Time of reproducible outputs when no timestamp is configured (1980-01-01T00:00:00Z, the lowest ZIP time).
+     */
+    private static final long DEFAULT_REPRODUCIBLE_TIME = 315532800000L;
+
+    /**
+     * Number of milliseconds in a second.
+     */
+    private static final long SECOND = 1000L;
+
+    /**
+     * Number of bytes in a megabyte.
+     */
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    /**
+     * Property enabling regular expressions in nut paths.
+     */
+    private static final String REGEX_PROPERTY = "c.g.wuic.dao.regex";
+
+    /**
+     * Property enabling wildcards in nut paths.
+     */
+    private static final String WILDCARD_PROPERTY = "c.g.wuic.dao.wildcard";
+
     /**
      * Maven project.
      */
@@ -79,6 +249,32 @@ public class StaticHelperMojo extends AbstractMojo {
     @Component
     private MavenProjectHelper projectHelper;
 
+    /**
+     * The project's compile classpath exposed to WUIC with the resources.
+     */
+    @Parameter(defaultValue = "${project.compileClasspathElements}", readonly = true)
+    private List<String> classpathElements;
+
+    /**
+     * Builds reproducible outputs: written files and JAR entries get the same modification time, see
+     * {@link #outputTimestamp}, and the plugin packages the JAR with a stable entry order.
+     */
+    @Parameter(defaultValue = "false")
+    private Boolean reproducible;
+
+    /**
+     * Modification time of the reproducible outputs, as a number of seconds since epoch or an ISO 8601 date time.
+     * Defaults to 1980-01-01T00:00:00Z when not set.
+     */
+    @Parameter(defaultValue = "${project.build.outputTimestamp}")
+    private String outputTimestamp;
+
+    /**
+     * Start time of the Maven session, identifying the session for which engines are kept in the registry.
+     */
+    @Parameter(defaultValue = "${session.startTime}", readonly = true)
+    private Date sessionStartTime;
+
     /**
      * The "xml" configuration parameter.
      */
@@ -145,33 +341,225 @@ public class StaticHelperMojo extends AbstractMojo {
     @Parameter(defaultValue = "true")
     private String packageAsJar;
 
+    /**
+     * Streams the processed nuts to the JAR file written by the plugin instead of letting the task package the
+     * output. Entries with an already compressed content are stored without compression.
+     */
+    @Parameter(defaultValue = "false")
+    private Boolean streamJar;
+
+    /**
+     * Name of the JAR file written to {@link #output} when {@link #streamJar} is enabled.
+     */
+    @Parameter(defaultValue = DEFAULT_JAR_NAME)
+    private String jarName;
+
+    /**
+     * Writes a '.gz' variant next to each text-like file produced by the build. When {@link #packageAsJar} is
+     * enabled, the nuts are streamed to the JAR as with {@link #streamJar} so the variants are packaged too.
+     */
+    @Parameter(defaultValue = "false")
+    private Boolean precompress;
+
+    /**
+     * Also writes a '.deflate' variant when {@link #precompress} is enabled.
+     */
+    @Parameter(defaultValue = "false")
+    private Boolean precompressDeflate;
+
+    /**
+     * Files smaller than this size in bytes are not precompressed.
+     */
+    @Parameter(defaultValue = "1024")
+    private Integer precompressMinSize;
+
+    /**
+     * Minimal ratio of bytes that a precompressed variant must save to be written, between 0 and 1.
+     */
+    @Parameter(defaultValue = "0.1")
+    private Float precompressMinRatio;
+
+    /**
+     * Skips the workflows whose inputs, configuration and profiles did not change since the last build.
+     */
+    @Parameter(defaultValue = "true")
+    private Boolean incremental;
+
+    /**
+     * Directory where the results are cached across builds, could be located outside the build directory to survive
+     * a 'clean'. No cache is used if not set.
+     */
+    @Parameter
+    private String cacheDirectory;
+
+    /**
+     * Maximum size of the cache in megabytes. Least recently used results are evicted when the size is exceeded.
+     */
+    @Parameter(defaultValue = "512")
+    private Integer cacheMaxSize;
+
+    /**
+     * Size in megabytes of intermediate content kept in memory by the post processing of the outputs. Larger content
+     * is spilled to a temporary file, so the heap stays flat whatever the size of the assets is.
+     */
+    @Parameter(defaultValue = "4")
+    private Integer spillThreshold;
+
+    /**
+     * Writes a JSON report with the timings of each stage and the volumes of each workflow to the build directory.
+     */
+    @Parameter(defaultValue = "true")
+    private Boolean timingReport;
+
+    /**
+     * Number of slowest stages printed to the log when {@link #timingReport} is enabled.
+     */
+    @Parameter(defaultValue = "5")
+    private Integer reportTopN;
+
+    /**
+     * Also writes a binary index of the 'wuic-static' metadata next to the relocated XML, see {@link StaticIndex}.
+     */
+    @Parameter(defaultValue = "true")
+    private Boolean staticIndex;
+
+    /**
+     * Sets of profiles processed in a single execution instead of the active profiles. Each set is a comma separated
+     * list of profiles and is processed concurrently with the other sets in a subdirectory of the output named after
+     * its profiles, for instance 'fr-dark' for the 'fr,dark' set. Relocated XML files are prefixed by the same name.
+     */
+    @Parameter
+    private List<String> profileSets;
+
+    /**
+     * Replaces the byte-identical outputs by hard links to a single copy. Ignored when the plugin packages the outputs
+     * in a JAR itself.
+     */
+    @Parameter(defaultValue = "false")
+    private Boolean deduplicate;
+
+    /**
+     * Persists the listing of the scanned directories, so only the directories modified since the previous build are
+     * listed again when looking for the inputs of the workflows.
+     */
+    @Parameter(defaultValue = "true")
+    private Boolean persistListing;
+
+    /**
+     * Maximum number of threads processing the inputs concurrently. Zero or a negative value means the number of
+     * available processors. Ignored when {@link #virtualThreads} are supported.
+     */
+    @Parameter(defaultValue = "0")
+    private Integer parallelism;
+
+    /**
+     * Runs the concurrent I/O tasks (input hashing, directory listing, profile sets, precompression) on virtual threads
+     * when the JVM supports them (Java 21+). On older JVMs, a pool of platform threads sized from {@link #parallelism},
+     * or from the number of processors if not set, is used instead.
+     */
+    @Parameter(defaultValue = "false")
+    private Boolean virtualThreads;
+
+    /**
+     * Directory of HTML pages that are not processed by WUIC. The pages are written to the output directory with the
+     * unversioned URLs of the processed nuts, the context path followed by the workflow ID and the nut name, replaced
+     * by their versioned URL. Pages are streamed and rewritten concurrently.
+     */
+    @Parameter
+    private String htmlPages;
+
+    /**
+     * Charset of the {@link #htmlPages} that do not declare their charset with a {@code <meta charset>} element in their
+     * first 1024 bytes. Pages are written back with the charset they are read with.
+     */
+    @Parameter(defaultValue = "${project.build.sourceEncoding}")
+    private String htmlPagesCharset;
+
+    /**
+     * Maximum duration in milliseconds of the precompression of a single nut. A nut exceeding it is kept without
+     * precompressed variant and the build outputs are not reused by the next build. Zero or a negative value means no
+     * limit.
+     */
+    @Parameter(defaultValue = "0")
+    private Integer precompressTimeBudget;
+
+    /**
+     * Writes an 'integrity.json' manifest mapping the path of each output to its size, its SHA-256 digest and its
+     * subresource integrity string. The manifest is written at the root of the output directory, or added to the JAR
+     * when {@link #packageAsJar} is enabled, in which case the plugin packages the outputs itself as with
+     * {@link #streamJar}. The files read or written by the plugin are hashed on the fly, but the files written by WUIC
+     * and not read afterwards, for instance when {@link #precompress} is disabled, are read once more to be hashed.
+     */
+    @Parameter(defaultValue = "false")
+    private Boolean integrityManifest;
+
     /**
      * <p>
-     * Adds into the classpath the project's resources.
+     * Gets the URLs of the archives of the project's compile classpath, exposed by the isolated class loader. The class
+     * loaders are shared with the modules having the same dependencies.
      * </p>
      *
-     * @throws MojoExecutionException if an error occurs
-     * @throws IOException if an I/O error occurs
+     * @return the URLs
+     * @throws IOException if an URL is malformed
+     */
+    private List<URL> classpathUrls() throws IOException {
+        final List<URL> urls = new ArrayList<URL>();
+
+        if (classpathElements != null) {
+            for (final String element : classpathElements) {
+                final File file = new File(element);
+
+                if (!file.isDirectory()) {
+                    urls.add(file.toURI().toURL());
+                }
+            }
+        }
+
+        return urls;
+    }
+
+    /**
+     * <p>
+     * Starts the warm-up of the engine in background. The processing waits for the end of the warm-up before running
+     * the tasks, so this method is meant to be called early in the build.
+     * </p>
+     *
+     * @throws IOException if the class loader can't be created
+     */
+    protected void prepare() throws IOException {
+        EngineRegistry.warmUp(EngineRegistry.classLoader(sessionStartTime, classpathUrls()), resolve(xml));
+    }
+
+    /**
+     * <p>
+     * Lists the directories of the module exposed to WUIC: the project's resources and the directories of the compile
+     * classpath.
+     * </p>
+     *
+     * @return the directories
      */
     @SuppressWarnings("unchecked")
-    private void setClasspath() throws MojoExecutionException, IOException {
-        final URLClassLoader urlClassLoader = (URLClassLoader) ClassLoader.getSystemClassLoader();
+    private List<File> moduleDirectories() {
+        final List<File> retval = new ArrayList<File>();
 
-        try {
-            for (final Resource artifact : (List<Resource>) project.getResources()) {
-                getLog().info(artifact.getDirectory());
-                final Class urlClass = URLClassLoader.class;
-                final Method method = urlClass.getDeclaredMethod("addURL", URL.class);
-                method.setAccessible(true);
-                method.invoke(urlClassLoader, new File(artifact.getDirectory()).toURI().toURL());
+        if (project.getResources() != null) {
+            for (final Resource resource : (List<Resource>) project.getResources()) {
+                getLog().info(resource.getDirectory());
+                retval.add(new File(resource.getDirectory()));
+            }
+        }
+
+        if (classpathElements != null) {
+            for (final String element : classpathElements) {
+                final File file = new File(element);
+
+                if (file.isDirectory()) {
+                    retval.add(file);
+                }
             }
-        } catch (NoSuchMethodException nsme) {
-            throw new MojoExecutionException(FAIL_MESSAGE, nsme);
-        } catch (IllegalAccessException iae) {
-            throw new MojoExecutionException(FAIL_MESSAGE, iae);
-        } catch (InvocationTargetException ite) {
-            throw new MojoExecutionException(FAIL_MESSAGE, ite);
         }
+
+        return retval;
     }
 
     /**
@@ -196,84 +584,1504 @@ public class StaticHelperMojo extends AbstractMojo {
     }
 
     /**
-     * {@inheritDoc}
+     * <p>
+     * Resolves the given path relatively to the project's base directory or to the working directory.
+     * </p>
+     *
+     * @param path the path, could be {@code null}
+     * @return the file, {@code null} if the path is {@code null} or does not denote an existing file
      */
-    @Override
-    public void execute() throws MojoExecutionException {
-        try {
-            setClasspath();
-
-            final Build b = project.getBuild();
-            final String o = b.getOutputDirectory().equals(output) ? output : IOUtils.mergePath(b.getDirectory(), output);
-            final WuicTask task = new WuicTask();
-            task.setXml(xml);
-            task.setContextPath(contextPath);
-            task.setProperties(properties);
-            task.setProfiles(loadProfiles());
-            task.setOutput(o);
-            task.setMoveToTopDirPattern(moveToTopDirPattern);
-            task.setBaseDir(baseDir);
-            task.setPath(path);
-            task.setTaskName(taskName);
-            task.setUseRegex(Boolean.parseBoolean(useRegex));
-            task.setPackageAsJar(Boolean.parseBoolean(packageAsJar));
-
-            if (relocateTransformedXml) {
-                final File temp = File.createTempFile("tempXml", Long.toString(System.nanoTime()));
-
-                if (!temp.delete() || !temp.mkdirs()) {
-                    throw new IOException(String.format("Could not delete temp '%s' directory for transformed XML configuration file",
-                            temp.getAbsolutePath()));
-                }
+    private File resolve(final String path) {
+        if (path == null) {
+            return null;
+        }
 
-                task.setRelocateTransformedXmlTo(temp.toString());
-                final List<String> relocated = task.executeTask();
-                projectHelper.addResource(project, temp.toString(), relocated, null);
-            } else {
-                task.execute();
-            }
-        } catch (WuicException we) {
-            throw new MojoExecutionException(FAIL_MESSAGE, we);
-        } catch (MalformedURLException mue) {
-            throw new MojoExecutionException(FAIL_MESSAGE, mue);
-        } catch (JAXBException je) {
-            throw new MojoExecutionException(FAIL_MESSAGE, je);
-        } catch (IOException ioe) {
-            throw new MojoExecutionException(FAIL_MESSAGE, ioe);
+        final File file = new File(path);
+
+        if (file.isAbsolute()) {
+            return file.exists() ? file : null;
+        }
+
+        final File fromBaseDir = new File(project.getBasedir(), path);
+
+        if (fromBaseDir.exists()) {
+            return fromBaseDir;
         }
+
+        return file.exists() ? file : null;
     }
 
     /**
      * <p>
-     * Sets the "xml" configuration parameter.
+     * Expresses the given path relatively to the project's base directory with '/' separators, so the hash of the
+     * configuration does not depend on the location of the project. Relative paths and paths outside the base
+     * directory are only normalized.
      * </p>
      *
-     * @param x the parameter
+     * @param path the path, could be {@code null}
+     * @return the relative path, {@code null} if the path is {@code null}
      */
-    public void setXml(final String x) {
-        xml = x;
+    private String relativePath(final String path) {
+        if (path == null) {
+            return null;
+        }
+
+        final File file = new File(path);
+        final File base = project.getBasedir();
+
+        if (!file.isAbsolute() || base == null) {
+            return IOUtils.normalizePathSeparator(path);
+        } else if (file.getAbsolutePath().startsWith(base.getAbsolutePath() + File.separator)) {
+            return "./" + WorkflowInputs.relativize(base, file);
+        } else {
+            return IOUtils.normalizePathSeparator(file.getAbsolutePath());
+        }
     }
 
     /**
      * <p>
-     * Sets the "properties" configuration parameter.
+     * Gets the directory where the outputs are written, the {@link #output} parameter being relative to the build
+     * directory unless it is the default output directory.
      * </p>
      *
-     * @param properties the properties
+     * @return the output directory
      */
-    public void setProperties(final String properties) {
-        this.properties = properties;
+    private String outputDirectory() {
+        final Build b = project.getBuild();
+        return b.getOutputDirectory().equals(output) ? output : IOUtils.mergePath(b.getDirectory(), output);
     }
 
     /**
      * <p>
-     * Sets the relocate transformed XML flag.
+     * Computes the hash of the file denoted by the given path.
      * </p>
      *
-     * @param relocateTransformedXml the new flag
+     * @param path the path
+     * @return the hash of the file, the path itself if it can't be resolved
+     * @throws IOException if the file can't be read
      */
-    public void setRelocateTransformedXml(final Boolean relocateTransformedXml) {
-        this.relocateTransformedXml = relocateTransformedXml;
+    private String hashFile(final String path) throws IOException {
+        final File file = resolve(path);
+        return file == null || !file.isFile() ? path : BuildManifest.hash(file);
+    }
+
+    /**
+     * <p>
+     * Lists the directories where input nuts are searched: the project's resources, the directory containing the XML
+     * configuration file and the base paths of the DAOs declared in it.
+     * </p>
+     *
+     * @return the directories
+     * @throws IOException if the XML configuration can't be read
+     */
+    @SuppressWarnings("unchecked")
+    private List<File> inputDirectories() throws IOException {
+        final List<File> retval = new ArrayList<File>();
+
+        if (project.getResources() != null) {
+            for (final Resource resource : (List<Resource>) project.getResources()) {
+                final File directory = new File(resource.getDirectory());
+
+                if (directory.isDirectory()) {
+                    retval.add(directory);
+                }
+            }
+        }
+
+        final File xmlFile = resolve(xml);
+
+        if (xmlFile != null && xmlFile.isFile()) {
+            addInputDirectory(retval, xmlFile.getAbsoluteFile().getParentFile());
+
+            for (final String basePath : XmlConfiguration.read(xmlFile).getBasePaths()) {
+                final File directory = resolve(basePath);
+
+                if (directory != null && directory.isDirectory()) {
+                    addInputDirectory(retval, directory);
+                }
+            }
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Adds the given directory to the list if it is not already contained by one of its directories.
+     * </p>
+     *
+     * @param directories the list
+     * @param directory the directory
+     */
+    private static void addInputDirectory(final List<File> directories, final File directory) {
+        for (final File d : directories) {
+            if ((directory.getAbsolutePath() + File.separator).startsWith(d.getAbsolutePath() + File.separator)) {
+                return;
+            }
+        }
+
+        directories.add(directory);
+    }
+
+    /**
+     * <p>
+     * Lists the directories to watch for changes: the directories where input nuts are searched and the base
+     * directory.
+     * </p>
+     *
+     * @return the directories
+     * @throws IOException if the XML configuration can't be read
+     */
+    protected List<File> watchedDirectories() throws IOException {
+        final List<File> retval = inputDirectories();
+        final File base = resolve(baseDir);
+
+        if (base != null && base.isDirectory()) {
+            addInputDirectory(retval, base);
+        }
+
+        final File pages = resolve(htmlPages);
+
+        if (pages != null && pages.isDirectory()) {
+            addInputDirectory(retval, pages);
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Gets the build directory of the project.
+     * </p>
+     *
+     * @return the build directory
+     */
+    protected File buildDirectory() {
+        return new File(project.getBuild().getDirectory());
+    }
+
+    /**
+     * <p>
+     * Computes the hash of the versions of the plugin and of WUIC, and of the archives providing them and the compile
+     * classpath, which contains the engines and nuts like webjars. Released archives are identified by their name and
+     * their size, so the hash does not depend on where they are installed. The last modification date is also
+     * considered for snapshots.
+     * </p>
+     *
+     * @return the hash
+     */
+    private String classpathHash() {
+        final List<String> values = new ArrayList<String>();
+        values.add(version(PLUGIN_PROPERTIES));
+        values.add(version(WUIC_PROPERTIES));
+        addArchive(codeSource(StaticHelperMojo.class), values);
+        addArchive(codeSource(WuicTask.class), values);
+
+        if (classpathElements != null) {
+            for (final String element : classpathElements) {
+                addArchive(new File(element), values);
+            }
+        }
+
+        return BuildManifest.hash(values.toArray(new String[values.size()]));
+    }
+
+    /**
+     * <p>
+     * Adds the values identifying the given archive. Directories are ignored.
+     * </p>
+     *
+     * @param file the archive, could be {@code null}
+     * @param values the values
+     */
+    private static void addArchive(final File file, final List<String> values) {
+        if (file != null && file.isFile()) {
+            values.add(file.getName());
+            values.add(String.valueOf(file.length()));
+
+            if (file.getName().contains(SNAPSHOT)) {
+                values.add(String.valueOf(file.lastModified()));
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Gets the location of the given class.
+     * </p>
+     *
+     * @param clazz the class
+     * @return the archive or the directory containing the class, {@code null} if unknown
+     */
+    private static File codeSource(final Class<?> clazz) {
+        final CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+
+        try {
+            return codeSource == null || codeSource.getLocation() == null ? null : new File(codeSource.getLocation().toURI());
+        } catch (URISyntaxException use) {
+            return null;
+        } catch (IllegalArgumentException iae) {
+            // Not a file URI
+            return null;
+        }
+    }
+
+    /**
+     * <p>
+     * Reads the version declared in the given Maven properties of an archive of the plugin's class loader.
+     * </p>
+     *
+     * @param location the location of the properties
+     * @return the version, {@code null} if not packaged
+     */
+    private static String version(final String location) {
+        final InputStream is = StaticHelperMojo.class.getClassLoader().getResourceAsStream(location);
+
+        if (is == null) {
+            return null;
+        }
+
+        try {
+            final Properties properties = new Properties();
+            properties.load(is);
+            return properties.getProperty("version");
+        } catch (IOException ioe) {
+            return null;
+        } finally {
+            IOUtils.close(is);
+        }
+    }
+
+    /**
+     * <p>
+     * Computes the hash of the configuration files, of the plugin, WUIC and compile classpath versions and of the
+     * parameters changing the outputs.
+     * </p>
+     *
+     * @return the hash
+     * @throws IOException if a configuration file can't be read
+     */
+    private String configurationHash() throws IOException {
+        return BuildManifest.hash(hashFile(xml), hashFile(properties), classpathHash(), contextPath,
+                relativePath(outputDirectory()), moveToTopDirPattern, relativePath(baseDir), relativePath(path), taskName, useRegex, packageAsJar, String.valueOf(relocateTransformedXml),
+                String.valueOf(streamJar), jarName, String.valueOf(precompress), String.valueOf(precompressDeflate),
+                String.valueOf(precompressMinSize), String.valueOf(precompressMinRatio), String.valueOf(profileSets),
+                String.valueOf(staticIndex), String.valueOf(reproducible), outputTimestamp, relativePath(htmlPages),
+                htmlPagesCharset, String.valueOf(integrityManifest));
+    }
+
+    /**
+     * <p>
+     * Builds the manifest describing the inputs of the current build.
+     * </p>
+     *
+     * @param previous the manifest of the previous build
+     * @param scanner the scanner listing the input directories
+     * @param executor the executor hashing the inputs
+     * @param report the report where inputs of each workflow are recorded
+     * @return the manifest
+     * @throws IOException if an input can't be read
+     */
+    private BuildManifest buildManifest(final BuildManifest previous,
+                                        final DirectoryScanner scanner,
+                                        final ParallelExecutor executor,
+                                        final BuildReport report)
+            throws IOException {
+        final BuildManifest retval = new BuildManifest();
+        retval.setConfiguration(configurationHash());
+        retval.setProfiles(BuildManifest.hash(loadProfiles()));
+
+        final Properties wuicProperties = new Properties();
+        final File propertiesFile = resolve(properties);
+
+        if (propertiesFile != null && propertiesFile.isFile()) {
+            InputStream is = null;
+
+            try {
+                is = new FileInputStream(propertiesFile);
+                wuicProperties.load(is);
+            } finally {
+                IOUtils.close(is);
+            }
+        }
+
+        final WorkflowInputs inputs = new WorkflowInputs(inputDirectories(), scanner);
+        final File xmlFile = resolve(xml);
+
+        if (xmlFile != null && xmlFile.isFile()) {
+            inputs.readXml(xmlFile,
+                    Boolean.parseBoolean(wuicProperties.getProperty(REGEX_PROPERTY)),
+                    Boolean.parseBoolean(wuicProperties.getProperty(WILDCARD_PROPERTY)));
+        }
+
+        final File base = resolve(baseDir);
+
+        if (base != null && path != null) {
+            inputs.addHeap(taskName, base, path, Boolean.parseBoolean(useRegex), true);
+        }
+
+        final File pages = resolve(htmlPages);
+
+        if (pages != null && pages.isDirectory()) {
+            // Pages reference the outputs, not the inputs
+            inputs.addHeap(HTML_PAGES_HEAP, pages, HTML_PAGE, true, false);
+        }
+
+        inputs.fingerprint(previous, retval, executor);
+        inputs.report(report);
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Persists the listing of the input directories if enabled.
+     * </p>
+     *
+     * @param scanner the scanner
+     * @param listing the file of the listing
+     * @throws IOException if the listing can't be written
+     */
+    private void storeListing(final DirectoryScanner scanner, final File listing) throws IOException {
+        if (Boolean.TRUE.equals(persistListing)) {
+            scanner.store(listing);
+        }
+    }
+
+    /**
+     * <p>
+     * Indicates if the outputs of the previous build still exist and can be reused as they are. Each output recorded
+     * by the previous build must exist with the same size.
+     * </p>
+     *
+     * @param previous the manifest of the previous build
+     * @param o the output directory
+     * @return {@code true} if the outputs exist, {@code false} otherwise
+     */
+    private boolean outputsExist(final BuildManifest previous, final String o) {
+        if (!previous.outputsExist(new File(o))) {
+            return false;
+        }
+
+        return !relocateTransformedXml || (previous.get(RELOCATED_DIR) != null && new File(previous.get(RELOCATED_DIR)).isDirectory());
+    }
+
+    /**
+     * <p>
+     * Creates an empty directory where the task relocates the transformed XML before it is published with
+     * {@link #publishRelocated(File, List)}.
+     * </p>
+     *
+     * @return the directory
+     * @throws IOException if the directory can't be created
+     */
+    private File createRelocationDirectory() throws IOException {
+        final File retval = new File(buildDirectory(), RELOCATED_STAGING);
+        delete(retval);
+
+        if (!retval.mkdirs()) {
+            throw new IOException(String.format("Could not create '%s' directory for transformed XML configuration file",
+                    retval.getAbsolutePath()));
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Copies the relocated files to their stable location under the build directory. Files with an unchanged content are
+     * not written again, so their last modification date is preserved for the resources processing and the packaging.
+     * Files that are not relocated anymore are deleted.
+     * </p>
+     *
+     * @param staging the directory where the files have been relocated, deleted once published
+     * @param relocated the paths of the relocated files
+     * @return the stable directory
+     * @throws IOException if a file can't be copied
+     */
+    private File publishRelocated(final File staging, final List<String> relocated) throws IOException {
+        final File retval = new File(buildDirectory(), RELOCATED);
+        final Set<String> paths = new HashSet<String>(relocated);
+        int written = 0;
+
+        for (final String r : paths) {
+            final File source = new File(staging, r);
+            final File target = new File(retval, r);
+
+            if (target.isFile() && target.length() == source.length()
+                    && BuildManifest.hash(target).equals(BuildManifest.hash(source))) {
+                continue;
+            }
+
+            if (!target.getParentFile().isDirectory() && !target.getParentFile().mkdirs()) {
+                throw new IOException(String.format("Could not create directory '%s'", target.getParent()));
+            }
+
+            InputStream is = null;
+            OutputStream os = null;
+
+            try {
+                is = new FileInputStream(source);
+                os = new FileOutputStream(target);
+                ResultCache.copy(is, os);
+            } finally {
+                IOUtils.close(is, os);
+            }
+
+            written++;
+        }
+
+        for (final String path : ResultCache.written(retval, null)) {
+            if (!paths.contains(path) && !new File(retval, path).delete()) {
+                getLog().warn(String.format("Could not delete stale relocated file '%s'", path));
+            }
+        }
+
+        getLog().info(String.format("%d of %d relocated files written to '%s'", written, paths.size(), retval));
+        delete(staging);
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Adds the relocated files to the project's resources and records them in the manifest when not {@code null}.
+     * </p>
+     *
+     * @param directory the directory containing the relocated files
+     * @param relocated the relocated files
+     * @param manifest the manifest
+     */
+    private void addRelocated(final String directory, final List<String> relocated, final BuildManifest manifest) {
+        projectHelper.addResource(project, directory, relocated, null);
+
+        if (manifest != null) {
+            final StringBuilder files = new StringBuilder();
+
+            for (final String r : relocated) {
+                files.append(',').append(r);
+            }
+
+            manifest.set(RELOCATED_DIR, directory);
+            manifest.set(RELOCATED_FILES, files.length() == 0 ? "" : files.substring(1));
+        }
+    }
+
+    /**
+     * <p>
+     * Deletes recursively the given file.
+     * </p>
+     *
+     * @param file the file
+     * @throws IOException if the file can't be deleted
+     */
+    private static void delete(final File file) throws IOException {
+        final File[] files = file.listFiles();
+
+        if (files != null) {
+            for (final File f : files) {
+                delete(f);
+            }
+        }
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException(String.format("Could not delete '%s'", file.getAbsolutePath()));
+        }
+    }
+
+    /**
+     * <p>
+     * Reuses the outputs of the previous build if the configuration and the inputs of all the workflows are unchanged.
+     * </p>
+     *
+     * @param previous the manifest of the previous build
+     * @param current the manifest of the current build
+     * @param o the output directory
+     * @return {@code true} if the outputs have been reused, {@code false} if the workflows must be processed
+     */
+    private boolean reuseUnchanged(final BuildManifest previous, final BuildManifest current, final String o) {
+        if (!current.sameConfiguration(previous) || !outputsExist(previous, o)) {
+            return false;
+        }
+
+        final Set<String> changed = new TreeSet<String>();
+        current.changedWorkflows(previous, changed);
+
+        if (!changed.isEmpty()) {
+            getLog().info(String.format("Inputs of workflows %s changed", changed));
+            return false;
+        }
+
+        getLog().info("Inputs of all workflows are unchanged, reusing the outputs of the previous build");
+        addPreviousRelocated(previous, current);
+        current.putOutputs(previous);
+        return true;
+    }
+
+    /**
+     * <p>
+     * Writes a {@link StaticIndex} next to each 'wuic-static' directory among the relocated files.
+     * </p>
+     *
+     * @param relocationDirectory the directory containing the relocated files
+     * @param output the directory containing the processed nuts
+     * @param relocated the relocated files where the indexes are added
+     * @throws IOException if an index can't be written
+     */
+    private void writeStaticIndexes(final File relocationDirectory, final File output, final List<String> relocated)
+            throws IOException {
+        final Set<String> prefixes = new TreeSet<String>();
+
+        for (final String r : relocated) {
+            final int index = r.indexOf(StaticIndex.METADATA_DIRECTORY + '/');
+
+            if (index == 0 || (index > 0 && r.charAt(index - 1) == '/')) {
+                prefixes.add(r.substring(0, index));
+            }
+        }
+
+        for (final String prefix : prefixes) {
+            final int count = StaticIndex.write(new File(relocationDirectory, prefix + StaticIndex.METADATA_DIRECTORY),
+                    new File(output, prefix), new File(relocationDirectory, prefix + StaticIndex.FILE_NAME));
+            relocated.add(prefix + StaticIndex.FILE_NAME);
+            getLog().info(String.format("%d nuts indexed in '%s'", count, prefix + StaticIndex.FILE_NAME));
+        }
+    }
+
+    /**
+     * <p>
+     * Registers again the relocated files of the previous build.
+     * </p>
+     *
+     * @param previous the manifest of the previous build
+     * @param current the manifest where the relocated files are recorded
+     */
+    private void addPreviousRelocated(final BuildManifest previous, final BuildManifest current) {
+        if (relocateTransformedXml) {
+            final String files = previous.get(RELOCATED_FILES);
+            addRelocated(previous.get(RELOCATED_DIR),
+                    files == null || files.isEmpty() ? new ArrayList<String>() : Arrays.asList(files.split(",")), current);
+        }
+    }
+
+    /**
+     * <p>
+     * Computes the stamp of the current build from the configuration, the profiles and the listing of the input
+     * directories. The classpath is part of the stamp through the configuration hash.
+     * </p>
+     *
+     * @param o the output directory, excluded from the listing
+     * @param scanner the scanner listing the input directories
+     * @return the stamp
+     * @throws IOException if a configuration file can't be read or a directory can't be walked
+     */
+    private String stamp(final String o, final DirectoryScanner scanner) throws IOException {
+        final List<File> excluded = Arrays.asList(new File(o).getAbsoluteFile(),
+                new File(buildDirectory(), MANIFEST).getParentFile().getAbsoluteFile());
+        return BuildManifest.stamp(configurationHash(), BuildManifest.hash(loadProfiles()), watchedDirectories(), excluded,
+                scanner);
+    }
+
+    /**
+     * <p>
+     * Creates the task processing the nuts.
+     * </p>
+     *
+     * @param classLoader the class loader
+     * @param profiles the active profiles
+     * @param o the directory where the task writes the nuts
+     * @param packageJar if the task packages the output as a JAR
+     * @return the task
+     * @throws IsolatedWuicTask.TaskException if the task can't be created
+     */
+    private IsolatedWuicTask createTask(final TaskClassLoader classLoader,
+                                        final String profiles,
+                                        final String o,
+                                        final boolean packageJar)
+            throws IsolatedWuicTask.TaskException {
+        return new IsolatedWuicTask(classLoader)
+                .set("xml", xml)
+                .set("contextPath", contextPath)
+                .set("properties", properties)
+                .set("profiles", profiles)
+                .set("output", o)
+                .set("moveToTopDirPattern", moveToTopDirPattern)
+                .set("baseDir", baseDir)
+                .set("path", path)
+                .set("taskName", taskName)
+                .set("useRegex", Boolean.parseBoolean(useRegex))
+                .set("packageAsJar", packageJar);
+    }
+
+    /**
+     * <p>
+     * Runs the task for the given profiles.
+     * </p>
+     *
+     * @param classLoader the class loader
+     * @param profiles the active profiles
+     * @param o the directory where the task writes the nuts
+     * @param packageJar if the task packages the output as a JAR
+     * @param relocationDirectory the directory where the XML is relocated, {@code null} if not relocated
+     * @return the relocated files, {@code null} if not relocated
+     * @throws IsolatedWuicTask.TaskException if the task fails
+     */
+    private List<String> runTask(final TaskClassLoader classLoader,
+                                 final String profiles,
+                                 final String o,
+                                 final boolean packageJar,
+                                 final File relocationDirectory)
+            throws IsolatedWuicTask.TaskException {
+        final IsolatedWuicTask task = createTask(classLoader, profiles, o, packageJar);
+
+        if (relocationDirectory == null) {
+            task.execute();
+            return null;
+        }
+
+        task.set("relocateTransformedXmlTo", relocationDirectory.toString());
+        return new ArrayList<String>(task.executeTask());
+    }
+
+    /**
+     * <p>
+     * Runs the task for the active profiles, or concurrently for each set of {@link #profileSets} in its own
+     * subdirectory of the output and of the relocation directory. The class loader, the scanned inputs and the
+     * manifest are shared by all the sets.
+     * </p>
+     *
+     * @param classLoader the class loader
+     * @param o the directory where the task writes the nuts
+     * @param packageJar if the task packages the output as a JAR
+     * @param relocationDirectory the directory where the XML is relocated, {@code null} if not relocated
+     * @param scheduler the scheduler running the sets concurrently, the slowest in the previous build first
+     * @return the relocated files relatively to the relocation directory, {@code null} if not relocated
+     * @throws IsolatedWuicTask.TaskException if the task fails
+     * @throws IOException if the task of a set fails
+     */
+    private List<String> runTasks(final TaskClassLoader classLoader,
+                                  final String o,
+                                  final boolean packageJar,
+                                  final File relocationDirectory,
+                                  final WorkScheduler scheduler)
+            throws IsolatedWuicTask.TaskException, IOException {
+        if (profileSets == null || profileSets.isEmpty()) {
+            return runTask(classLoader, loadProfiles(), o, packageJar, relocationDirectory);
+        }
+
+        final Map<String, String> sets = profileSets();
+        final Map<String, Callable<List<String>>> tasks = new LinkedHashMap<String, Callable<List<String>>>();
+
+        for (final Map.Entry<String, String> set : sets.entrySet()) {
+            tasks.put(PROFILE_SET_TASK_PREFIX + set.getKey(), new Callable<List<String>>() {
+                @Override
+                public List<String> call() throws IOException {
+                    final String name = set.getKey();
+                    getLog().info(String.format("Processing profiles '%s' to '%s'", set.getValue() == null ? "" : set.getValue(), name));
+
+                    final File relocation = relocationDirectory == null ? null : new File(relocationDirectory, name);
+
+                    if (relocation != null && !relocation.mkdirs()) {
+                        throw new IOException(String.format("Could not create directory '%s'", relocation));
+                    }
+
+                    try {
+                        final List<String> relocated = runTask(classLoader, set.getValue(), IOUtils.mergePath(o, name),
+                                packageJar, relocation);
+
+                        if (relocated == null) {
+                            return null;
+                        }
+
+                        final List<String> retval = new ArrayList<String>(relocated.size());
+
+                        for (final String r : relocated) {
+                            retval.add(name + '/' + r);
+                        }
+
+                        return retval;
+                    } catch (IsolatedWuicTask.TaskException te) {
+                        throw new IOException(String.format("Processing of profiles '%s' failed", set.getValue()), te.getCause());
+                    }
+                }
+            });
+        }
+
+        final List<List<String>> results = scheduler.invokeAll(tasks, null, 0L, null);
+
+        if (relocationDirectory == null) {
+            return null;
+        }
+
+        final List<String> retval = new ArrayList<String>();
+
+        for (final List<String> relocated : results) {
+            retval.addAll(relocated);
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Normalizes the {@link #profileSets}, associating each set to the name of its output directory.
+     * </p>
+     *
+     * @return the comma separated profiles of each set by directory name, {@code null} profiles for an empty set
+     * @throws IOException if two sets have the same directory name
+     */
+    private Map<String, String> profileSets() throws IOException {
+        final Map<String, String> retval = new LinkedHashMap<String, String>();
+
+        for (final String set : profileSets) {
+            final StringBuilder profiles = new StringBuilder();
+
+            for (final String profile : (set == null ? "" : set).split(",")) {
+                if (!profile.trim().isEmpty()) {
+                    profiles.append(',').append(profile.trim());
+                }
+            }
+
+            final String value = profiles.length() == 0 ? null : profiles.substring(1);
+            final String name = value == null ? DEFAULT_PROFILE_SET : value.replaceAll("[^A-Za-z0-9._-]+", "-");
+
+            if (retval.containsKey(name)) {
+                throw new IOException(String.format("Profile sets '%s' and '%s' have the same output directory '%s'",
+                        retval.get(name), value, name));
+            }
+
+            retval.put(name, value);
+        }
+
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute() throws MojoExecutionException {
+        final ParallelExecutor executor;
+
+        if (Boolean.TRUE.equals(virtualThreads)) {
+            executor = new ParallelExecutor(parallelism == null ? 0 : parallelism, true);
+
+            if (!executor.isVirtual()) {
+                getLog().info("Virtual threads are not supported by this JVM, using a pool of platform threads");
+            }
+        } else {
+            executor = new ParallelExecutor(parallelism == null || parallelism <= 0 ?
+                    Runtime.getRuntime().availableProcessors() : parallelism);
+        }
+
+        final BuildReport report = new BuildReport();
+
+        try {
+            process(executor, report);
+        } catch (IsolatedWuicTask.TaskException te) {
+            throw new MojoExecutionException(FAIL_MESSAGE, te.getCause());
+        } catch (IOException ioe) {
+            throw new MojoExecutionException(FAIL_MESSAGE, ioe);
+        } finally {
+            executor.shutdown();
+
+            if (Boolean.TRUE.equals(timingReport)) {
+                try {
+                    report.write(new File(project.getBuild().getDirectory(), REPORT));
+                    report.summary(getLog(), reportTopN == null ? DEFAULT_REPORT_TOP_N : reportTopN);
+                } catch (IOException ioe) {
+                    getLog().warn("Could not write the timing report", ioe);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Processes the nuts, reusing the previous outputs or the cache when possible.
+     * </p>
+     *
+     * @param executor the executor for concurrent tasks
+     * @param report the report collecting timings and volumes
+     * @throws IsolatedWuicTask.TaskException if the task fails
+     * @throws IOException if an I/O error occurs
+     */
+    private void process(final ParallelExecutor executor, final BuildReport report)
+            throws IsolatedWuicTask.TaskException, IOException {
+        final Build b = project.getBuild();
+        final String o = outputDirectory();
+        final File manifestFile = new File(b.getDirectory(), MANIFEST);
+        final BuildManifest previous = BuildManifest.read(manifestFile);
+        final String stamp;
+
+        // Shared by the up-to-date check and the fingerprint, so the input directories are listed once
+        final DirectoryScanner scanner = new DirectoryScanner(executor);
+        final File listing = new File(b.getDirectory(), LISTING);
+
+        if (Boolean.TRUE.equals(persistListing)) {
+            scanner.load(listing);
+        }
+
+        if (Boolean.TRUE.equals(incremental)) {
+            // Cheap check done before any class loading or hashing
+            final BuildReport.Stage stage = report.start("up-to-date check");
+            stamp = stamp(o, scanner);
+            stage.end();
+
+            if (previous.hasStamp(stamp) && outputsExist(previous, o)) {
+                getLog().info("Nothing changed since the previous build, reusing its outputs");
+                addPreviousRelocated(previous, null);
+                storeListing(scanner, listing);
+                return;
+            }
+        } else {
+            stamp = null;
+        }
+
+        final ResultCache cache = cacheDirectory == null ? null : new ResultCache(new File(cacheDirectory),
+                (cacheMaxSize == null ? DEFAULT_CACHE_MAX_SIZE : cacheMaxSize) * MEGABYTE);
+        final BuildManifest current;
+        BuildReport.Stage stage;
+
+        if (Boolean.TRUE.equals(incremental) || cache != null) {
+            stage = report.start("input fingerprint");
+            current = buildManifest(previous, scanner, executor, report);
+            storeListing(scanner, listing);
+            stage.end();
+
+            if (stamp != null) {
+                current.setStamp(stamp);
+            }
+
+            if (Boolean.TRUE.equals(incremental) && reuseUnchanged(previous, current, o)) {
+                current.write(manifestFile);
+                return;
+            }
+        } else {
+            current = null;
+        }
+
+        // Previous manifest is not valid anymore if the build fails
+        if (manifestFile.isFile() && !manifestFile.delete()) {
+            getLog().warn(String.format("Could not delete manifest '%s'", manifestFile.getAbsolutePath()));
+        }
+
+        // Linked duplicates would be written through to the file they are linked to
+        final File duplicatesFile = new File(b.getDirectory(), DUPLICATES);
+        Deduplicator.unlink(new File(o), duplicatesFile);
+
+        final File relocationStaging = relocateTransformedXml ? createRelocationDirectory() : null;
+
+        final long time = Boolean.TRUE.equals(reproducible) ? reproducibleTime() : -1L;
+
+        if (cache != null) {
+            final List<String> relocated = new ArrayList<String>();
+            final Map<String, String> snapshot = time >= 0 ? ResultCache.snapshot(new File(o)) : null;
+            stage = report.start("cache restore");
+            final List<String> restoredOutputs = new ArrayList<String>();
+            final boolean restored = cache.restore(current.key(), new File(o), restoredOutputs, relocationStaging, relocated);
+            stage.end();
+
+            if (restored) {
+                getLog().info(String.format("Outputs restored from cache '%s'", cacheDirectory));
+
+                if (snapshot != null) {
+                    touch(new File(o), ResultCache.written(new File(o), snapshot), time);
+                }
+
+                if (relocationStaging != null) {
+                    addRelocated(publishRelocated(relocationStaging, relocated).toString(), relocated, current);
+                }
+
+                for (final String restoredOutput : restoredOutputs) {
+                    current.putOutput(new File(o), restoredOutput);
+                }
+
+                current.write(manifestFile);
+                return;
+            }
+        }
+
+        final boolean compress = Boolean.TRUE.equals(precompress);
+        final boolean jar = Boolean.parseBoolean(packageAsJar);
+        final IntegrityManifest integrity = Boolean.TRUE.equals(integrityManifest) ? new IntegrityManifest() : null;
+
+        // Variants and integrity manifest can be added to the JAR only if the plugin packages it, reproducible JAR are
+        // built by the plugin too
+        final File staging = jar && (Boolean.TRUE.equals(streamJar) || compress || time >= 0 || integrity != null) ?
+                new File(b.getDirectory(), STAGING) : null;
+        final Map<String, String> before = ResultCache.snapshot(new File(o));
+
+        if (staging != null) {
+            delete(staging);
+        }
+
+        final File timingsFile = new File(b.getDirectory(), TIMINGS);
+        final WorkScheduler scheduler = new WorkScheduler(executor, WorkScheduler.load(timingsFile));
+        stage = report.start("class loader");
+        final TaskClassLoader classLoader = EngineRegistry.acquire(sessionStartTime, classpathUrls(), moduleDirectories());
+        final List<String> relocated;
+
+        try {
+            try {
+                final int contexts = EngineRegistry.awaitWarmUp(classLoader);
+
+                if (contexts != -1) {
+                    getLog().info(String.format("Using the engine prepared in background (%d JAXB contexts created)",
+                            contexts));
+                }
+            } catch (IOException ioe) {
+                getLog().warn("Engine warm-up failed, continuing without it", ioe);
+            }
+
+            stage.end();
+            stage = report.start("task");
+            relocated = runTasks(classLoader, staging == null ? o : staging.getAbsolutePath(),
+                    jar && staging == null, relocationStaging, scheduler);
+        } finally {
+            EngineRegistry.release(classLoader);
+        }
+        final File relocationDirectory;
+
+        if (relocationStaging != null) {
+            if (Boolean.TRUE.equals(staticIndex)) {
+                writeStaticIndexes(relocationStaging, staging == null ? new File(o) : staging, relocated);
+            }
+
+            relocationDirectory = publishRelocated(relocationStaging, relocated);
+            addRelocated(relocationDirectory.toString(), relocated, current);
+        } else {
+            relocationDirectory = null;
+        }
+
+        stage.end();
+
+        final File dir = staging == null ? new File(o) : staging;
+        final List<String> written = ResultCache.written(dir, staging == null ? before : null);
+        final File pages = resolve(htmlPages);
+
+        if (pages != null && pages.isDirectory()) {
+            stage = report.start("html rewrite");
+            written.addAll(rewritePages(pages, dir, written, executor, scheduler, integrity));
+            stage.end();
+        }
+
+        // Variants of the packaged nuts are added to the JAR without being written to the staging directory
+        final Map<String, SpillingOutputStream> packaged = new HashMap<String, SpillingOutputStream>();
+
+        // Spilled variants must not be written to the directory being published or packaged
+        final File spill = new File(b.getDirectory(), SPILL);
+
+        if (compress) {
+            stage = report.start("precompress");
+            delete(spill);
+
+            if (!spill.mkdirs()) {
+                throw new IOException(String.format("Could not create directory '%s'", spill.getAbsolutePath()));
+            }
+
+            final Precompressor precompressor = new Precompressor(Boolean.TRUE.equals(precompressDeflate),
+                    precompressMinSize == null ? DEFAULT_PRECOMPRESS_MIN_SIZE : precompressMinSize,
+                    precompressMinRatio == null ? DEFAULT_PRECOMPRESS_MIN_RATIO : precompressMinRatio,
+                    (int) ((spillThreshold == null ? DEFAULT_SPILL_THRESHOLD : spillThreshold) * MEGABYTE), spill);
+            final long budget = precompressTimeBudget == null ? 0L : precompressTimeBudget;
+            final List<String> variants = precompressor.compress(dir, written, scheduler, budget, integrity,
+                    staging == null ? null : packaged);
+            getLog().info(String.format("%d precompressed variants written", variants.size()));
+
+            for (final String name : scheduler.getExpired()) {
+                getLog().warn(String.format("'%s' exceeded the budget of %d ms, the nut is kept without precompressed variant",
+                        name.substring(Precompressor.TASK_PREFIX.length()), budget));
+            }
+            written.addAll(variants);
+            stage.end();
+        }
+
+        if (Boolean.TRUE.equals(deduplicate) && staging == null) {
+            stage = report.start("deduplicate");
+            final Deduplicator deduplicator = new Deduplicator(executor);
+            final Map<String, String> duplicates = deduplicator.deduplicate(dir, written);
+
+            if (!duplicates.isEmpty()) {
+                Deduplicator.write(duplicatesFile, duplicates);
+            }
+
+            if (deduplicator.getFailure() != null) {
+                getLog().warn("Could not link the duplicated outputs, the remaining ones are kept as copies",
+                        deduplicator.getFailure());
+            }
+
+            getLog().info(String.format("%d duplicated outputs linked, %d bytes saved",
+                    duplicates.size(), deduplicator.getSavedBytes()));
+            stage.end();
+        }
+
+        report.outputs(dir, written);
+        scheduler.store(timingsFile);
+
+        if (integrity != null && staging == null) {
+            stage = report.start("integrity");
+            completeIntegrity(integrity, dir, written, executor);
+            integrity.write(dir, written, new File(dir, IntegrityManifest.FILE_NAME));
+            written.add(IntegrityManifest.FILE_NAME);
+            stage.end();
+        }
+
+        if (Boolean.TRUE.equals(timingReport)) {
+            logSlowest(scheduler);
+        }
+
+        // Outputs of nuts that exceeded their budget are incomplete and must not be reused
+        final boolean complete = scheduler.getExpired().isEmpty();
+
+        if (staging != null) {
+            stage = report.start("package");
+            final JarPackager packager = new JarPackager(
+                    new File(o, jarName == null ? DEFAULT_JAR_NAME : jarName), time, integrity);
+
+            try {
+                packager.addDirectory(staging, packaged);
+
+                // The packager has recorded the digests while reading the files
+                if (integrity != null) {
+                    completeIntegrity(integrity, staging, written, executor);
+                    packager.add(IntegrityManifest.FILE_NAME, integrity.toJson(staging, written));
+                }
+            } finally {
+                IOUtils.close(packager);
+
+                for (final SpillingOutputStream variant : packaged.values()) {
+                    variant.discard();
+                }
+            }
+
+            delete(staging);
+            stage.end();
+        }
+
+        delete(spill);
+
+        // The packaged nuts are only available in the JAR
+        final List<String> outputs = staging == null ?
+                written : Collections.singletonList(jarName == null ? DEFAULT_JAR_NAME : jarName);
+
+        if (cache != null && complete) {
+            stage = report.start("cache store");
+            cache.store(current.key(), new File(o), outputs, relocationDirectory, relocated);
+            stage.end();
+        }
+
+        if (time >= 0 && staging == null) {
+            touch(dir, written, time);
+        }
+
+        if (current != null && complete) {
+            for (final String name : outputs) {
+                current.putOutput(new File(o), name);
+            }
+
+            current.write(manifestFile);
+        }
+    }
+
+    /**
+     * <p>
+     * Hashes the outputs whose digest has not been recorded while they were read or written.
+     * </p>
+     *
+     * @param integrity the integrity manifest
+     * @param dir the output directory
+     * @param written the paths of the outputs relatively to the output directory
+     * @param executor the executor hashing the outputs concurrently
+     * @throws IOException if an output can't be read
+     */
+    private void completeIntegrity(final IntegrityManifest integrity,
+                                   final File dir,
+                                   final List<String> written,
+                                   final ParallelExecutor executor)
+            throws IOException {
+        final int hashed = integrity.complete(dir, written, executor);
+        getLog().info(String.format("Integrity of %d outputs recorded, %d of them read again to be hashed",
+                written.size(), hashed));
+    }
+
+    /**
+     * <p>
+     * Rewrites the pages of the given directory to the output directory, or to each profile set directory, so they
+     * reference the versioned URLs of the processed nuts.
+     * </p>
+     *
+     * @param pages the directory of the pages
+     * @param dir the output directory
+     * @param written the paths of the processed nuts relatively to the output directory
+     * @param executor the executor listing the pages
+     * @param scheduler the scheduler rewriting the pages concurrently
+     * @param integrity the manifest recording the digests of the rewritten pages, {@code null} if not recorded
+     * @return the paths of the rewritten pages relatively to the output directory
+     * @throws IOException if a page can't be rewritten
+     */
+    private List<String> rewritePages(final File pages,
+                                      final File dir,
+                                      final List<String> written,
+                                      final ParallelExecutor executor,
+                                      final WorkScheduler scheduler,
+                                      final IntegrityManifest integrity)
+            throws IOException {
+        final List<String> paths = new DirectoryScanner(executor).scan(pages, Arrays.asList(Pattern.compile(HTML_PAGE)));
+        final List<String> retval = new ArrayList<String>();
+        final Set<String> roots = profileSets == null || profileSets.isEmpty() ?
+                Collections.singleton("") : profileSets().keySet();
+
+        for (final String root : roots) {
+            final String prefix = root.isEmpty() ? "" : root + '/';
+            final List<String> nuts = new ArrayList<String>();
+
+            for (final String w : written) {
+                if (w.startsWith(prefix)) {
+                    nuts.add(w.substring(prefix.length()));
+                }
+            }
+
+            final HtmlRewriter rewriter = new HtmlRewriter(HtmlRewriter.versionedUrls(contextPath, nuts), htmlPagesCharset);
+            final int count = rewriter.rewrite(pages, paths, new File(dir, root), scheduler, integrity);
+            getLog().info(String.format("%d references rewritten in %d pages%s", count, paths.size(),
+                    root.isEmpty() ? "" : String.format(" of profile set '%s'", root)));
+
+            for (final String page : paths) {
+                retval.add(prefix + page);
+            }
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Logs the slowest tasks run by the given scheduler.
+     * </p>
+     *
+     * @param scheduler the scheduler
+     */
+    private void logSlowest(final WorkScheduler scheduler) {
+        final List<Map.Entry<String, Long>> slowest = scheduler.slowest(reportTopN == null ? DEFAULT_REPORT_TOP_N : reportTopN);
+
+        if (slowest.isEmpty()) {
+            return;
+        }
+
+        getLog().info("Slowest tasks:");
+
+        for (final Map.Entry<String, Long> entry : slowest) {
+            getLog().info(String.format("  %-50s %10.1f ms", entry.getKey(), entry.getValue() / NANOS_PER_MILLI));
+        }
+    }
+
+    /**
+     * <p>
+     * Sets the modification time of the given files.
+     * </p>
+     *
+     * @param dir the directory containing the files
+     * @param paths the paths relative to the directory
+     * @param time the modification time
+     */
+    private void touch(final File dir, final Collection<String> paths, final long time) {
+        for (final String path : paths) {
+            if (!new File(dir, path).setLastModified(time)) {
+                getLog().warn(String.format("Could not set the modification time of '%s'", path));
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Gets the time of the reproducible outputs from {@link #outputTimestamp}, either a number of seconds since epoch or
+     * an ISO 8601 date time.
+     * </p>
+     *
+     * @return the time in milliseconds since epoch
+     * @throws IOException if the timestamp can't be parsed
+     */
+    private long reproducibleTime() throws IOException {
+        if (outputTimestamp == null || outputTimestamp.trim().isEmpty()) {
+            return DEFAULT_REPRODUCIBLE_TIME;
+        }
+
+        final String value = outputTimestamp.trim();
+
+        if (value.matches("\\d+")) {
+            return Long.parseLong(value) * SECOND;
+        }
+
+        try {
+            final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX", Locale.ENGLISH);
+            format.setLenient(false);
+            return format.parse(value).getTime();
+        } catch (ParseException pe) {
+            throw new IOException(String.format("Invalid output timestamp '%s'", value), pe);
+        }
+    }
+
+    /**
+     * <p>
+     * Sets the "xml" configuration parameter.
+     * </p>
+     *
+     * @param x the parameter
+     */
+    public void setXml(final String x) {
+        xml = x;
+    }
+
+    /**
+     * <p>
+     * Sets the "properties" configuration parameter.
+     * </p>
+     *
+     * @param properties the properties
+     */
+    public void setProperties(final String properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * <p>
+     * Sets the relocate transformed XML flag.
+     * </p>
+     *
+     * @param relocateTransformedXml the new flag
+     */
+    public void setRelocateTransformedXml(final Boolean relocateTransformedXml) {
+        this.relocateTransformedXml = relocateTransformedXml;
+    }
+
+    /**
+     * <p>
+     * Sets the package as JAR flag.
+     * </p>
+     *
+     * @param packageAsJar the new flag
+     */
+    public void setPackageAsJar(final Boolean packageAsJar) {
+        this.packageAsJar = String.valueOf(packageAsJar);
+    }
+
+    /**
+     * <p>
+     * Sets the stream JAR flag.
+     * </p>
+     *
+     * @param streamJar the new flag
+     */
+    public void setStreamJar(final Boolean streamJar) {
+        this.streamJar = streamJar;
+    }
+
+    /**
+     * <p>
+     * Sets the precompress flag.
+     * </p>
+     *
+     * @param precompress the new flag
+     */
+    public void setPrecompress(final Boolean precompress) {
+        this.precompress = precompress;
+    }
+
+    /**
+     * <p>
+     * Sets the precompress deflate flag.
+     * </p>
+     *
+     * @param precompressDeflate the new flag
+     */
+    public void setPrecompressDeflate(final Boolean precompressDeflate) {
+        this.precompressDeflate = precompressDeflate;
+    }
+
+    /**
+     * <p>
+     * Sets the incremental flag.
+     * </p>
+     *
+     * @param incremental the new flag
+     */
+    public void setIncremental(final Boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * <p>
+     * Sets the cache directory.
+     * </p>
+     *
+     * @param cacheDirectory the cache directory
+     */
+    public void setCacheDirectory(final String cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * <p>
+     * Sets the maximum size of the cache in megabytes.
+     * </p>
+     *
+     * @param cacheMaxSize the maximum size
+     */
+    public void setCacheMaxSize(final Integer cacheMaxSize) {
+        this.cacheMaxSize = cacheMaxSize;
+    }
+
+    /**
+     * <p>
+     * Sets the spill threshold.
+     * </p>
+     *
+     * @param spillThreshold the threshold in megabytes
+     */
+    public void setSpillThreshold(final Integer spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+
+    /**
+     * <p>
+     * Sets the maximum number of threads.
+     * </p>
+     *
+     * @param parallelism the parallelism
+     */
+    public void setParallelism(final Integer parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * <p>
+     * Sets the reproducible flag.
+     * </p>
+     *
+     * @param reproducible the new flag
+     */
+    public void setReproducible(final Boolean reproducible) {
+        this.reproducible = reproducible;
+    }
+
+    /**
+     * <p>
+     * Sets the output timestamp.
+     * </p>
+     *
+     * @param outputTimestamp the timestamp
+     */
+    public void setOutputTimestamp(final String outputTimestamp) {
+        this.outputTimestamp = outputTimestamp;
+    }
+
+    /**
+     * <p>
+     * Sets the static index flag.
+     * </p>
+     *
+     * @param staticIndex the new flag
+     */
+    public void setStaticIndex(final Boolean staticIndex) {
+        this.staticIndex = staticIndex;
+    }
+
+    /**
+     * <p>
+     * Sets the profile sets.
+     * </p>
+     *
+     * @param profileSets the profile sets
+     */
+    public void setProfileSets(final List<String> profileSets) {
+        this.profileSets = profileSets;
+    }
+
+    /**
+     * <p>
+     * Sets the deduplicate flag.
+     * </p>
+     *
+     * @param deduplicate the new flag
+     */
+    public void setDeduplicate(final Boolean deduplicate) {
+        this.deduplicate = deduplicate;
+    }
+
+    /**
+     * <p>
+     * Sets the persist listing flag.
+     * </p>
+     *
+     * @param persistListing the new flag
+     */
+    public void setPersistListing(final Boolean persistListing) {
+        this.persistListing = persistListing;
+    }
+
+    /**
+     * <p>
+     * Sets the directory of the HTML pages to rewrite.
+     * </p>
+     *
+     * @param htmlPages the directory
+     */
+    public void setHtmlPages(final String htmlPages) {
+        this.htmlPages = htmlPages;
+    }
+
+    /**
+     * <p>
+     * Sets the charset of the HTML pages not declaring their charset.
+     * </p>
+     *
+     * @param htmlPagesCharset the charset
+     */
+    public void setHtmlPagesCharset(final String htmlPagesCharset) {
+        this.htmlPagesCharset = htmlPagesCharset;
+    }
+
+    /**
+     * <p>
+     * Sets the virtual threads flag.
+     * </p>
+     *
+     * @param virtualThreads the new flag
+     */
+    public void setVirtualThreads(final Boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * <p>
+     * Sets the maximum duration of the precompression of a nut.
+     * </p>
+     *
+     * @param precompressTimeBudget the duration in milliseconds
+     */
+    public void setPrecompressTimeBudget(final Integer precompressTimeBudget) {
+        this.precompressTimeBudget = precompressTimeBudget;
+    }
+
+    /**
+     * <p>
+     * Sets the integrity manifest flag.
+     * </p>
+     *
+     * @param integrityManifest the new flag
+     */
+    public void setIntegrityManifest(final Boolean integrityManifest) {
+        this.integrityManifest = integrityManifest;
+    }
+
+    /**
+     * <p>
+     * Sets the timing report flag.
+     * </p>
+     *
+     * @param timingReport the new flag
+     */
+    public void setTimingReport(final Boolean timingReport) {
+        this.timingReport = timingReport;
     }
 
     /**
@@ -0,0 +1,494 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import com.github.wuic.util.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>
+ * A compact binary index of the 'wuic-static' metadata written by the static processing. Each line of the text file
+ * of a workflow becomes an entry whose key is the workflow ID followed by '/' and the nut path, i.e. the first token of
+ * the line. Entries are sorted by the UTF-8 bytes of their key so a lookup is a binary search, and each entry records
+ * the SHA-1 of the processed nut content when the nut has been found in the output.
+ * </p>
+ *
+ * <p>
+ * The index is laid out as follows, all integers being big endian:
+ * </p>
+ *
+ * <ul>
+ *     <li>header: magic number, format version, number of entries and offset of the string pool (4 integers)</li>
+ *     <li>entry table: key offset, key length, value offset and value length (4 integers) and the 20 bytes of the hash,
+ *     offsets being relative to the string pool</li>
+ *     <li>string pool: UTF-8 bytes of the keys and of the lines of the text files</li>
+ * </ul>
+ *
+ * <p>
+ * Once opened, the file is memory-mapped and lookups with {@link #find(byte[])} don't allocate anything.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public final class StaticIndex implements Closeable {
+
+    /**
+     * Name of the index file, written next to the 'wuic-static' directory.
+     */
+    public static final String FILE_NAME = "wuic-static.idx";
+
+    /**
+     * Name of the metadata directory.
+     */
+    public static final String METADATA_DIRECTORY = "wuic-static";
+
+    /**
+     * Magic number at the beginning of the file ('WSIX').
+     */
+    private static final int MAGIC = 0x57534958;
+
+    /**
+     * Version of the format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Size of the header in bytes.
+     */
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * Size of the hash in bytes.
+     */
+    private static final int HASH_SIZE = 20;
+
+    /**
+     * Size of an entry of the table in bytes.
+     */
+    private static final int ENTRY_SIZE = 16 + HASH_SIZE;
+
+    /**
+     * Charset of the strings.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * <p>
+     * An entry read from the text files.
+     * </p>
+     *
+     * @author Guillaume DROUET
+     * @since 0.5.3
+     */
+    private static final class Entry {
+
+        /**
+         * The key.
+         */
+        private final byte[] key;
+
+        /**
+         * The line.
+         */
+        private final byte[] value;
+
+        /**
+         * The hash.
+         */
+        private final byte[] hash;
+
+        /**
+         * <p>
+         * Builds a new instance.
+         * </p>
+         *
+         * @param key the key
+         * @param value the line
+         * @param hash the hash
+         */
+        private Entry(final byte[] key, final byte[] value, final byte[] hash) {
+            this.key = key;
+            this.value = value;
+            this.hash = hash;
+        }
+    }
+
+    /**
+     * The file channel.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The mapped content.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Number of entries.
+     */
+    private final int size;
+
+    /**
+     * Offset of the string pool.
+     */
+    private final int pool;
+
+    /**
+     * <p>
+     * Opens the given index.
+     * </p>
+     *
+     * @param file the index file
+     * @throws IOException if the file can't be mapped or is not an index
+     */
+    public StaticIndex(final File file) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        channel = randomAccessFile.getChannel();
+
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException(String.format("'%s' is not a static index", file.getAbsolutePath()));
+            }
+
+            size = buffer.getInt(8);
+            pool = buffer.getInt(12);
+        } catch (IOException ioe) {
+            IOUtils.close(randomAccessFile);
+            throw ioe;
+        }
+    }
+
+    /**
+     * <p>
+     * Gets the number of entries.
+     * </p>
+     *
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * <p>
+     * Finds the entry of the given nut.
+     * </p>
+     *
+     * @param workflowId the workflow ID
+     * @param path the nut path
+     * @return the index of the entry, -1 if not found
+     */
+    public int find(final String workflowId, final String path) {
+        return find((workflowId + '/' + path).getBytes(UTF_8));
+    }
+
+    /**
+     * <p>
+     * Finds the entry with the given key by binary search over the mapped table.
+     * </p>
+     *
+     * @param key the UTF-8 bytes of the workflow ID followed by '/' and the nut path
+     * @return the index of the entry, -1 if not found
+     */
+    public int find(final byte[] key) {
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int entry = HEADER_SIZE + middle * ENTRY_SIZE;
+            final int cmp = compare(pool + buffer.getInt(entry), buffer.getInt(entry + 4), key);
+
+            if (cmp < 0) {
+                low = middle + 1;
+            } else if (cmp > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * <p>
+     * Gets the key of the given entry.
+     * </p>
+     *
+     * @param index the entry index
+     * @return the key
+     */
+    public String key(final int index) {
+        final int entry = HEADER_SIZE + index * ENTRY_SIZE;
+        return string(buffer.getInt(entry), buffer.getInt(entry + 4));
+    }
+
+    /**
+     * <p>
+     * Gets the line of the text file of the given entry.
+     * </p>
+     *
+     * @param index the entry index
+     * @return the line
+     */
+    public String value(final int index) {
+        final int entry = HEADER_SIZE + index * ENTRY_SIZE;
+        return string(buffer.getInt(entry + 8), buffer.getInt(entry + 12));
+    }
+
+    /**
+     * <p>
+     * Gets the hash of the content of the given entry.
+     * </p>
+     *
+     * @param index the entry index
+     * @return the SHA-1 in hexadecimal, {@code null} if the nut was not found in the output
+     */
+    public String hash(final int index) {
+        final byte[] hash = new byte[HASH_SIZE];
+        final ByteBuffer b = buffer.duplicate();
+        b.position(HEADER_SIZE + index * ENTRY_SIZE + 16);
+        b.get(hash);
+        return Arrays.equals(hash, new byte[HASH_SIZE]) ? null : BuildManifest.toHex(hash);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * <p>
+     * Writes the index of the text files found in the given metadata directory.
+     * </p>
+     *
+     * @param metadataDirectory the 'wuic-static' directory containing one text file per workflow
+     * @param output the directory containing the processed nuts of each workflow
+     * @param index the index file
+     * @return the number of entries
+     * @throws IOException if a file can't be read or the index can't be written
+     */
+    public static int write(final File metadataDirectory, final File output, final File index) throws IOException {
+        final List<Entry> entries = new ArrayList<Entry>();
+        final File[] files = metadataDirectory.listFiles();
+
+        if (files != null) {
+            for (final File file : files) {
+                if (file.isFile()) {
+                    read(file, new File(output, file.getName()), entries);
+                }
+            }
+        }
+
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(final Entry e1, final Entry e2) {
+                return compareBytes(e1.key, e2.key);
+            }
+        });
+
+        DataOutputStream dos = null;
+
+        try {
+            dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index)));
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(entries.size());
+            dos.writeInt(HEADER_SIZE + entries.size() * ENTRY_SIZE);
+            int offset = 0;
+
+            for (final Entry entry : entries) {
+                dos.writeInt(offset);
+                dos.writeInt(entry.key.length);
+                dos.writeInt(offset + entry.key.length);
+                dos.writeInt(entry.value.length);
+                dos.write(entry.hash);
+                offset += entry.key.length + entry.value.length;
+            }
+
+            for (final Entry entry : entries) {
+                dos.write(entry.key);
+                dos.write(entry.value);
+            }
+        } finally {
+            IOUtils.close(dos);
+        }
+
+        return entries.size();
+    }
+
+    /**
+     * <p>
+     * Reads the entries of the text file of a workflow.
+     * </p>
+     *
+     * @param file the text file
+     * @param output the directory containing the processed nuts of the workflow
+     * @param entries where entries are added
+     * @throws IOException if a file can't be read
+     */
+    private static void read(final File file, final File output, final List<Entry> entries) throws IOException {
+        BufferedReader reader = null;
+
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                final String trimmed = line.trim();
+
+                if (trimmed.isEmpty()) {
+                    continue;
+                }
+
+                final String path = trimmed.split("\\s", 2)[0];
+                entries.add(new Entry((file.getName() + '/' + path).getBytes(UTF_8), line.getBytes(UTF_8),
+                        hash(new File(output, path))));
+            }
+        } finally {
+            IOUtils.close(reader);
+        }
+    }
+
+    /**
+     * <p>
+     * Computes the SHA-1 of the given file.
+     * </p>
+     *
+     * @param file the file
+     * @return the hash, zeros if the file does not exist
+     * @throws IOException if the file can't be read
+     */
+    private static byte[] hash(final File file) throws IOException {
+        if (!file.isFile()) {
+            return new byte[HASH_SIZE];
+        }
+
+        final MessageDigest md = BuildManifest.newMessageDigest();
+        final byte[] buffer = new byte[ResultCache.BUFFER_SIZE];
+        InputStream is = null;
+
+        try {
+            is = new FileInputStream(file);
+            int offset;
+
+            while ((offset = is.read(buffer)) != -1) {
+                md.update(buffer, 0, offset);
+            }
+        } finally {
+            IOUtils.close(is);
+        }
+
+        return md.digest();
+    }
+
+    /**
+     * <p>
+     * Compares a key of the string pool with the given bytes.
+     * </p>
+     *
+     * @param offset the absolute offset of the key
+     * @param length the length of the key
+     * @param key the bytes
+     * @return a negative, zero or positive integer as the key is lower, equal or greater than the bytes
+     */
+    private int compare(final int offset, final int length, final byte[] key) {
+        final int min = Math.min(length, key.length);
+
+        for (int i = 0; i < min; i++) {
+            final int cmp = (buffer.get(offset + i) & 0xFF) - (key[i] & 0xFF);
+
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+
+        return length - key.length;
+    }
+
+    /**
+     * <p>
+     * Compares two byte arrays as unsigned bytes.
+     * </p>
+     *
+     * @param b1 the first array
+     * @param b2 the second array
+     * @return a negative, zero or positive integer as the first array is lower, equal or greater than the second one
+     */
+    private static int compareBytes(final byte[] b1, final byte[] b2) {
+        final int min = Math.min(b1.length, b2.length);
+
+        for (int i = 0; i < min; i++) {
+            final int cmp = (b1[i] & 0xFF) - (b2[i] & 0xFF);
+
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+
+        return b1.length - b2.length;
+    }
+
+    /**
+     * <p>
+     * Decodes a string of the pool.
+     * </p>
+     *
+     * @param offset the offset relative to the pool
+     * @param length the length
+     * @return the string
+     */
+    private String string(final int offset, final int length) {
+        final byte[] bytes = new byte[length];
+        final ByteBuffer b = buffer.duplicate();
+        b.position(pool + offset);
+        b.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
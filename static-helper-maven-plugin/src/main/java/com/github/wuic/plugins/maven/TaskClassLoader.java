@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import com.github.wuic.util.IOUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * <p>
+ * An isolated class loader exposing the project's resources and dependencies to WUIC. The classes of the plugin are
+ * loaded again by this class loader, so WUIC can resolve nuts from the project whatever the class loader it uses for
+ * lookups, without modifying the system class loader.
+ * </p>
+ *
+ * <p>
+ * Classes and resources are searched in this class loader first, except for the JDK, XML APIs and logging that are
+ * always delegated to the parent in order to share them with Maven.
+ * </p>
+ *
+ * <p>
+ * The URLs given at creation (plugin and dependency archives) can be shared by several modules. The directories of a
+ * module are not part of these URLs: they are attached with {@link #enter(List)} while the module is processed and
+ * searched first for resources. This way a single instance, with all its loaded classes and their static state already
+ * initialized, serves all the modules of a reactor with the same dependencies.
+ * </p>
+ *
+ * <p>
+ * The 'jaxb.properties' of the WUIC packages declare the {@link CachingJaxbContextFactory} when the archives don't
+ * provide them, so the JAXB contexts created by WUIC are created once per instance.
+ * </p>
+ *
+ * <p>
+ * An instance is used by a single module at a time, see {@link EngineRegistry#acquire(Object, List, List)}: modules
+ * with the same dependencies processed concurrently get distinct instances. The directories of the module are thus
+ * searched by any thread, including the threads of the pools created by WUIC that outlive a processing, and no
+ * directory is searched once the module has exited.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public final class TaskClassLoader extends URLClassLoader {
+
+    /**
+     * Extension of class files.
+     */
+    private static final String CLASS_EXTENSION = ".class";
+
+    /**
+     * Type descriptor of the {@code XmlRootElement} annotation in the constant pool of an annotated class.
+     */
+    private static final byte[] XML_ROOT_ELEMENT_DESCRIPTOR;
+
+    /**
+     * Size of the buffer reading class files.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Packages always loaded by the parent.
+     */
+    private static final String[] PARENT_FIRST = {
+        "java.", "javax.", "sun.", "com.sun.", "org.xml.", "org.w3c.", "org.slf4j.", "org.apache.maven.",
+    };
+
+    /**
+     * Prefix of the resources of the WUIC packages.
+     */
+    private static final String WUIC_RESOURCE_PREFIX = "com/github/wuic/";
+
+    /**
+     * Name of the file declaring the JAXB context factory of a package.
+     */
+    private static final String JAXB_PROPERTIES = "/jaxb.properties";
+
+    /**
+     * Resource of the plugin declaring the {@link CachingJaxbContextFactory}.
+     */
+    private static final String CACHING_JAXB_PROPERTIES = "wuic-static-helper/jaxb.properties";
+
+    /**
+     * The directories of the module using this class loader, empty if none.
+     */
+    private volatile List<File> directories;
+
+    static {
+        registerAsParallelCapable();
+
+        try {
+            XML_ROOT_ELEMENT_DESCRIPTOR = "Ljavax/xml/bind/annotation/XmlRootElement;".getBytes("UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            // Every JVM must support UTF-8
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    /**
+     * <p>
+     * Builds a new instance exposing the given URLs in addition to the URLs of the class loader of the plugin.
+     * </p>
+     *
+     * @param urls the URLs of the dependencies
+     */
+    TaskClassLoader(final List<URL> urls) {
+        super(urls(urls), TaskClassLoader.class.getClassLoader());
+        directories = Collections.emptyList();
+    }
+
+    /**
+     * <p>
+     * Adds the URLs of the plugin's class loader to the given URLs.
+     * </p>
+     *
+     * @param urls the URLs
+     * @return all the URLs
+     */
+    private static URL[] urls(final List<URL> urls) {
+        final ClassLoader plugin = TaskClassLoader.class.getClassLoader();
+        final List<URL> retval = new ArrayList<URL>(urls);
+
+        // Plugin's classes are loaded again only if their location is known
+        if (plugin instanceof URLClassLoader) {
+            retval.addAll(Arrays.asList(URLClassLoader.class.cast(plugin).getURLs()));
+        }
+
+        return retval.toArray(new URL[retval.size()]);
+    }
+
+    /**
+     * <p>
+     * Attaches the directories of the module using this class loader. Resources are searched in these directories
+     * first until {@link #exit()} is called.
+     * </p>
+     *
+     * @param dirs the directories
+     */
+    void enter(final List<File> dirs) {
+        directories = Collections.unmodifiableList(new ArrayList<File>(dirs));
+    }
+
+    /**
+     * <p>
+     * Detaches the directories of the module using this class loader.
+     * </p>
+     */
+    void exit() {
+        directories = Collections.emptyList();
+    }
+
+    /**
+     * <p>
+     * Finds the classes of the given package and its sub packages, in the archives of this class loader, whose byte
+     * code references the {@code XmlRootElement} annotation. The class files are scanned without loading the classes,
+     * so the result may contain classes only referencing the annotation.
+     * </p>
+     *
+     * @param packageName the package name
+     * @return the names of the classes
+     */
+    public List<String> xmlRootElements(final String packageName) {
+        final String prefix = packageName.replace('.', '/') + '/';
+        final List<String> retval = new ArrayList<String>();
+
+        for (final URL url : getURLs()) {
+            if (!"file".equals(url.getProtocol()) || !url.getPath().endsWith(".jar")) {
+                continue;
+            }
+
+            JarFile jarFile = null;
+
+            try {
+                jarFile = new JarFile(new File(url.toURI()));
+
+                for (final Enumeration<JarEntry> entries = jarFile.entries(); entries.hasMoreElements();) {
+                    final JarEntry entry = entries.nextElement();
+                    final String name = entry.getName();
+
+                    if (name.startsWith(prefix) && name.endsWith(CLASS_EXTENSION) && name.indexOf('-') == -1
+                            && references(jarFile, entry, XML_ROOT_ELEMENT_DESCRIPTOR)) {
+                        retval.add(name.substring(0, name.length() - CLASS_EXTENSION.length()).replace('/', '.'));
+                    }
+                }
+            } catch (IOException ioe) {
+                // The archive will be read again when needed
+            } catch (URISyntaxException use) {
+                // Not expected for an URL built from a file
+            } finally {
+                IOUtils.close(jarFile);
+            }
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Indicates if the given entry contains the given bytes.
+     * </p>
+     *
+     * @param jarFile the archive
+     * @param entry the entry
+     * @param bytes the bytes
+     * @return {@code true} if the bytes are found, {@code false} otherwise
+     * @throws IOException if the entry can't be read
+     */
+    private static boolean references(final JarFile jarFile, final JarEntry entry, final byte[] bytes) throws IOException {
+        final InputStream is = jarFile.getInputStream(entry);
+
+        try {
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+
+            while ((n = is.read(buffer)) != -1) {
+                content.write(buffer, 0, n);
+            }
+
+            final byte[] b = content.toByteArray();
+
+            for (int i = 0; i <= b.length - bytes.length; i++) {
+                int j = 0;
+
+                while (j < bytes.length && b[i + j] == bytes[j]) {
+                    j++;
+                }
+
+                if (j == bytes.length) {
+                    return true;
+                }
+            }
+
+            return false;
+        } finally {
+            IOUtils.close(is);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+        for (final String prefix : PARENT_FIRST) {
+            if (name.startsWith(prefix)) {
+                return super.loadClass(name, resolve);
+            }
+        }
+
+        // Registered as parallel capable: classes with different names are loaded concurrently
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> retval = findLoadedClass(name);
+
+            if (retval == null) {
+                try {
+                    retval = findClass(name);
+                } catch (ClassNotFoundException cnfe) {
+                    retval = getParent().loadClass(name);
+                }
+            }
+
+            if (resolve) {
+                resolveClass(retval);
+            }
+
+            return retval;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public URL findResource(final String name) {
+        for (final File dir : directories) {
+            final File file = new File(dir, name);
+
+            if (file.exists()) {
+                try {
+                    return file.toURI().toURL();
+                } catch (MalformedURLException mue) {
+                    // Not expected for an existing file, continue with the next locations
+                }
+            }
+        }
+
+        final URL retval = super.findResource(name);
+
+        if (retval == null && name.startsWith(WUIC_RESOURCE_PREFIX) && name.endsWith(JAXB_PROPERTIES)) {
+            return getParent().getResource(CACHING_JAXB_PROPERTIES);
+        }
+
+        return retval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Enumeration<URL> findResources(final String name) throws IOException {
+        final List<URL> retval = new ArrayList<URL>();
+
+        for (final File dir : directories) {
+            final File file = new File(dir, name);
+
+            if (file.exists()) {
+                retval.add(file.toURI().toURL());
+            }
+        }
+
+        retval.addAll(Collections.list(super.findResources(name)));
+        return Collections.enumeration(retval);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public URL getResource(final String name) {
+        final URL retval = findResource(name);
+        return retval == null ? super.getResource(name) : retval;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import com.github.wuic.util.IOUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * <p>
+ * This MOJO processes the nuts like the {@link StaticHelperMojo} and then watches the directories where they are
+ * located. Each time a change is detected, the workflows are processed again into the output directory. Only the
+ * workflows with changed inputs trigger a new processing and the engine stays warm between two changes. The goal
+ * runs until the build is interrupted.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+@Mojo(name = "watch", requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
+public class WatchMojo extends StaticHelperMojo {
+
+    /**
+     * Default debounce delay in milliseconds.
+     */
+    private static final int DEFAULT_DEBOUNCE = 300;
+
+    /**
+     * Delay in milliseconds without any change before processing the nuts again.
+     */
+    @Parameter(defaultValue = "300")
+    private Integer debounce;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void execute() throws MojoExecutionException {
+        // Skipping unchanged workflows is the point of watching
+        setIncremental(Boolean.TRUE);
+        super.execute();
+
+        DirectoryWatcher watcher = null;
+
+        try {
+            final List<File> directories = watchedDirectories();
+            watcher = new DirectoryWatcher(directories, buildDirectory());
+            getLog().info(String.format("Watching %s, press Ctrl+C to stop", directories));
+
+            while (!Thread.currentThread().isInterrupted()) {
+                watcher.await(debounce == null ? DEFAULT_DEBOUNCE : debounce);
+
+                try {
+                    super.execute();
+                } catch (MojoExecutionException mee) {
+                    // Keep watching, the error is probably fixed by the next change
+                    getLog().error(mee.getMessage(), mee.getCause());
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ioe) {
+            throw new MojoExecutionException("Unable to watch the directories", ioe);
+        } finally {
+            IOUtils.close(watcher);
+        }
+    }
+
+    /**
+     * <p>
+     * Sets the debounce delay.
+     * </p>
+     *
+     * @param debounce the delay in milliseconds
+     */
+    public void setDebounce(final Integer debounce) {
+        this.debounce = debounce;
+    }
+}
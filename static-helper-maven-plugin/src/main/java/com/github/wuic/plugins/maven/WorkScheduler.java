@@ -0,0 +1,462 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import com.github.wuic.util.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * Runs named tasks with a {@link ParallelExecutor}, starting the most expensive ones first so a long task does not
+ * end the build alone. The cost of a task is its duration in the previous build when known, otherwise it is estimated
+ * from the size of its input and the average throughput of the previous build. Durations are recorded so they can be
+ * persisted for the next build and the slowest tasks can be reported. Persisted durations are keyed by the task name
+ * without its numeric path segments, so a task keeps its duration when the version of its nut changes.
+ * </p>
+ *
+ * <p>
+ * A time budget can be given to a group of tasks. A task exceeding its budget is interrupted and replaced by a
+ * fallback result, or fails if there is no fallback. Tasks must check the interrupted status of their thread to be
+ * stopped.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public class WorkScheduler {
+
+    /**
+     * <p>
+     * Interrupts the thread of a task when its budget is exceeded, unless the task is already done.
+     * </p>
+     *
+     * @author Guillaume DROUET
+     * @since 0.5.3
+     */
+    private static final class Alarm implements Runnable {
+
+        /**
+         * The thread running the task.
+         */
+        private final Thread thread;
+
+        /**
+         * If the budget has been exceeded.
+         */
+        private boolean fired;
+
+        /**
+         * If the task is done.
+         */
+        private boolean disarmed;
+
+        /**
+         * <p>
+         * Builds a new alarm for the current thread.
+         * </p>
+         */
+        private Alarm() {
+            thread = Thread.currentThread();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public synchronized void run() {
+            if (!disarmed) {
+                fired = true;
+                thread.interrupt();
+            }
+        }
+
+        /**
+         * <p>
+         * Disarms this alarm. The interrupted status set by the alarm is cleared.
+         * </p>
+         *
+         * @return {@code true} if the alarm has been fired, {@code false} otherwise
+         */
+        private synchronized boolean disarm() {
+            disarmed = true;
+
+            if (fired) {
+                Thread.interrupted();
+            }
+
+            return fired;
+        }
+    }
+
+    /**
+     * Estimated cost in nanoseconds of a byte when no task has been measured.
+     */
+    private static final long DEFAULT_NANOS_PER_BYTE = 1L;
+
+    /**
+     * The numeric path segments, like the versions of the nuts, removed from the persisted task names.
+     */
+    private static final Pattern NUMERIC_SEGMENT = Pattern.compile("/\\d+(?=/)");
+
+    /**
+     * The executor.
+     */
+    private final ParallelExecutor executor;
+
+    /**
+     * The durations in nanoseconds of the previous build by task name without its numeric path segments.
+     */
+    private final Map<String, Long> previous;
+
+    /**
+     * The durations in nanoseconds of this build by task name.
+     */
+    private final Map<String, Long> durations;
+
+    /**
+     * The names of the tasks that exceeded their budget.
+     */
+    private final List<String> expired;
+
+    /**
+     * <p>
+     * Builds a new instance.
+     * </p>
+     *
+     * @param executor the executor
+     * @param previous the durations in nanoseconds of the previous build by task name, as read by {@link #load(File)}
+     */
+    public WorkScheduler(final ParallelExecutor executor, final Map<String, Long> previous) {
+        this.executor = executor;
+        this.previous = new HashMap<String, Long>();
+
+        for (final Map.Entry<String, Long> entry : previous.entrySet()) {
+            this.previous.put(key(entry.getKey()), entry.getValue());
+        }
+
+        this.durations = new ConcurrentHashMap<String, Long>();
+        this.expired = Collections.synchronizedList(new ArrayList<String>());
+    }
+
+    /**
+     * <p>
+     * Reads the durations persisted by {@link #store(File)}. An empty map is returned if the file does not exist or
+     * can't be read.
+     * </p>
+     *
+     * @param file the file
+     * @return the durations in nanoseconds by task name
+     */
+    public static Map<String, Long> load(final File file) {
+        final Map<String, Long> retval = new HashMap<String, Long>();
+
+        if (!file.isFile()) {
+            return retval;
+        }
+
+        InputStream is = null;
+
+        try {
+            is = new FileInputStream(file);
+            final Properties properties = new Properties();
+            properties.load(is);
+
+            for (final String name : properties.stringPropertyNames()) {
+                retval.put(name, Long.parseLong(properties.getProperty(name)));
+            }
+        } catch (IOException ioe) {
+            // Durations are only used as estimates
+            retval.clear();
+        } catch (NumberFormatException nfe) {
+            retval.clear();
+        } finally {
+            IOUtils.close(is);
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Persists the durations of this build. The durations of the previous build are not kept, so the tasks that did not
+     * run in this build are forgotten.
+     * </p>
+     *
+     * @param file the file
+     * @throws IOException if the file can't be written
+     */
+    public void store(final File file) throws IOException {
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            throw new IOException(String.format("Could not create directory '%s'", file.getParent()));
+        }
+
+        final Properties properties = new Properties();
+
+        for (final Map.Entry<String, Long> entry : durations.entrySet()) {
+            properties.setProperty(key(entry.getKey()), String.valueOf(entry.getValue()));
+        }
+
+        OutputStream os = null;
+
+        try {
+            os = new FileOutputStream(file);
+            properties.store(os, null);
+        } finally {
+            IOUtils.close(os);
+        }
+    }
+
+    /**
+     * <p>
+     * Runs the given tasks, the most expensive first, and waits for their completion.
+     * </p>
+     *
+     * @param tasks the tasks by name
+     * @param sizes the size in bytes of the input of each task, {@code null} if unknown
+     * @param budget the maximum duration in milliseconds of each task, 0 or less for no limit
+     * @param fallback the result of a task exceeding its budget, {@code null} to fail
+     * @param <T> the type of result
+     * @return the results in the iteration order of the tasks
+     * @throws IOException if a task fails or exceeds its budget without fallback
+     */
+    public <T> List<T> invokeAll(final Map<String, ? extends Callable<T>> tasks,
+                                 final Map<String, Long> sizes,
+                                 final long budget,
+                                 final T fallback)
+            throws IOException {
+        final List<String> names = new ArrayList<String>(tasks.keySet());
+        final Map<String, Long> costs = estimate(names, sizes);
+        final List<String> ordered = new ArrayList<String>(names);
+
+        // Stable sort: tasks of equal cost keep their order
+        Collections.sort(ordered, new Comparator<String>() {
+            @Override
+            public int compare(final String o1, final String o2) {
+                return costs.get(o2).compareTo(costs.get(o1));
+            }
+        });
+
+        final ScheduledExecutorService watchdog = budget > 0 ? Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread retval = new Thread(r, "wuic-static-helper-watchdog");
+                retval.setDaemon(true);
+                return retval;
+            }
+        }) : null;
+
+        final List<Callable<T>> timed = new ArrayList<Callable<T>>(ordered.size());
+
+        for (final String name : ordered) {
+            timed.add(timed(name, tasks.get(name), watchdog, budget, fallback));
+        }
+
+        final List<T> results;
+
+        try {
+            results = executor.invokeAll(timed);
+        } finally {
+            if (watchdog != null) {
+                watchdog.shutdownNow();
+            }
+        }
+
+        final Map<String, T> byName = new HashMap<String, T>();
+
+        for (int i = 0; i < ordered.size(); i++) {
+            byName.put(ordered.get(i), results.get(i));
+        }
+
+        final List<T> retval = new ArrayList<T>(names.size());
+
+        for (final String name : names) {
+            retval.add(byName.get(name));
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Gets the slowest tasks run by this instance.
+     * </p>
+     *
+     * @param topN the maximum number of tasks
+     * @return the durations in nanoseconds by task name, the slowest first
+     */
+    public List<Map.Entry<String, Long>> slowest(final int topN) {
+        final List<Map.Entry<String, Long>> retval = new ArrayList<Map.Entry<String, Long>>(durations.entrySet());
+        Collections.sort(retval, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(final Map.Entry<String, Long> o1, final Map.Entry<String, Long> o2) {
+                return o2.getValue().compareTo(o1.getValue());
+            }
+        });
+
+        return retval.size() > topN ? new ArrayList<Map.Entry<String, Long>>(retval.subList(0, topN)) : retval;
+    }
+
+    /**
+     * <p>
+     * Gets the names of the tasks that exceeded their budget.
+     * </p>
+     *
+     * @return the names
+     */
+    public List<String> getExpired() {
+        synchronized (expired) {
+            return new ArrayList<String>(expired);
+        }
+    }
+
+    /**
+     * <p>
+     * Gets the name of the given task without its numeric path segments, so the name does not depend on the version
+     * of the nut.
+     * </p>
+     *
+     * @param name the task name
+     * @return the persisted name
+     */
+    static String key(final String name) {
+        return NUMERIC_SEGMENT.matcher(name).replaceAll("");
+    }
+
+    /**
+     * <p>
+     * Estimates the cost of the given tasks. The measured throughput of the previous build converts the sizes of the
+     * tasks that did not run before.
+     * </p>
+     *
+     * @param names the task names
+     * @param sizes the sizes by task name, {@code null} if unknown
+     * @return the estimated cost in nanoseconds by task name
+     */
+    private Map<String, Long> estimate(final List<String> names, final Map<String, Long> sizes) {
+        long measuredNanos = 0L;
+        long measuredBytes = 0L;
+
+        if (sizes != null) {
+            for (final String name : names) {
+                final Long duration = previous.get(key(name));
+                final Long size = sizes.get(name);
+
+                if (duration != null && size != null) {
+                    measuredNanos += duration;
+                    measuredBytes += size;
+                }
+            }
+        }
+
+        final double nanosPerByte = measuredBytes == 0L ? DEFAULT_NANOS_PER_BYTE : (double) measuredNanos / measuredBytes;
+        final Map<String, Long> retval = new HashMap<String, Long>();
+
+        for (final String name : names) {
+            final Long duration = previous.get(key(name));
+            final Long size = sizes == null ? null : sizes.get(name);
+
+            if (duration != null) {
+                retval.put(name, duration);
+            } else {
+                retval.put(name, size == null ? 0L : (long) (size * nanosPerByte));
+            }
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Wraps the given task to record its duration and enforce its budget.
+     * </p>
+     *
+     * @param name the task name
+     * @param task the task
+     * @param watchdog the executor firing the alarms, {@code null} for no budget
+     * @param budget the budget in milliseconds
+     * @param fallback the result if the budget is exceeded, {@code null} to fail
+     * @param <T> the type of result
+     * @return the wrapped task
+     */
+    private <T> Callable<T> timed(final String name,
+                                  final Callable<T> task,
+                                  final ScheduledExecutorService watchdog,
+                                  final long budget,
+                                  final T fallback) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final long start = System.nanoTime();
+                final Alarm alarm = watchdog == null ? null : new Alarm();
+                final ScheduledFuture<?> future = alarm == null ? null : watchdog.schedule(alarm, budget, TimeUnit.MILLISECONDS);
+                boolean fired = false;
+
+                try {
+                    return task.call();
+                } catch (Exception e) {
+                    fired = alarm != null && alarm.disarm();
+
+                    if (!fired) {
+                        throw e;
+                    }
+
+                    expired.add(name);
+
+                    if (fallback == null) {
+                        throw new IOException(String.format("'%s' exceeded its time budget of %d ms", name, budget), e);
+                    }
+
+                    return fallback;
+                } finally {
+                    if (alarm != null && !fired) {
+                        alarm.disarm();
+                        future.cancel(false);
+                    }
+
+                    durations.put(name, System.nanoTime() - start);
+                }
+            }
+        };
+    }
+}
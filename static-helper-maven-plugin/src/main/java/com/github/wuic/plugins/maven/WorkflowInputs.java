@@ -0,0 +1,784 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import com.github.wuic.util.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * This class resolves the input files of each workflow declared in the XML configuration. Each heap defines a default
+ * workflow with the same ID. The nut paths of the heaps are matched against the files of the scanned directories to
+ * compute a hash representing all the inputs of the workflow.
+ * </p>
+ *
+ * <p>
+ * Stylesheets and HTML pages are inspected by WUIC, which adds the files they reference to the workflow. Matched
+ * '.css', '.html' and '.htm' nuts are therefore read to extract the URLs declared with {@code url()}, {@code @import},
+ * {@code src} and {@code href}. The local files they denote are hashed and inspected in turn, and their hashes are
+ * part of the hash of the workflow. The extracted references are recorded in the manifest with the hash of the nut, so
+ * an unchanged nut is not read again.
+ * </p>
+ *
+ * <p>
+ * Heaps relying on a specific DAO, or referencing a local file that does not exist in the scanned directories, can't
+ * be resolved from the file system. Their hash also covers the size and the last modification date of all the scanned
+ * files, so any change in a scanned directory will be detected.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public class WorkflowInputs {
+
+    /**
+     * <p>
+     * A heap declared in the configuration.
+     * </p>
+     *
+     * @author Guillaume DROUET
+     * @since 0.5.3
+     */
+    static final class Heap {
+
+        /**
+         * Patterns matching the nut paths.
+         */
+        private final List<Pattern> patterns = new ArrayList<Pattern>();
+
+        /**
+         * The IDs of composed heaps.
+         */
+        private final List<String> heapIds = new ArrayList<String>();
+
+        /**
+         * Directory where nuts are resolved, {@code null} if resolved from all the scanned directories.
+         */
+        private File baseDir;
+
+        /**
+         * If the heap relies on a DAO or references files that can't be resolved from the scanned directories.
+         */
+        private boolean unresolvable;
+
+        /**
+         * If the matched nuts are inspected for references.
+         */
+        private boolean inspected = true;
+
+        /**
+         * The hashes of the matched nuts by path.
+         */
+        private final Map<String, String> nuts = new TreeMap<String, String>();
+
+        /**
+         * The hashes of the files referenced by the matched nuts, by path of the nut followed by the chain of
+         * references.
+         */
+        private final Map<String, String> references = new TreeMap<String, String>();
+
+        /**
+         * The total size of the matched nuts in bytes.
+         */
+        private long bytes;
+
+        /**
+         * <p>
+         * Indicates if the given relative path matches one of the nut paths.
+         * </p>
+         *
+         * @param path the path
+         * @return {@code true} if the path matches, {@code false} otherwise
+         */
+        boolean matches(final String path) {
+            for (final Pattern pattern : patterns) {
+                if (pattern.matcher(path).matches()) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * <p>
+     * A file matched by one or more heaps or referenced by a matched file.
+     * </p>
+     *
+     * @author Guillaume DROUET
+     * @since 0.5.3
+     */
+    static final class Match {
+
+        /**
+         * The file.
+         */
+        private final File file;
+
+        /**
+         * The directory where absolute references are resolved.
+         */
+        private final File root;
+
+        /**
+         * The path of the file relatively to the directory scanned for each matching heap.
+         */
+        private final Map<Heap, String> heaps = new LinkedHashMap<Heap, String>();
+
+        /**
+         * If the file is inspected for references.
+         */
+        private boolean inspected;
+
+        /**
+         * The hash of the file.
+         */
+        private String hash;
+
+        /**
+         * The references declared in the file, empty if it is not inspected.
+         */
+        private List<String> references = Collections.emptyList();
+
+        /**
+         * The files denoted by the references, {@code null} for external references and missing files.
+         */
+        private final Map<String, File> targets = new LinkedHashMap<String, File>();
+
+        /**
+         * <p>
+         * Builds a new instance.
+         * </p>
+         *
+         * @param file the file
+         * @param root the directory where absolute references are resolved
+         */
+        Match(final File file, final File root) {
+            this.file = file;
+            this.root = root;
+        }
+    }
+
+    /**
+     * Maximum depth when resolving composed heaps.
+     */
+    private static final int MAX_DEPTH = 32;
+
+    /**
+     * Pattern extracting the references of a stylesheet.
+     */
+    private static final Pattern CSS_REFERENCE =
+            Pattern.compile("url\\(\\s*['\"]?([^'\")]+?)['\"]?\\s*\\)|@import\\s+['\"]([^'\"]+)['\"]");
+
+    /**
+     * Pattern extracting the references of an HTML page.
+     */
+    private static final Pattern HTML_REFERENCE =
+            Pattern.compile("\\s(?:src|href)\\s*=\\s*['\"]([^'\"]+)['\"]", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Pattern matching the references that do not denote a local file: URLs with a scheme, protocol relative URLs and
+     * fragments.
+     */
+    private static final Pattern EXTERNAL_REFERENCE = Pattern.compile("(?:[a-zA-Z][a-zA-Z0-9+.-]*:|//|#).*");
+
+    /**
+     * Charset used to read the inspected files.
+     */
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * Size of the buffer used to read the inspected files.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Separator of the fields of a listed file.
+     */
+    private static final char LISTING_SEPARATOR = '|';
+
+    /**
+     * The heaps by ID.
+     */
+    private final Map<String, Heap> heaps;
+
+    /**
+     * The directories to scan.
+     */
+    private final List<File> directories;
+
+    /**
+     * The scanner listing the directories.
+     */
+    private final DirectoryScanner scanner;
+
+    /**
+     * <p>
+     * Builds a new instance.
+     * </p>
+     *
+     * @param directories the directories to scan
+     * @param scanner the scanner listing the directories
+     */
+    public WorkflowInputs(final List<File> directories, final DirectoryScanner scanner) {
+        this.heaps = new LinkedHashMap<String, Heap>();
+        this.directories = directories;
+        this.scanner = scanner;
+    }
+
+    /**
+     * <p>
+     * Reads the heaps declared in the given XML configuration file.
+     * </p>
+     *
+     * @param xml the XML file
+     * @param regex if nut paths are regular expressions
+     * @param wildcard if nut paths are wildcard patterns
+     * @throws IOException if the file can't be read or parsed
+     */
+    public void readXml(final File xml, final boolean regex, final boolean wildcard) throws IOException {
+        for (final XmlConfiguration.HeapDeclaration declaration : XmlConfiguration.read(xml).getHeaps()) {
+            final Heap heap = new Heap();
+            heap.unresolvable = declaration.hasDaoBuilder();
+
+            for (final String nutPath : declaration.getNutPaths()) {
+                heap.patterns.add(compile(nutPath, regex, wildcard));
+            }
+
+            heap.heapIds.addAll(declaration.getHeapIds());
+            heaps.put(declaration.getId(), heap);
+        }
+    }
+
+    /**
+     * <p>
+     * Adds a heap resolving a path inside the given directory.
+     * </p>
+     *
+     * @param id the heap ID
+     * @param baseDir the directory
+     * @param path the path
+     * @param regex if the path is a regular expression
+     * @param inspect if the matched nuts are inspected for references
+     * @throws IOException if a heap with the same ID is already declared
+     */
+    public void addHeap(final String id, final File baseDir, final String path, final boolean regex, final boolean inspect)
+            throws IOException {
+        if (heaps.containsKey(id)) {
+            throw new IOException(String.format("Heap '%s' is already declared in the configuration", id));
+        }
+
+        final Heap heap = new Heap();
+        heap.baseDir = baseDir;
+        heap.inspected = inspect;
+        heap.patterns.add(compile(path, regex, false));
+        heaps.put(id, heap);
+    }
+
+    /**
+     * <p>
+     * Scans the directories, records the hash of every matched nut in the current manifest and then the hash of every
+     * workflow. Matched nuts are hashed concurrently with the given executor, then the files they reference are
+     * hashed the same way until no new file is referenced.
+     * </p>
+     *
+     * @param previous the manifest of the previous build
+     * @param current the manifest of the current build
+     * @param executor the executor
+     * @throws IOException if a file can't be read
+     */
+    public void fingerprint(final BuildManifest previous, final BuildManifest current, final ParallelExecutor executor)
+            throws IOException {
+        final List<Match> listing = new ArrayList<Match>();
+        final Map<File, Match> matches = new LinkedHashMap<File, Match>();
+        final boolean listAll = needsListing();
+        final List<Pattern> patterns = new ArrayList<Pattern>();
+
+        for (final Heap heap : heaps.values()) {
+            if (heap.baseDir == null && !heap.unresolvable) {
+                patterns.addAll(heap.patterns);
+            }
+        }
+
+        if (listAll || !patterns.isEmpty()) {
+            for (final File directory : directories) {
+                for (final String path : scanner.scan(directory, listAll ? null : patterns)) {
+                    final File file = new File(directory, path);
+
+                    if (listAll) {
+                        listing.add(new Match(file, directory));
+                    }
+
+                    for (final Heap heap : heaps.values()) {
+                        if (heap.baseDir == null && !heap.unresolvable && heap.matches(path)) {
+                            match(matches, file, directory, heap.inspected).heaps.put(heap, path);
+                        }
+                    }
+                }
+            }
+        }
+
+        for (final Heap heap : heaps.values()) {
+            if (heap.baseDir != null) {
+                for (final String path : scanner.scan(heap.baseDir, heap.patterns)) {
+                    match(matches, new File(heap.baseDir, path), heap.baseDir, heap.inspected).heaps.put(heap, path);
+                }
+            }
+        }
+
+        final List<Match> matched = new ArrayList<Match>(matches.values());
+
+        for (Collection<Match> pending = matched; !pending.isEmpty();) {
+            inspect(pending, previous, current, executor);
+            final Map<File, Match> referenced = new LinkedHashMap<File, Match>();
+
+            for (final Match match : pending) {
+                for (final String reference : match.references) {
+                    final File target = resolve(match, reference);
+                    match.targets.put(reference, target);
+
+                    if (target != null && !matches.containsKey(target) && !referenced.containsKey(target)) {
+                        final Match m = new Match(target, match.root);
+                        m.inspected = true;
+                        referenced.put(target, m);
+                    }
+                }
+            }
+
+            matches.putAll(referenced);
+            pending = referenced.values();
+        }
+
+        for (final Match match : matched) {
+            for (final Map.Entry<Heap, String> entry : match.heaps.entrySet()) {
+                final Heap heap = entry.getKey();
+                heap.nuts.put(entry.getValue(), match.hash);
+                heap.bytes += match.file.length();
+                final Set<File> visited = new HashSet<File>();
+                visited.add(match.file);
+                collectReferences(heap, match, entry.getValue(), matches, visited);
+            }
+        }
+
+        if (!listAll && needsListing()) {
+            for (final File directory : directories) {
+                for (final String path : scanner.scan(directory, null)) {
+                    listing.add(new Match(new File(directory, path), directory));
+                }
+            }
+        }
+
+        final String listingHash = BuildManifest.hash(list(listing, matches, previous, current, executor));
+
+        for (final String id : heaps.keySet()) {
+            current.setWorkflow(id, hash(id, listingHash, 0));
+        }
+    }
+
+    /**
+     * <p>
+     * Records the number and the size of the nuts matched by each heap. Must be called after
+     * {@link #fingerprint(BuildManifest, BuildManifest, ParallelExecutor)}.
+     * </p>
+     *
+     * @param report the report
+     */
+    public void report(final BuildReport report) {
+        for (final Map.Entry<String, Heap> entry : heaps.entrySet()) {
+            report.inputs(entry.getKey(), entry.getValue().nuts.size(), entry.getValue().bytes);
+        }
+    }
+
+    /**
+     * <p>
+     * Hashes the given files concurrently and extracts the references of the inspected ones. References are read from
+     * the previous manifest when the file has the same hash.
+     * </p>
+     *
+     * @param pending the files
+     * @param previous the manifest of the previous build
+     * @param current the manifest of the current build
+     * @param executor the executor
+     * @throws IOException if a file can't be read
+     */
+    private static void inspect(final Collection<Match> pending,
+                                final BuildManifest previous,
+                                final BuildManifest current,
+                                final ParallelExecutor executor)
+            throws IOException {
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(pending.size());
+
+        for (final Match match : pending) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    match.hash = current.putNut(match.file, previous);
+
+                    if (match.inspected && inspectable(match.file)) {
+                        match.references = previous.getReferences(match.file, match.hash);
+
+                        if (match.references == null) {
+                            match.references = references(match.file);
+                        }
+
+                        current.putReferences(match.file, match.hash, match.references);
+                    }
+
+                    return null;
+                }
+            });
+        }
+
+        executor.invokeAll(tasks);
+    }
+
+    /**
+     * <p>
+     * Records in the given heap the hashes of the files referenced by the given match, recursively. The heap becomes
+     * unresolvable if a reference denotes a missing file.
+     * </p>
+     *
+     * @param heap the heap
+     * @param match the match
+     * @param path the path of the match followed by the chain of references leading to it
+     * @param matches all the matches by file
+     * @param visited the files already visited from the matched nut
+     */
+    private static void collectReferences(final Heap heap,
+                                          final Match match,
+                                          final String path,
+                                          final Map<File, Match> matches,
+                                          final Set<File> visited) {
+        for (final Map.Entry<String, File> target : match.targets.entrySet()) {
+            if (target.getValue() == null) {
+                if (!isExternal(target.getKey())) {
+                    heap.unresolvable = true;
+                }
+            } else {
+                final Match referenced = matches.get(target.getValue());
+                final String key = path + ' ' + target.getKey();
+                heap.references.put(key, referenced.hash);
+
+                if (visited.add(target.getValue())) {
+                    collectReferences(heap, referenced, key, matches, visited);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Computes the hash of the given heap.
+     * </p>
+     *
+     * @param id the heap ID
+     * @param listingHash the hash of all the scanned files used for unresolvable heaps
+     * @param depth the current depth of composition
+     * @return the hash
+     */
+    private String hash(final String id, final String listingHash, final int depth) {
+        final Heap heap = heaps.get(id);
+
+        if (heap == null || depth > MAX_DEPTH) {
+            return BuildManifest.hash(id, listingHash);
+        }
+
+        final List<String> values = new ArrayList<String>();
+
+        if (heap.unresolvable) {
+            values.add(listingHash);
+        }
+
+        for (final Map.Entry<String, String> nut : heap.nuts.entrySet()) {
+            values.add(nut.getKey());
+            values.add(nut.getValue());
+        }
+
+        for (final Map.Entry<String, String> reference : heap.references.entrySet()) {
+            values.add(reference.getKey());
+            values.add(reference.getValue());
+        }
+
+        for (final String heapId : heap.heapIds) {
+            values.add(hash(heapId, listingHash, depth + 1));
+        }
+
+        return BuildManifest.hash(values.toArray(new String[values.size()]));
+    }
+
+    /**
+     * <p>
+     * Indicates if the listing of all the scanned files is needed to compute the hash of a heap that can't be resolved
+     * from the file system.
+     * </p>
+     *
+     * @return {@code true} if all the files must be listed, {@code false} otherwise
+     */
+    private boolean needsListing() {
+        for (final Heap heap : heaps.values()) {
+            if (heap.unresolvable) {
+                return true;
+            }
+
+            for (final String heapId : heap.heapIds) {
+                if (!heaps.containsKey(heapId)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * <p>
+     * Gets the match associated to the given file, creating it if necessary.
+     * </p>
+     *
+     * @param matches the matches
+     * @param file the file
+     * @param root the directory where the file has been found
+     * @param inspect if the file must be inspected for references
+     * @return the match
+     */
+    private static Match match(final Map<File, Match> matches, final File file, final File root, final boolean inspect) {
+        Match retval = matches.get(file);
+
+        if (retval == null) {
+            retval = new Match(file, root);
+            matches.put(file, retval);
+        }
+
+        retval.inspected |= inspect;
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Lists the given files with the position of the scanned directory, their path relatively to this directory and
+     * their hash, so the listing does not depend on the location of the project. Files already hashed as matched nuts
+     * are not hashed again, the others are hashed concurrently.
+     * </p>
+     *
+     * @param listing the files to list
+     * @param matches the matched nuts
+     * @param previous the manifest of the previous build
+     * @param current the manifest of the current build
+     * @param executor the executor
+     * @return the listing
+     * @throws IOException if a file can't be read
+     */
+    private String list(final List<Match> listing,
+                        final Map<File, Match> matches,
+                        final BuildManifest previous,
+                        final BuildManifest current,
+                        final ParallelExecutor executor)
+            throws IOException {
+        final List<Match> pending = new ArrayList<Match>();
+
+        for (final Match match : listing) {
+            final Match matched = matches.get(match.file);
+
+            if (matched != null && matched.hash != null) {
+                match.hash = matched.hash;
+            } else {
+                pending.add(match);
+            }
+        }
+
+        inspect(pending, previous, current, executor);
+        final StringBuilder retval = new StringBuilder();
+
+        for (final Match match : listing) {
+            retval.append(directories.indexOf(match.root)).append(LISTING_SEPARATOR)
+                    .append(relativize(match.root, match.file)).append(LISTING_SEPARATOR)
+                    .append(match.hash).append('\n');
+        }
+
+        return retval.toString();
+    }
+
+    /**
+     * <p>
+     * Indicates if the given file is a stylesheet or an HTML page inspected by WUIC.
+     * </p>
+     *
+     * @param file the file
+     * @return {@code true} if the file is inspected, {@code false} otherwise
+     */
+    private static boolean inspectable(final File file) {
+        final String name = file.getName().toLowerCase(Locale.ENGLISH);
+        return name.endsWith(".css") || name.endsWith(".html") || name.endsWith(".htm");
+    }
+
+    /**
+     * <p>
+     * Reads the given stylesheet or HTML page and extracts the references it declares.
+     * </p>
+     *
+     * @param file the file
+     * @return the references in declaration order
+     * @throws IOException if the file can't be read
+     */
+    static List<String> references(final File file) throws IOException {
+        final StringBuilder content = new StringBuilder((int) file.length());
+        final char[] buffer = new char[BUFFER_SIZE];
+        InputStream is = null;
+
+        try {
+            is = new FileInputStream(file);
+            final Reader reader = new InputStreamReader(is, CHARSET);
+            int offset;
+
+            while ((offset = reader.read(buffer)) != -1) {
+                content.append(buffer, 0, offset);
+            }
+        } finally {
+            IOUtils.close(is);
+        }
+
+        final List<String> retval = new ArrayList<String>();
+        final Matcher css = CSS_REFERENCE.matcher(content);
+
+        while (css.find()) {
+            retval.add(css.group(1) == null ? css.group(2) : css.group(1));
+        }
+
+        if (!file.getName().toLowerCase(Locale.ENGLISH).endsWith(".css")) {
+            final Matcher html = HTML_REFERENCE.matcher(content);
+
+            while (html.find()) {
+                retval.add(html.group(1));
+            }
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Indicates if the given reference does not denote a local file.
+     * </p>
+     *
+     * @param reference the reference
+     * @return {@code true} if the reference is external, {@code false} otherwise
+     */
+    private static boolean isExternal(final String reference) {
+        final String r = reference.trim();
+        return r.isEmpty() || EXTERNAL_REFERENCE.matcher(r).matches();
+    }
+
+    /**
+     * <p>
+     * Resolves the file denoted by the given reference. Relative references are resolved from the directory of the
+     * referencing file and absolute references from the directory where it has been found. The query string and the
+     * fragment are ignored.
+     * </p>
+     *
+     * @param match the referencing file
+     * @param reference the reference
+     * @return the file, {@code null} if the reference is external or the file does not exist
+     */
+    private static File resolve(final Match match, final String reference) {
+        if (isExternal(reference)) {
+            return null;
+        }
+
+        String r = reference.trim();
+
+        for (final char c : new char[] { '?', '#' }) {
+            final int index = r.indexOf(c);
+
+            if (index != -1) {
+                r = r.substring(0, index);
+            }
+        }
+
+        final File file = r.startsWith("/") ? new File(match.root, r.substring(1)) : new File(match.file.getParentFile(), r);
+        final File retval = new File(file.toURI().normalize());
+        return retval.isFile() ? retval : null;
+    }
+
+    /**
+     * <p>
+     * Computes the path of the given file relatively to the given root directory with '/' as separator.
+     * </p>
+     *
+     * @param root the root directory
+     * @param file the file
+     * @return the relative path
+     */
+    static String relativize(final File root, final File file) {
+        return IOUtils.normalizePathSeparator(file.getAbsolutePath().substring(root.getAbsolutePath().length() + 1));
+    }
+
+    /**
+     * <p>
+     * Compiles the given nut path.
+     * </p>
+     *
+     * @param path the nut path
+     * @param regex if the path is a regular expression
+     * @param wildcard if the path is a wildcard pattern
+     * @return the pattern
+     */
+    static Pattern compile(final String path, final boolean regex, final boolean wildcard) {
+        final String p = path.startsWith("/") ? path.substring(1) : path;
+
+        if (regex) {
+            return Pattern.compile(p);
+        } else if (wildcard) {
+            final StringBuilder sb = new StringBuilder();
+            int start = 0;
+
+            for (int i = p.indexOf('*'); i != -1; i = p.indexOf('*', start)) {
+                sb.append(Pattern.quote(p.substring(start, i))).append(".*");
+                start = i + 1;
+            }
+
+            return Pattern.compile(sb.append(Pattern.quote(p.substring(start))).toString());
+        } else {
+            return Pattern.compile(Pattern.quote(p));
+        }
+    }
+}
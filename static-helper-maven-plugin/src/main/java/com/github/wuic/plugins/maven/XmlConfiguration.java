@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2016   The authors of WUIC
+ *
+ * License/Terms of Use
+ * Permission is hereby granted, free of charge and for the term of intellectual
+ * property rights on the Software, to any person obtaining a copy of this software
+ * and associated documentation files (the "Software"), to use, copy, modify and
+ * propagate free of charge, anywhere in the world, all or part of the Software
+ * subject to the following mandatory conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, PEACEFUL ENJOYMENT,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS
+ * OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER
+ * IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+package com.github.wuic.plugins.maven;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * The parts of a WUIC XML configuration file read by the plugin: the declared heaps and the base paths of the DAOs.
+ * </p>
+ *
+ * <p>
+ * Parsed configurations are kept in a JVM-wide cache keyed by the path of the file, and reused as long as its size and
+ * its last modification date are unchanged. This way, the modules of a reactor sharing the same configuration, and
+ * the successive executions of a session, parse it once. This cache only covers the parsing done by the plugin: WUIC
+ * still unmarshals the file in each execution, only its JAXB contexts are reused through
+ * {@link CachingJaxbContextFactory}.
+ * </p>
+ *
+ * @author Guillaume DROUET
+ * @since 0.5.3
+ */
+public final class XmlConfiguration {
+
+    /**
+     * <p>
+     * A heap declared in the configuration.
+     * </p>
+     *
+     * @author Guillaume DROUET
+     * @since 0.5.3
+     */
+    static final class HeapDeclaration {
+
+        /**
+         * The ID.
+         */
+        private final String id;
+
+        /**
+         * If the heap relies on a specific DAO builder.
+         */
+        private final boolean daoBuilder;
+
+        /**
+         * The nut paths.
+         */
+        private final List<String> nutPaths;
+
+        /**
+         * The IDs of the composed heaps.
+         */
+        private final List<String> heapIds;
+
+        /**
+         * <p>
+         * Builds a new instance.
+         * </p>
+         *
+         * @param id the ID
+         * @param daoBuilder if the heap relies on a specific DAO builder
+         * @param nutPaths the nut paths
+         * @param heapIds the IDs of the composed heaps
+         */
+        private HeapDeclaration(final String id, final boolean daoBuilder, final List<String> nutPaths, final List<String> heapIds) {
+            this.id = id;
+            this.daoBuilder = daoBuilder;
+            this.nutPaths = Collections.unmodifiableList(nutPaths);
+            this.heapIds = Collections.unmodifiableList(heapIds);
+        }
+
+        /**
+         * <p>
+         * Gets the ID.
+         * </p>
+         *
+         * @return the ID
+         */
+        String getId() {
+            return id;
+        }
+
+        /**
+         * <p>
+         * Indicates if the heap relies on a specific DAO builder.
+         * </p>
+         *
+         * @return {@code true} if a DAO builder is referenced, {@code false} otherwise
+         */
+        boolean hasDaoBuilder() {
+            return daoBuilder;
+        }
+
+        /**
+         * <p>
+         * Gets the nut paths.
+         * </p>
+         *
+         * @return the nut paths
+         */
+        List<String> getNutPaths() {
+            return nutPaths;
+        }
+
+        /**
+         * <p>
+         * Gets the IDs of the composed heaps.
+         * </p>
+         *
+         * @return the heap IDs
+         */
+        List<String> getHeapIds() {
+            return heapIds;
+        }
+    }
+
+    /**
+     * Suffix of the property defining the base path of a DAO.
+     */
+    private static final String BASE_PATH_PROPERTY = "dao.basePath";
+
+    /**
+     * Files modified less than this delay in milliseconds before being parsed are parsed again, because a change made
+     * in the same time unit than the parsing can't be detected from the last modification date.
+     */
+    private static final long RACY_DELAY = 2000L;
+
+    /**
+     * Maximum number of cached configurations.
+     */
+    private static final int MAX_ENTRIES = 64;
+
+    /**
+     * The cached configurations by absolute path, least recently used first.
+     */
+    private static final Map<String, XmlConfiguration> CACHE = new LinkedHashMap<String, XmlConfiguration>(16, 0.75f, true) {
+
+        /**
+         * Serial version UID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, XmlConfiguration> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * The factory of parsers, shared since its creation looks up the implementation.
+     */
+    private static final DocumentBuilderFactory FACTORY = DocumentBuilderFactory.newInstance();
+
+    /**
+     * The size of the file when parsed.
+     */
+    private final long size;
+
+    /**
+     * The last modification date of the file when parsed.
+     */
+    private final long lastModified;
+
+    /**
+     * The time of the parsing.
+     */
+    private final long parseTime;
+
+    /**
+     * The declared heaps.
+     */
+    private final List<HeapDeclaration> heaps;
+
+    /**
+     * The base paths of the DAOs.
+     */
+    private final List<String> basePaths;
+
+    /**
+     * <p>
+     * Builds a new instance.
+     * </p>
+     *
+     * @param size the size of the file
+     * @param lastModified the last modification date of the file
+     * @param parseTime the time of the parsing
+     * @param heaps the declared heaps
+     * @param basePaths the base paths
+     */
+    private XmlConfiguration(final long size,
+                             final long lastModified,
+                             final long parseTime,
+                             final List<HeapDeclaration> heaps,
+                             final List<String> basePaths) {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.parseTime = parseTime;
+        this.heaps = Collections.unmodifiableList(heaps);
+        this.basePaths = Collections.unmodifiableList(basePaths);
+    }
+
+    /**
+     * <p>
+     * Gets the configuration of the given file, parsing it only if it is not cached or has changed.
+     * </p>
+     *
+     * @param xml the XML file
+     * @return the configuration
+     * @throws IOException if the file can't be read or parsed
+     */
+    public static XmlConfiguration read(final File xml) throws IOException {
+        final String key = xml.getAbsolutePath();
+        final long size = xml.length();
+        final long lastModified = xml.lastModified();
+
+        synchronized (CACHE) {
+            final XmlConfiguration cached = CACHE.get(key);
+
+            if (cached != null && cached.size == size && cached.lastModified == lastModified
+                    && lastModified < cached.parseTime - RACY_DELAY) {
+                return cached;
+            }
+        }
+
+        // Concurrent executions may parse the same file, the last one wins
+        final XmlConfiguration retval = parse(xml, size, lastModified);
+
+        synchronized (CACHE) {
+            CACHE.put(key, retval);
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Releases all the cached configurations.
+     * </p>
+     */
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    /**
+     * <p>
+     * Gets the base paths of the DAOs.
+     * </p>
+     *
+     * @return the base paths
+     */
+    public List<String> getBasePaths() {
+        return basePaths;
+    }
+
+    /**
+     * <p>
+     * Gets the declared heaps.
+     * </p>
+     *
+     * @return the heaps
+     */
+    List<HeapDeclaration> getHeaps() {
+        return heaps;
+    }
+
+    /**
+     * <p>
+     * Parses the given file.
+     * </p>
+     *
+     * @param xml the file
+     * @param size the size of the file
+     * @param lastModified the last modification date of the file
+     * @return the configuration
+     * @throws IOException if the file can't be read or parsed
+     */
+    private static XmlConfiguration parse(final File xml, final long size, final long lastModified) throws IOException {
+        final long parseTime = System.currentTimeMillis();
+        final Document document;
+
+        try {
+            final DocumentBuilder builder;
+
+            synchronized (FACTORY) {
+                builder = FACTORY.newDocumentBuilder();
+            }
+
+            document = builder.parse(xml);
+        } catch (SAXException se) {
+            throw new IOException(se);
+        } catch (ParserConfigurationException pce) {
+            throw new IOException(pce);
+        }
+
+        final List<HeapDeclaration> heaps = new ArrayList<HeapDeclaration>();
+        final NodeList heapList = document.getElementsByTagName("heap");
+
+        for (int i = 0; i < heapList.getLength(); i++) {
+            final Element element = Element.class.cast(heapList.item(i));
+            final String id = element.getAttribute("id");
+
+            if (id.isEmpty()) {
+                continue;
+            }
+
+            final List<String> nutPaths = new ArrayList<String>();
+            final List<String> heapIds = new ArrayList<String>();
+            final NodeList children = element.getChildNodes();
+
+            for (int j = 0; j < children.getLength(); j++) {
+                final Node child = children.item(j);
+                final String value = child.getTextContent() == null ? "" : child.getTextContent().trim();
+
+                if ("nut-path".equals(child.getNodeName())) {
+                    nutPaths.add(value);
+                } else if ("heap-id".equals(child.getNodeName())) {
+                    heapIds.add(value);
+                }
+            }
+
+            heaps.add(new HeapDeclaration(id, !element.getAttribute("dao-builder-id").isEmpty(), nutPaths, heapIds));
+        }
+
+        final List<String> basePaths = new ArrayList<String>();
+        final NodeList propertyList = document.getElementsByTagName("property");
+
+        for (int i = 0; i < propertyList.getLength(); i++) {
+            final Element element = Element.class.cast(propertyList.item(i));
+
+            if (element.getAttribute("key").endsWith(BASE_PATH_PROPERTY) && element.getTextContent() != null) {
+                basePaths.add(element.getTextContent().trim());
+            }
+        }
+
+        return new XmlConfiguration(size, lastModified, parseTime, heaps, basePaths);
+    }
+}
@@ -22,11 +22,27 @@
 
 package com.github.wuic.plugins.maven.test;
 
+import com.github.wuic.plugins.maven.BuildManifest;
+import com.github.wuic.plugins.maven.CachingJaxbContextFactory;
+import com.github.wuic.plugins.maven.DirectoryScanner;
+import com.github.wuic.plugins.maven.EngineRegistry;
+import com.github.wuic.plugins.maven.IntegrityManifest;
+import com.github.wuic.plugins.maven.ParallelExecutor;
+import com.github.wuic.plugins.maven.Precompressor;
+import com.github.wuic.plugins.maven.PrepareMojo;
+import com.github.wuic.plugins.maven.ResultCache;
 import com.github.wuic.plugins.maven.StaticHelperMojo;
+import com.github.wuic.plugins.maven.StaticIndex;
+import com.github.wuic.plugins.maven.TaskClassLoader;
+import com.github.wuic.plugins.maven.WatchMojo;
+import com.github.wuic.plugins.maven.WorkScheduler;
+import com.github.wuic.plugins.maven.XmlConfiguration;
 import com.github.wuic.test.TestHelper;
 import com.github.wuic.util.IOUtils;
 import org.apache.maven.model.Build;
+import org.apache.maven.model.Resource;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
 import org.junit.Assert;
@@ -39,13 +55,46 @@ import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.annotation.XmlRootElement;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 /**
  * <p>
@@ -58,6 +107,23 @@ import java.util.concurrent.atomic.AtomicReference;
 @RunWith(JUnit4.class)
 public class StaticHelperMojoTest {
 
+    /**
+     * Modification time set to the outputs to detect if they are written again.
+     */
+    private static final long OLD_TIME = 1000000000000L;
+
+    /**
+     * <p>
+     * A class bound by JAXB.
+     * </p>
+     *
+     * @author Guillaume DROUET
+     * @since 0.5.3
+     */
+    @XmlRootElement
+    public static class JaxbBean {
+    }
+
     /**
      * Timeout.
      */
@@ -74,37 +140,9 @@ public class StaticHelperMojoTest {
      */
     @Test
     public void defaultTest() throws MojoExecutionException, IOException {
-        final String wuicXml = IOUtils.normalizePathSeparator(getClass().getResource("/wuic.xml").toString());
-        final String wuicProperties = IOUtils.normalizePathSeparator(getClass().getResource("/wuic.properties").toString());
-        final String currentDir = IOUtils.normalizePathSeparator(new File(".").toURI().toURL().toString());
-
-        // Create MOJO
-        final StaticHelperMojo mojo = new StaticHelperMojo();
-        mojo.setRelocateTransformedXml(Boolean.TRUE);
-        mojo.setXml(wuicXml.substring(currentDir.length() - 2));
-        mojo.setProperties(wuicProperties.substring(currentDir.length() - 2));
-        mojo.setOutput("generated");
-        mojo.setContextPath("/");
-
-        // Mock
         final AtomicReference<String> resources = new AtomicReference<String>();
-        final MavenProject mavenProject = Mockito.mock(MavenProject.class);
-        final Build build = Mockito.mock(Build.class);
         final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-test");
-        Mockito.when(build.getDirectory()).thenReturn(out.getAbsolutePath());
-        Mockito.when(build.getOutputDirectory()).thenReturn(out.getAbsolutePath());
-        Mockito.when(mavenProject.getBuild()).thenReturn(build);
-        Mockito.when(mavenProject.getBasedir()).thenReturn(new File("."));
-        mojo.setMavenProject(mavenProject);
-        final MavenProjectHelper helper = Mockito.mock(MavenProjectHelper.class);
-        mojo.setProjectHelper(helper);
-        Mockito.doAnswer(new Answer<Object>() {
-            @Override
-            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
-                resources.set(invocationOnMock.getArguments()[1].toString());
-                return null;
-            }
-        }).when(helper).addResource(Mockito.any(MavenProject.class), Mockito.anyString(), Mockito.any(List.class), Mockito.any(List.class));
+        final StaticHelperMojo mojo = createMojo(out, resources);
 
         // Invoke
         mojo.execute();
@@ -151,26 +189,1544 @@ public class StaticHelperMojoTest {
 
     /**
      * <p>
-     * Finds the first file ending with the given suffix.
+     * Checks that a second build with unchanged inputs reuses the outputs of the first build.
      * </p>
      *
-     * @param files the files
-     * @param suffix the suffix
-     * @return the file
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
      */
-    private File find(final File[] files, final String suffix) {
-        for (final File file : files) {
-            if (file.getName().endsWith(suffix)) {
-                return file;
-            } else if (file.listFiles() != null) {
-                final File child = find(file.listFiles(), suffix);
+    @Test
+    public void incrementalTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-incremental-test");
+        final File generated = new File(out, "generated");
+        StaticHelperMojo mojo = createMojo(out, resources);
+        mojo.setIncremental(Boolean.TRUE);
+        mojo.execute();
+        final String first = resources.get();
+        Assert.assertTrue(new File(out, "wuic-static-helper/manifest.properties").isFile());
+        setLastModified(generated, OLD_TIME);
 
-                if (child != null) {
-                    return child;
+        // Nothing changed: outputs are not written again and relocated XML of the previous build is registered again
+        resources.set(null);
+        mojo = createMojo(out, resources);
+        mojo.setIncremental(Boolean.TRUE);
+        mojo.execute();
+        Assert.assertEquals(first, resources.get());
+        assertLastModified(generated, OLD_TIME);
+
+        // Configuration changed: workflows are processed again and relocated to the same stable directory
+        resources.set(null);
+        mojo = createMojo(out, resources);
+        mojo.setIncremental(Boolean.TRUE);
+        mojo.setContextPath("/foo");
+        mojo.execute();
+        Assert.assertEquals(first, resources.get());
+        Assert.assertTrue(lastModified(generated) > OLD_TIME);
+        Assert.assertEquals(new File(out, "wuic-static-helper/relocated").getAbsolutePath(), new File(first).getAbsolutePath());
+        Assert.assertFalse(new File(out, "wuic-static-helper/relocated-staging").exists());
+
+        TestHelper.delete(out);
+    }
+
+    /**
+     * <p>
+     * Checks that an output deleted since the previous build is written again although the inputs are unchanged.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void deletedOutputTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-deleted-output-test");
+        StaticHelperMojo mojo = createMojo(out, resources);
+        mojo.setIncremental(Boolean.TRUE);
+        mojo.execute();
+
+        final File css = find(new File(out, "generated/css").listFiles(), "aggregate.css");
+        Assert.assertNotNull(css);
+        final long length = css.length();
+        Assert.assertTrue(css.delete());
+
+        // Other outputs still exist, the output directory is not empty
+        mojo = createMojo(out, resources);
+        mojo.setIncremental(Boolean.TRUE);
+        mojo.execute();
+        Assert.assertTrue(css.isFile());
+        Assert.assertEquals(length, css.length());
+
+        TestHelper.delete(out);
+    }
+
+    /**
+     * <p>
+     * Checks that the directory scanner does not walk the excluded subtrees nor the subtrees that can't match, and that
+     * a persisted listing is reused for unmodified directories only.
+     * </p>
+     *
+     * @throws IOException if test fails
+     */
+    @Test
+    public void directoryScannerTest() throws IOException {
+        final File root = new File(System.getProperty("java.io.tmpdir"), "wuic-static-scanner-test");
+        final File listing = new File(root, "listing.txt");
+        final File js = new File(root, "src/js");
+        final File modules = new File(root, "src/node_modules/lib");
+        final File excluded = new File(root, "src/target");
+        create(new File(js, "a.js"));
+        create(new File(modules, "lib.js"));
+        create(new File(excluded, "b.js"));
+        final File src = new File(root, "src");
+        final List<Pattern> patterns = Arrays.asList(Pattern.compile("js/.*\\.js"), Pattern.compile("target/.*\\.js"));
+        final ParallelExecutor executor = new ParallelExecutor(2);
+
+        try {
+            // Directories are older than the listing so it can be reused
+            Assert.assertTrue(js.setLastModified(OLD_TIME));
+            Assert.assertTrue(src.setLastModified(OLD_TIME));
+            DirectoryScanner scanner = new DirectoryScanner(executor);
+            Assert.assertEquals(Arrays.asList("js/a.js"),
+                    scanner.scan(src, patterns, Arrays.asList(excluded.getAbsoluteFile())));
+            scanner.store(listing);
+
+            // Only walked directories are persisted
+            final InputStream is = new FileInputStream(listing);
+            final String persisted = IOUtils.readString(new InputStreamReader(is, "UTF-8"));
+            is.close();
+            Assert.assertTrue(persisted, persisted.contains(js.getAbsolutePath()));
+            Assert.assertFalse(persisted, persisted.contains(modules.getParentFile().getAbsolutePath()));
+            Assert.assertFalse(persisted, persisted.contains(excluded.getAbsolutePath()));
+
+            // A file added to an unmodified directory is not seen: the directory is not read again
+            create(new File(js, "hidden.js"));
+            Assert.assertTrue(js.setLastModified(OLD_TIME));
+            scanner = new DirectoryScanner(executor);
+            scanner.load(listing);
+            Assert.assertEquals(Arrays.asList("js/a.js"), scanner.scan(src, patterns));
+
+            // The stale entries of a modified directory are listed again
+            Assert.assertTrue(js.setLastModified(OLD_TIME + 1000L));
+            scanner = new DirectoryScanner(executor);
+            scanner.load(listing);
+            Assert.assertEquals(Arrays.asList("js/a.js", "js/hidden.js", "target/b.js"), scanner.scan(src, patterns));
+        } finally {
+            executor.shutdown();
+            TestHelper.delete(root);
+        }
+    }
+
+    /**
+     * <p>
+     * Checks that changing only a file referenced by a stylesheet processes again the workflows inspecting it.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void referencedAssetTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-referenced-test");
+        final File src = new File(System.getProperty("java.io.tmpdir"), "wuic-static-referenced-src");
+        final File generated = new File(out, "generated");
+        final File manifest = new File(out, "wuic-static-helper/manifest.properties");
+        copy(new File(getClass().getResource("/wuic.xml").getFile()).getParentFile(), src);
+
+        StaticHelperMojo mojo = configure(new StaticHelperMojo(), out, resources, src);
+        mojo.setIncremental(Boolean.TRUE);
+        mojo.execute();
+        setLastModified(generated, OLD_TIME);
+
+        mojo = configure(new StaticHelperMojo(), out, resources, src);
+        mojo.setIncremental(Boolean.TRUE);
+        mojo.execute();
+        assertLastModified(generated, OLD_TIME);
+        final Properties before = load(manifest);
+
+        // Image referenced by 'sir-trevor.css' and by 'baz.css' through 'indexcss.html', not matched by any heap
+        final OutputStream os = new FileOutputStream(new File(src, "sir-trevor/dist/images/sir-trevor/icons/close.gif"), true);
+        os.write(0);
+        os.close();
+
+        mojo = configure(new StaticHelperMojo(), out, resources, src);
+        mojo.setIncremental(Boolean.TRUE);
+        mojo.execute();
+        Assert.assertTrue(lastModified(generated) > OLD_TIME);
+
+        final Properties after = load(manifest);
+        Assert.assertFalse(before.getProperty("workflow.css").equals(after.getProperty("workflow.css")));
+        Assert.assertFalse(before.getProperty("workflow.html-css").equals(after.getProperty("workflow.html-css")));
+        Assert.assertEquals(before.getProperty("workflow.js"), after.getProperty("workflow.js"));
+
+        TestHelper.delete(out);
+        TestHelper.delete(src);
+    }
+
+    /**
+     * <p>
+     * Checks that hashing the inputs concurrently records the same nuts and workflows as hashing them sequentially.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void parallelHashingTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final List<Map<String, String>> fingerprints = new ArrayList<Map<String, String>>();
+
+        for (final int parallelism : new int[] { 1, 8 }) {
+            final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-parallel-hashing-test-" + parallelism);
+            final StaticHelperMojo mojo = createMojo(out, resources);
+            mojo.setIncremental(Boolean.TRUE);
+            mojo.setParallelism(parallelism);
+            mojo.execute();
+
+            final Properties manifest = load(new File(out, "wuic-static-helper/manifest.properties"));
+            final Map<String, String> fingerprint = new TreeMap<String, String>();
+
+            for (final String key : manifest.stringPropertyNames()) {
+                if (key.startsWith("nut.") || key.startsWith("references.") || key.startsWith("workflow.")) {
+                    fingerprint.put(key, manifest.getProperty(key));
                 }
             }
+
+            fingerprints.add(fingerprint);
+            TestHelper.delete(out);
         }
 
-        return null;
+        int nuts = 0;
+
+        for (final String key : fingerprints.get(0).keySet()) {
+            nuts += key.startsWith("nut.") ? 1 : 0;
+        }
+
+        Assert.assertTrue(nuts > 1);
+        Assert.assertTrue(fingerprints.get(0).containsKey("workflow.css"));
+        Assert.assertEquals(fingerprints.get(0), fingerprints.get(1));
+    }
+
+    /**
+     * <p>
+     * Checks that the watch goal processes the workflows again after a single change and stops when interrupted.
+     * </p>
+     *
+     * @throws IOException if test fails
+     * @throws InterruptedException if test fails
+     */
+    @Test
+    public void watchTest() throws IOException, InterruptedException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-watch-test");
+        final File src = new File(System.getProperty("java.io.tmpdir"), "wuic-static-watch-src");
+        final File generated = new File(out, "generated");
+        final File manifest = new File(out, "wuic-static-helper/manifest.properties");
+        copy(new File(getClass().getResource("/wuic.xml").getFile()).getParentFile(), src);
+
+        final CountDownLatch watching = new CountDownLatch(1);
+        final WatchMojo mojo = configure(new WatchMojo(), out, resources, src);
+        mojo.setDebounce(50);
+        mojo.setLog(new SystemStreamLog() {
+            @Override
+            public void info(final CharSequence content) {
+                super.info(content);
+
+                if (content.toString().startsWith("Watching")) {
+                    watching.countDown();
+                }
+            }
+        });
+
+        final AtomicReference<MojoExecutionException> error = new AtomicReference<MojoExecutionException>();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mojo.execute();
+                } catch (MojoExecutionException mee) {
+                    error.set(mee);
+                }
+            }
+        });
+
+        thread.start();
+
+        try {
+            Assert.assertTrue(watching.await(30, TimeUnit.SECONDS));
+            setLastModified(generated, OLD_TIME);
+            Assert.assertTrue(manifest.setLastModified(OLD_TIME));
+
+            final OutputStream os = new FileOutputStream(new File(src, "foo/bar/baz.css"), true);
+            os.write("\n.watched {}".getBytes("UTF-8"));
+            os.close();
+
+            // The manifest is written at the end of the processing
+            final long deadline = System.currentTimeMillis() + 30000L;
+
+            while (manifest.lastModified() == OLD_TIME && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50L);
+            }
+
+            Assert.assertTrue(lastModified(generated) > OLD_TIME);
+        } finally {
+            thread.interrupt();
+            thread.join(10000L);
+        }
+
+        Assert.assertFalse(thread.isAlive());
+        Assert.assertNull(error.get());
+        TestHelper.delete(out);
+        TestHelper.delete(src);
+    }
+
+    /**
+     * <p>
+     * Checks that class loaders are cached by dependencies and session, and that a class loader exposes the
+     * directories of the module using it only, without modifying the system class loader.
+     * </p>
+     *
+     * @throws IOException if test fails
+     */
+    @Test
+    public void classLoaderTest() throws IOException {
+        final Object session = new Object();
+        final List<URL> urls = new ArrayList<URL>();
+        final File module = new File(System.getProperty("java.io.tmpdir"), "wuic-static-class-loader-test");
+        final String resource = "wuic-static-class-loader-test.txt";
+        Assert.assertTrue(module.isDirectory() || module.mkdirs());
+        Assert.assertTrue(new File(module, resource).createNewFile() || new File(module, resource).isFile());
+
+        try {
+            final TaskClassLoader cached = EngineRegistry.classLoader(session, urls);
+            Assert.assertSame(cached, EngineRegistry.classLoader(session, new ArrayList<URL>(urls)));
+            Assert.assertNotSame(cached, EngineRegistry.classLoader(session, Arrays.asList(module.toURI().toURL())));
+
+            final TaskClassLoader acquired = EngineRegistry.acquire(session, urls, Arrays.asList(module));
+            Assert.assertSame(cached, acquired);
+            Assert.assertNotNull(acquired.getResource(resource));
+            Assert.assertNull(ClassLoader.getSystemClassLoader().getResource(resource));
+
+            // A concurrent module gets its own class loader
+            final TaskClassLoader concurrent = EngineRegistry.acquire(session, urls, new ArrayList<File>());
+            Assert.assertNotSame(acquired, concurrent);
+            Assert.assertNull(concurrent.getResource(resource));
+            EngineRegistry.release(concurrent);
+
+            // Released class loader is reused by the next module
+            EngineRegistry.release(acquired);
+            Assert.assertNull(acquired.getResource(resource));
+            final TaskClassLoader reused = EngineRegistry.acquire(session, urls, new ArrayList<File>());
+            Assert.assertSame(acquired, reused);
+            EngineRegistry.release(reused);
+
+            Assert.assertNotSame(cached, EngineRegistry.classLoader(new Object(), urls));
+        } finally {
+            TestHelper.delete(module);
+        }
+    }
+
+    /**
+     * <p>
+     * Checks that clearing the registry closes the class loaders, once released for the class loaders used by a module.
+     * </p>
+     *
+     * @throws IOException if test fails
+     */
+    @Test
+    public void clearClassLoadersTest() throws IOException {
+        final File dependency = new File(System.getProperty("java.io.tmpdir"), "wuic-static-clear-test");
+        final String resource = "wuic-static-clear-test.txt";
+        final List<URL> urls = Arrays.asList(dependency.toURI().toURL());
+        Assert.assertTrue(dependency.isDirectory() || dependency.mkdirs());
+        Assert.assertTrue(new File(dependency, resource).createNewFile() || new File(dependency, resource).isFile());
+
+        try {
+            final Object session = new Object();
+            final TaskClassLoader acquired = EngineRegistry.acquire(session, urls, new ArrayList<File>());
+            final TaskClassLoader available = EngineRegistry.classLoader(session, urls);
+            Assert.assertNotSame(acquired, available);
+            Assert.assertNotNull(available.getResource(resource));
+
+            EngineRegistry.clear();
+            Assert.assertNull(available.getResource(resource));
+            Assert.assertNotNull(acquired.getResource(resource));
+
+            EngineRegistry.release(acquired);
+            Assert.assertNull(acquired.getResource(resource));
+        } finally {
+            TestHelper.delete(dependency);
+        }
+    }
+
+    /**
+     * <p>
+     * Checks that a parsed configuration is reused while its file is unchanged, and parsed again when the file changes
+     * or has been modified too recently to detect a change from its last modification date.
+     * </p>
+     *
+     * @throws IOException if test fails
+     */
+    @Test
+    public void xmlConfigurationCacheTest() throws IOException {
+        final File xml = new File(System.getProperty("java.io.tmpdir"), "wuic-static-xml-configuration-test.xml");
+        final String content = "<wuic><dao-builders><dao-builder id=\"dao\"><properties>"
+                + "<property key=\"c.g.wuic.dao.basePath\">%s</property></properties></dao-builder></dao-builders></wuic>";
+
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(xml), "UTF-8");
+            writer.write(String.format(content, "/first"));
+            writer.close();
+
+            // Modified within the racy delay: parsed again
+            final XmlConfiguration racy = XmlConfiguration.read(xml);
+            Assert.assertNotSame(racy, XmlConfiguration.read(xml));
+
+            Assert.assertTrue(xml.setLastModified(System.currentTimeMillis() - 10000L));
+            final XmlConfiguration cached = XmlConfiguration.read(xml);
+            Assert.assertSame(cached, XmlConfiguration.read(xml));
+            Assert.assertEquals(Arrays.asList("/first"), cached.getBasePaths());
+
+            writer = new OutputStreamWriter(new FileOutputStream(xml), "UTF-8");
+            writer.write(String.format(content, "/second"));
+            writer.close();
+            Assert.assertTrue(xml.setLastModified(System.currentTimeMillis() - 5000L));
+
+            final XmlConfiguration changed = XmlConfiguration.read(xml);
+            Assert.assertNotSame(cached, changed);
+            Assert.assertEquals(Arrays.asList("/second"), changed.getBasePaths());
+        } finally {
+            Assert.assertTrue(xml.delete());
+        }
+    }
+
+    /**
+     * <p>
+     * Checks that the JAXB contexts are cached and that the class loader declares the caching factory for the WUIC
+     * packages only.
+     * </p>
+     *
+     * @throws JAXBException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void jaxbContextCacheTest() throws JAXBException, IOException {
+        final JAXBContext context = CachingJaxbContextFactory.createContext(new Class<?>[] { JaxbBean.class }, null);
+        Assert.assertNotNull(context);
+        Assert.assertSame(context, CachingJaxbContextFactory.createContext(new Class<?>[] { JaxbBean.class },
+                new HashMap<String, Object>()));
+
+        final TaskClassLoader classLoader = EngineRegistry.classLoader(new Object(), new ArrayList<URL>());
+        final URL url = classLoader.getResource("com/github/wuic/config/jaxb.properties");
+        Assert.assertNotNull(url);
+        Assert.assertNull(classLoader.getResource("org/example/jaxb.properties"));
+
+        final Properties properties = new Properties();
+        final InputStream is = url.openStream();
+
+        try {
+            properties.load(is);
+        } finally {
+            is.close();
+        }
+
+        Assert.assertEquals(CachingJaxbContextFactory.class.getName(),
+                properties.getProperty(CachingJaxbContextFactory.FACTORY_PROPERTY));
+    }
+
+    /**
+     * <p>
+     * Checks that the modules of a reactor processed one after the other share the engine warmed up by the prepare
+     * goal, while a module processed concurrently uses another engine.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void reactorEngineTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final String prepared = "Using the engine prepared in background";
+        final File[] modules = new File[3];
+
+        for (int i = 0; i < modules.length; i++) {
+            modules[i] = new File(System.getProperty("java.io.tmpdir"), "wuic-static-reactor-test-" + i);
+        }
+
+        configure(new PrepareMojo(), modules[0], resources).execute();
+
+        for (int i = 0; i < 2; i++) {
+            final RecordingLog log = new RecordingLog();
+            final StaticHelperMojo mojo = createMojo(modules[i], resources);
+            mojo.setLog(log);
+            mojo.execute();
+            Assert.assertTrue(log.contains(prepared));
+        }
+
+        // The warm engine is used by another module
+        final TaskClassLoader busy = EngineRegistry.acquire(null, new ArrayList<URL>(), new ArrayList<File>());
+
+        try {
+            final RecordingLog log = new RecordingLog();
+            final StaticHelperMojo mojo = createMojo(modules[2], resources);
+            mojo.setLog(log);
+            mojo.execute();
+            Assert.assertFalse(log.contains(prepared));
+            Assert.assertNotNull(find(new File(modules[2], "generated/css").listFiles(), "aggregate.css"));
+        } finally {
+            EngineRegistry.release(busy);
+        }
+
+        for (final File module : modules) {
+            TestHelper.delete(module);
+        }
+    }
+
+    /**
+     * <p>
+     * Checks that results are restored from the cache after a 'clean'.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void cacheTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-cache-test");
+        final File cache = new File(System.getProperty("java.io.tmpdir"), "wuic-static-cache");
+        StaticHelperMojo mojo = createMojo(out, resources);
+        mojo.setCacheDirectory(cache.getAbsolutePath());
+        mojo.execute();
+        Assert.assertEquals(1, cache.list().length);
+        final File aggregate = new File(out, "generated/js").listFiles()[0].listFiles()[0];
+
+        // Simulate 'mvn clean'
+        TestHelper.delete(out);
+        Assert.assertFalse(aggregate.exists());
+
+        resources.set(null);
+        mojo = createMojo(out, resources);
+        mojo.setCacheDirectory(cache.getAbsolutePath());
+        mojo.execute();
+        Assert.assertTrue(aggregate.isFile());
+        Assert.assertTrue(new File(resources.get(), "wuic.xml").isFile());
+
+        TestHelper.delete(out);
+        TestHelper.delete(cache);
+    }
+
+    /**
+     * <p>
+     * Checks that the same project built from two different directories gets the results cached by the first build.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void cacheRelocatedProjectTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File cache = new File(System.getProperty("java.io.tmpdir"), "wuic-static-relocated-cache");
+        final File[] checkouts = new File[] {
+                new File(System.getProperty("java.io.tmpdir"), "wuic-static-relocated-a"),
+                new File(System.getProperty("java.io.tmpdir"), "wuic-static-relocated-b"),
+        };
+
+        for (final File checkout : checkouts) {
+            copy(new File(getClass().getResource("/wuic.xml").getFile()).getParentFile(), new File(checkout, "src"));
+        }
+
+        for (int i = 0; i < checkouts.length; i++) {
+            final RecordingLog log = new RecordingLog();
+            final File out = new File(checkouts[i], "target");
+            final StaticHelperMojo mojo = configure(new StaticHelperMojo(), out, resources, new File(checkouts[i], "src"));
+
+            // Absolute by default
+            mojo.setOutput(out.getAbsolutePath());
+            mojo.setCacheDirectory(cache.getAbsolutePath());
+            mojo.setLog(log);
+            mojo.execute();
+            Assert.assertEquals(i == 1, log.contains("Outputs restored from cache"));
+            Assert.assertNotNull(find(new File(out, "js").listFiles(), "aggregate.js"));
+        }
+
+        Assert.assertEquals(1, cache.list().length);
+
+        for (final File checkout : checkouts) {
+            TestHelper.delete(checkout);
+        }
+
+        TestHelper.delete(cache);
+    }
+
+    /**
+     * <p>
+     * Checks that a cache entry containing a file outside of the output directory is rejected.
+     * </p>
+     *
+     * @throws IOException if test fails
+     */
+    @Test
+    public void cacheEntryEscapeTest() throws IOException {
+        final File cache = new File(System.getProperty("java.io.tmpdir"), "wuic-static-escape-cache");
+        final File output = new File(cache, "output");
+        Assert.assertTrue(cache.isDirectory() || cache.mkdirs());
+        final ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(new File(cache, "key.zip")));
+
+        try {
+            zos.putNextEntry(new ZipEntry("output/../../escaped.txt"));
+            zos.write(1);
+            zos.closeEntry();
+        } finally {
+            zos.close();
+        }
+
+        try {
+            new ResultCache(cache, Long.MAX_VALUE).restore("key", output, new ArrayList<String>(), null, new ArrayList<String>());
+            Assert.fail("Entry outside of the output directory must be rejected");
+        } catch (IOException ioe) {
+            Assert.assertFalse(new File(cache.getParentFile(), "escaped.txt").exists());
+        } finally {
+            TestHelper.delete(cache);
+        }
+    }
+
+    /**
+     * <p>
+     * Checks that several modules processed concurrently in the same JVM, sharing their engine and their cache, get
+     * their own correct outputs.
+     * </p>
+     *
+     * @throws IOException if test fails
+     * @throws InterruptedException if test fails
+     * @throws ExecutionException if test fails
+     */
+    @Test
+    public void concurrentTest() throws IOException, InterruptedException, ExecutionException {
+        final int modules = 4;
+        final File cache = new File(System.getProperty("java.io.tmpdir"), "wuic-static-concurrent-cache");
+        final ExecutorService executor = Executors.newFixedThreadPool(modules);
+        final List<Future<File>> futures = new ArrayList<Future<File>>();
+
+        try {
+            for (int i = 0; i < modules; i++) {
+                final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-concurrent-test-" + i);
+                final AtomicReference<String> resources = new AtomicReference<String>();
+                final StaticHelperMojo mojo = createMojo(out, resources);
+                mojo.setCacheDirectory(cache.getAbsolutePath());
+                mojo.setPrecompress(Boolean.TRUE);
+
+                futures.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws MojoExecutionException {
+                        mojo.execute();
+                        Assert.assertTrue(new File(resources.get(), "wuic.xml").isFile());
+                        return out;
+                    }
+                }));
+            }
+
+            for (final Future<File> future : futures) {
+                final File out = future.get();
+                Assert.assertNotNull(find(new File(out, "generated/js").listFiles(), "aggregate.js"));
+                Assert.assertNotNull(find(new File(out, "generated/html-trevor").listFiles(), ".html"));
+
+                final File css = find(new File(out, "generated/css").listFiles(), "aggregate.css");
+                Assert.assertNotNull(css);
+                Assert.assertTrue(new File(css.getPath() + ".gz").isFile());
+                TestHelper.delete(out);
+            }
+        } finally {
+            executor.shutdown();
+            TestHelper.delete(cache);
+        }
+    }
+
+    /**
+     * <p>
+     * Checks that byte-identical outputs are linked and that a second build writes them again without changing the
+     * files they are linked to.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void deduplicateTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-deduplicate-test");
+        final File src = new File(System.getProperty("java.io.tmpdir"), "wuic-static-deduplicate-src");
+        copy(new File(getClass().getResource("/wuic.xml").getFile()).getParentFile(), src);
+
+        // Two heaps with the same nuts produce the same output
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(new File(src, "wuic.xml")), "UTF-8");
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<wuic><heaps>"
+                + "<heap id=\"js\"><nut-path>.*.js</nut-path></heap>"
+                + "<heap id=\"js-copy\"><nut-path>.*.js</nut-path></heap>"
+                + "</heaps></wuic>");
+        writer.close();
+
+        StaticHelperMojo mojo = configure(new StaticHelperMojo(), out, resources, src);
+        mojo.setDeduplicate(Boolean.TRUE);
+        mojo.execute();
+
+        final File js = find(new File(out, "generated/js").listFiles(), "aggregate.js");
+        final File duplicate = find(new File(out, "generated/js-copy").listFiles(), "aggregate.js");
+        Assert.assertNotNull(js);
+        Assert.assertNotNull(duplicate);
+        Assert.assertTrue(Files.isSameFile(js.toPath(), duplicate.toPath()));
+        final byte[] content = read(new FileInputStream(js));
+
+        mojo = configure(new StaticHelperMojo(), out, resources, src);
+        mojo.setDeduplicate(Boolean.TRUE);
+        mojo.execute();
+
+        Assert.assertArrayEquals(content, read(new FileInputStream(js)));
+        Assert.assertArrayEquals(content, read(new FileInputStream(duplicate)));
+        Assert.assertTrue(Files.isSameFile(js.toPath(), duplicate.toPath()));
+
+        TestHelper.delete(out);
+        TestHelper.delete(src);
+    }
+
+    /**
+     * <p>
+     * Checks that nuts are streamed to the JAR and that compressed content is stored.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void streamJarTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-jar-test");
+        final StaticHelperMojo mojo = createMojo(out, resources);
+        mojo.setPackageAsJar(Boolean.TRUE);
+        mojo.setStreamJar(Boolean.TRUE);
+        mojo.execute();
+
+        final File jar = new File(out, "generated/wuic-static.jar");
+        Assert.assertTrue(jar.isFile());
+        Assert.assertFalse(new File(out, "wuic-static-helper/staging").exists());
+
+        final ZipFile zipFile = new ZipFile(jar);
+        int stored = 0;
+        int deflated = 0;
+
+        try {
+            for (final Enumeration<? extends ZipEntry> entries = zipFile.entries(); entries.hasMoreElements();) {
+                final ZipEntry entry = entries.nextElement();
+
+                if (entry.getName().endsWith(".png")) {
+                    Assert.assertEquals(entry.getName(), ZipEntry.STORED, entry.getMethod());
+                    stored++;
+                } else if (entry.getName().endsWith(".js")) {
+                    Assert.assertEquals(entry.getName(), ZipEntry.DEFLATED, entry.getMethod());
+                    deflated++;
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+
+        Assert.assertTrue(stored > 0);
+        Assert.assertTrue(deflated > 0);
+        TestHelper.delete(out);
+    }
+
+    /**
+     * <p>
+     * Checks that GZIP variants are written next to text files.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void precompressTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-precompress-test");
+        final StaticHelperMojo mojo = createMojo(out, resources);
+        mojo.setPrecompress(Boolean.TRUE);
+        mojo.execute();
+
+        final File css = find(new File(out, "generated/css").listFiles(), "aggregate.css");
+        Assert.assertNotNull(css);
+        final File gz = new File(css.getPath() + ".gz");
+        Assert.assertTrue(gz.isFile());
+        Assert.assertTrue(gz.length() < css.length());
+        Assert.assertNull(find(new File(out, "generated").listFiles(), ".png.gz"));
+
+        InputStream is = new GZIPInputStream(new FileInputStream(gz));
+        final String uncompressed = IOUtils.readString(new InputStreamReader(is));
+        is.close();
+        is = new FileInputStream(css);
+        final String original = IOUtils.readString(new InputStreamReader(is));
+        is.close();
+        Assert.assertEquals(original, uncompressed);
+
+        TestHelper.delete(out);
+    }
+
+    /**
+     * <p>
+     * Checks that variants spilled to disk are complete and that no temporary file remains, in the output directory or
+     * in the spill directory.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void spillTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-spill-test");
+        final StaticHelperMojo mojo = createMojo(out, resources);
+        mojo.setPrecompress(Boolean.TRUE);
+        mojo.setSpillThreshold(0);
+        mojo.execute();
+
+        final File css = find(new File(out, "generated/css").listFiles(), "aggregate.css");
+        Assert.assertNotNull(css);
+        Assert.assertNull(find(new File(out, "generated").listFiles(), ".tmp"));
+        Assert.assertNull(find(css.getParentFile().listFiles(), ".tmp"));
+
+        // Variants are spilled to the build directory, which is cleaned once they are moved
+        Assert.assertFalse(new File(out, "wuic-static-helper/spill").exists());
+
+        InputStream is = new GZIPInputStream(new FileInputStream(css.getPath() + ".gz"));
+        final String uncompressed = IOUtils.readString(new InputStreamReader(is));
+        is.close();
+        is = new FileInputStream(css);
+        final String original = IOUtils.readString(new InputStreamReader(is));
+        is.close();
+        Assert.assertEquals(original, uncompressed);
+
+        TestHelper.delete(out);
+    }
+
+    /**
+     * <p>
+     * Checks that only the durations of the precompressed nuts of this build are recorded for the next build, without
+     * the versions of the nuts.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void schedulerTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-scheduler-test");
+        final File timingsFile = new File(out, "wuic-static-helper/timings.properties");
+        Assert.assertTrue(timingsFile.getParentFile().isDirectory() || timingsFile.getParentFile().mkdirs());
+
+        // Duration of a task of a previous build that does not run anymore
+        final Properties stale = new Properties();
+        stale.setProperty(Precompressor.TASK_PREFIX + "css/42/stale.css", "1000");
+        final OutputStream os = new FileOutputStream(timingsFile);
+        stale.store(os, null);
+        os.close();
+
+        final StaticHelperMojo mojo = createMojo(out, resources);
+        mojo.setPrecompress(Boolean.TRUE);
+        mojo.setPrecompressTimeBudget(60000);
+        mojo.execute();
+
+        final File css = find(new File(out, "generated/css").listFiles(), "aggregate.css");
+        Assert.assertNotNull(css);
+        Assert.assertTrue(new File(css.getPath() + ".gz").isFile());
+
+        final Map<String, Long> timings = WorkScheduler.load(timingsFile);
+        Assert.assertFalse(timings.isEmpty());
+
+        for (final String name : timings.keySet()) {
+            Assert.assertTrue(name, name.startsWith(Precompressor.TASK_PREFIX));
+            Assert.assertFalse(name, name.contains("stale"));
+            Assert.assertFalse(name, Pattern.compile("/\\d+/").matcher(name).find());
+        }
+
+        TestHelper.delete(out);
+    }
+
+    /**
+     * <p>
+     * Checks that the outputs are the same when the concurrent tasks run on virtual threads or on their fallback.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void virtualThreadsTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-virtual-test");
+        final StaticHelperMojo mojo = createMojo(out, resources);
+        mojo.setVirtualThreads(Boolean.TRUE);
+        mojo.setPrecompress(Boolean.TRUE);
+        mojo.execute();
+
+        final File css = find(new File(out, "generated/css").listFiles(), "aggregate.css");
+        Assert.assertNotNull(css);
+        Assert.assertTrue(new File(css.getPath() + ".gz").isFile());
+        Assert.assertNotNull(find(new File(out, "generated/js").listFiles(), "aggregate.js"));
+
+        TestHelper.delete(out);
+    }
+
+    /**
+     * <p>
+     * Checks that each profile set is processed to its own subdirectory, the empty set to the default one.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void profileSetsTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-profile-sets-test");
+        final StaticHelperMojo mojo = createMojo(out, resources);
+        mojo.setProfileSets(Arrays.asList("", "foo, bar"));
+        mojo.execute();
+
+        for (final String set : Arrays.asList("default", "foo-bar")) {
+            final File generated = new File(out, "generated/" + set);
+            Assert.assertNotNull(set, find(new File(generated, "css").listFiles(), "aggregate.css"));
+            Assert.assertNotNull(set, find(new File(generated, "js").listFiles(), "aggregate.js"));
+        }
+
+        Assert.assertFalse(new File(out, "generated/css").exists());
+        TestHelper.delete(out);
+    }
+
+    /**
+     * <p>
+     * Checks that the HTML pages not processed by WUIC reference the versioned URLs of the nuts.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void htmlPagesTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-html-test");
+        final File pages = new File(System.getProperty("java.io.tmpdir"), "wuic-static-html-pages");
+        final File page = new File(pages, "sub/page.html");
+        Assert.assertTrue(page.getParentFile().isDirectory() || page.getParentFile().mkdirs());
+
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(page), "UTF-8");
+        writer.write("<html><head><script src=\"/js/aggregate.js\"></script></head><body></body></html>");
+        writer.close();
+
+        final StaticHelperMojo mojo = createMojo(out, resources);
+        mojo.setHtmlPages(pages.getAbsolutePath());
+        mojo.execute();
+
+        final InputStream is = new FileInputStream(new File(out, "generated/sub/page.html"));
+        final String html = IOUtils.readString(new InputStreamReader(is, "UTF-8"));
+        is.close();
+
+        final int start = html.indexOf("src=\"") + "src=\"".length();
+        final String url = html.substring(start, html.indexOf('"', start));
+        Assert.assertFalse(url, "/js/aggregate.js".equals(url));
+        Assert.assertTrue(url, new File(out, "generated" + url).isFile());
+
+        TestHelper.delete(pages);
+        TestHelper.delete(out);
+    }
+
+    /**
+     * <p>
+     * Checks that an HTML page is read and written with the charset declared by its {@code <meta charset>} element.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void htmlPagesCharsetTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-html-charset-test");
+        final File pages = new File(System.getProperty("java.io.tmpdir"), "wuic-static-html-charset-pages");
+        final File page = new File(pages, "page.html");
+        Assert.assertTrue(page.getParentFile().isDirectory() || page.getParentFile().mkdirs());
+
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(page), "ISO-8859-1");
+        writer.write("<html><head><meta charset=\"ISO-8859-1\"><script src='/js/aggregate.js'></script></head>"
+                + "<body>\u00e9t\u00e9</body></html>");
+        writer.close();
+
+        final StaticHelperMojo mojo = createMojo(out, resources);
+        mojo.setHtmlPages(pages.getAbsolutePath());
+        mojo.setHtmlPagesCharset("UTF-8");
+        mojo.execute();
+
+        final InputStream is = new FileInputStream(new File(out, "generated/page.html"));
+        final String html = IOUtils.readString(new InputStreamReader(is, "ISO-8859-1"));
+        is.close();
+
+        Assert.assertTrue(html, html.contains("<body>\u00e9t\u00e9</body>"));
+        final int start = html.indexOf("src='") + "src='".length();
+        final String url = html.substring(start, html.indexOf('\'', start));
+        Assert.assertFalse(url, "/js/aggregate.js".equals(url));
+        Assert.assertTrue(url, new File(out, "generated" + url).isFile());
+
+        TestHelper.delete(pages);
+        TestHelper.delete(out);
+    }
+
+    /**
+     * <p>
+     * Checks that the timing report lists the stages and the workflows.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void timingReportTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-report-test");
+        final StaticHelperMojo mojo = createMojo(out, resources);
+        mojo.setIncremental(Boolean.TRUE);
+        mojo.setTimingReport(Boolean.TRUE);
+        mojo.execute();
+
+        final File report = new File(out, "wuic-static-helper/report.json");
+        Assert.assertTrue(report.isFile());
+
+        final InputStream is = new FileInputStream(report);
+        final String json = IOUtils.readString(new InputStreamReader(is));
+        is.close();
+        Assert.assertTrue(json.contains("\"name\": \"task\""));
+        Assert.assertTrue(json.contains("\"id\": \"css\""));
+
+        TestHelper.delete(out);
+    }
+
+    /**
+     * <p>
+     * Checks that the binary index and the text files of the 'wuic-static' metadata agree.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void staticIndexTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-index-test");
+        final StaticHelperMojo mojo = createMojo(out, resources);
+        mojo.setStaticIndex(Boolean.TRUE);
+        mojo.execute();
+
+        final File[] metadata = new File(resources.get(), StaticIndex.METADATA_DIRECTORY).listFiles();
+        Assert.assertNotNull(metadata);
+        final StaticIndex index = new StaticIndex(new File(resources.get(), StaticIndex.FILE_NAME));
+        int lines = 0;
+
+        try {
+            for (final File file : metadata) {
+                final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+
+                    final String path = line.trim().split("\\s", 2)[0];
+                    final int i = index.find(file.getName(), path);
+                    Assert.assertTrue(path + " not indexed", i >= 0);
+                    Assert.assertEquals(line, index.value(i));
+
+                    final File nut = new File(out, "generated/" + file.getName() + "/" + path);
+                    Assert.assertEquals(nut.isFile() ? BuildManifest.hash(nut) : null, index.hash(i));
+                    lines++;
+                }
+
+                reader.close();
+            }
+
+            Assert.assertTrue(lines > 0);
+            Assert.assertEquals(lines, index.size());
+            Assert.assertEquals(-1, index.find("unknown", "unknown.js"));
+        } finally {
+            index.close();
+        }
+
+        TestHelper.delete(out);
+    }
+
+    /**
+     * <p>
+     * Checks that two reproducible builds package the same JAR, whatever the time zone is.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     * @throws InterruptedException if test fails
+     */
+    @Test
+    public void reproducibleTest() throws MojoExecutionException, IOException, InterruptedException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-reproducible-test");
+        final File jar = new File(out, "generated/wuic-static.jar");
+        StaticHelperMojo mojo = createMojo(out, resources);
+        mojo.setPackageAsJar(Boolean.TRUE);
+        mojo.setReproducible(Boolean.TRUE);
+        mojo.execute();
+        final String hash = BuildManifest.hash(jar);
+
+        // Entries times have a precision of two seconds
+        Thread.sleep(2100L);
+        TestHelper.delete(out);
+
+        mojo = createMojo(out, resources);
+        mojo.setPackageAsJar(Boolean.TRUE);
+        mojo.setReproducible(Boolean.TRUE);
+        mojo.execute();
+        Assert.assertEquals(hash, BuildManifest.hash(jar));
+
+        // Entries times are stored as UTC
+        final TimeZone timeZone = TimeZone.getDefault();
+        TestHelper.delete(out);
+
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+            mojo = createMojo(out, resources);
+            mojo.setPackageAsJar(Boolean.TRUE);
+            mojo.setReproducible(Boolean.TRUE);
+            mojo.execute();
+        } finally {
+            TimeZone.setDefault(timeZone);
+        }
+
+        Assert.assertEquals(hash, BuildManifest.hash(jar));
+
+        TestHelper.delete(out);
+        mojo = createMojo(out, resources);
+        mojo.setReproducible(Boolean.TRUE);
+        mojo.setOutputTimestamp("1577836800");
+        mojo.execute();
+        assertLastModified(new File(out, "generated"), 1577836800000L);
+        TestHelper.delete(out);
+    }
+
+    /**
+     * <p>
+     * Checks that the processing uses the engine warmed up by the prepare goal.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void prepareTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-prepare-test");
+        configure(new PrepareMojo(), out, resources).execute();
+        Assert.assertFalse(new File(out, "generated").exists());
+
+        createMojo(out, resources).execute();
+        Assert.assertNotNull(find(new File(out, "generated/css").listFiles(), "aggregate.css"));
+        Assert.assertNotNull(find(new File(out, "generated/js").listFiles(), "aggregate.js"));
+
+        TestHelper.delete(out);
+    }
+
+    /**
+     * <p>
+     * Checks that the integrity manifest maps the outputs to their SHA-256 digest, in the output directory or in the
+     * JAR.
+     * </p>
+     *
+     * @throws MojoExecutionException if test fails
+     * @throws IOException if test fails
+     */
+    @Test
+    public void integrityManifestTest() throws MojoExecutionException, IOException {
+        final AtomicReference<String> resources = new AtomicReference<String>();
+        final File out = new File(System.getProperty("java.io.tmpdir"), "wuic-static-integrity-test");
+        StaticHelperMojo mojo = createMojo(out, resources);
+        mojo.setIntegrityManifest(Boolean.TRUE);
+        mojo.setPrecompress(Boolean.TRUE);
+        mojo.execute();
+
+        final File generated = new File(out, "generated");
+        final File css = find(new File(generated, "css").listFiles(), "aggregate.css");
+        Assert.assertNotNull(css);
+        final String path = css.getAbsolutePath().substring(generated.getAbsolutePath().length() + 1).replace('\\', '/');
+        final String manifest = new String(read(new FileInputStream(new File(generated, IntegrityManifest.FILE_NAME))), "UTF-8");
+        final MessageDigest md = IntegrityManifest.newMessageDigest();
+        md.update(read(new FileInputStream(css)));
+        Assert.assertTrue(manifest, manifest.contains(String.format("\"%s\": {\"size\": %d, \"sha256\": \"%s\"",
+                path, css.length(), BuildManifest.toHex(md.digest()))));
+        Assert.assertTrue(manifest, manifest.contains("\"integrity\": \"sha256-"));
+        Assert.assertTrue(manifest, manifest.contains(path + Precompressor.GZIP_EXTENSION));
+        TestHelper.delete(out);
+
+        mojo = createMojo(out, resources);
+        mojo.setIntegrityManifest(Boolean.TRUE);
+        mojo.setPackageAsJar(Boolean.TRUE);
+        mojo.execute();
+
+        final ZipFile zipFile = new ZipFile(new File(out, "generated/wuic-static.jar"));
+
+        try {
+            final ZipEntry entry = zipFile.getEntry(IntegrityManifest.FILE_NAME);
+            Assert.assertNotNull(entry);
+            Assert.assertTrue(new String(read(zipFile.getInputStream(entry)), "UTF-8").contains(path));
+        } finally {
+            zipFile.close();
+        }
+
+        TestHelper.delete(out);
+    }
+
+    /**
+     * <p>
+     * Checks the subresource integrity string of an empty file against the well-known SHA-256 of empty content.
+     * </p>
+     *
+     * @throws IOException if test fails
+     */
+    @Test
+    public void integrityEmptyContentTest() throws IOException {
+        final File dir = new File(System.getProperty("java.io.tmpdir"), "wuic-static-integrity-empty-test");
+        Assert.assertTrue(dir.isDirectory() || dir.mkdirs());
+        Assert.assertTrue(new File(dir, "empty.txt").createNewFile() || new File(dir, "empty.txt").isFile());
+
+        try {
+            final IntegrityManifest manifest = new IntegrityManifest();
+            final List<String> paths = Arrays.asList("empty.txt");
+            Assert.assertEquals(1, manifest.complete(dir, paths, new ParallelExecutor(1)));
+
+            final String json = new String(manifest.toJson(dir, paths), "UTF-8");
+            Assert.assertTrue(json, json.contains(
+                    "\"integrity\": \"sha256-47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU=\""));
+        } finally {
+            TestHelper.delete(dir);
+        }
+    }
+
+    /**
+     * <p>
+     * Reads and closes the given stream.
+     * </p>
+     *
+     * @param is the stream
+     * @return the content
+     * @throws IOException if test fails
+     */
+    private static byte[] read(final InputStream is) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        int offset;
+
+        try {
+            while ((offset = is.read(buffer)) != -1) {
+                bos.write(buffer, 0, offset);
+            }
+        } finally {
+            is.close();
+        }
+
+        return bos.toByteArray();
+    }
+
+    /**
+     * <p>
+     * Asserts that all the files of the given directory have been modified at the given time.
+     * </p>
+     *
+     * @param dir the directory
+     * @param time the expected time
+     */
+    private static void assertLastModified(final File dir, final long time) {
+        final File[] files = dir.listFiles();
+        Assert.assertNotNull(files);
+
+        for (final File file : files) {
+            if (file.isDirectory()) {
+                assertLastModified(file, time);
+            } else {
+                Assert.assertEquals(file.getName(), time, file.lastModified());
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Sets the modification time of all the files of the given directory.
+     * </p>
+     *
+     * @param dir the directory
+     * @param time the time
+     */
+    private static void setLastModified(final File dir, final long time) {
+        final File[] files = dir.listFiles();
+        Assert.assertNotNull(files);
+
+        for (final File file : files) {
+            if (file.isDirectory()) {
+                setLastModified(file, time);
+            } else {
+                Assert.assertTrue(file.setLastModified(time));
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Creates an empty file and its parent directories.
+     * </p>
+     *
+     * @param file the file
+     * @throws IOException if test fails
+     */
+    private static void create(final File file) throws IOException {
+        Assert.assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        new FileOutputStream(file).close();
+    }
+
+    /**
+     * <p>
+     * Gets the most recent modification time of the files of the given directory.
+     * </p>
+     *
+     * @param dir the directory
+     * @return the modification time
+     */
+    private static long lastModified(final File dir) {
+        final File[] files = dir.listFiles();
+        long retval = 0L;
+
+        if (files != null) {
+            for (final File file : files) {
+                retval = Math.max(retval, file.isDirectory() ? lastModified(file) : file.lastModified());
+            }
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Copies the given directory recursively.
+     * </p>
+     *
+     * @param source the directory to copy
+     * @param target the copy
+     * @throws IOException if test fails
+     */
+    private static void copy(final File source, final File target) throws IOException {
+        final File[] files = source.listFiles();
+        Assert.assertNotNull(files);
+        Assert.assertTrue(target.isDirectory() || target.mkdirs());
+
+        for (final File file : files) {
+            if (file.isDirectory()) {
+                copy(file, new File(target, file.getName()));
+            } else {
+                final OutputStream os = new FileOutputStream(new File(target, file.getName()));
+
+                try {
+                    os.write(read(new FileInputStream(file)));
+                } finally {
+                    os.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Loads the given properties file.
+     * </p>
+     *
+     * @param file the file
+     * @return the properties
+     * @throws IOException if test fails
+     */
+    private static Properties load(final File file) throws IOException {
+        final Properties retval = new Properties();
+        final InputStream is = new FileInputStream(file);
+
+        try {
+            retval.load(is);
+        } finally {
+            is.close();
+        }
+
+        return retval;
+    }
+
+    /**
+     * <p>
+     * Creates a MOJO configured with the test resources and writing to the given directory.
+     * </p>
+     *
+     * @param out the build directory
+     * @param resources where the directory of relocated resources is set
+     * @return the MOJO
+     * @throws IOException if test fails
+     */
+    private StaticHelperMojo createMojo(final File out, final AtomicReference<String> resources) throws IOException {
+        return configure(new StaticHelperMojo(), out, resources);
+    }
+
+    /**
+     * <p>
+     * Configures the given MOJO with the test resources and the given directory.
+     * </p>
+     *
+     * @param mojo the MOJO
+     * @param out the build directory
+     * @param resources where the directory of relocated resources is set
+     * @param <T> the type of MOJO
+     * @return the MOJO
+     * @throws IOException if test fails
+     */
+    private <T extends StaticHelperMojo> T configure(final T mojo, final File out, final AtomicReference<String> resources)
+            throws IOException {
+        return configure(mojo, out, resources, null);
+    }
+
+    /**
+     * <p>
+     * Configures the given MOJO with the given directory, declared as the project's resources, or the test resources
+     * if it is {@code null}. The parent of the given directory is then the project's base directory.
+     * </p>
+     *
+     * @param mojo the MOJO
+     * @param out the build directory
+     * @param resources where the directory of relocated resources is set
+     * @param src the directory containing the 'wuic.xml' and 'wuic.properties' files, {@code null} for test resources
+     * @param <T> the type of MOJO
+     * @return the MOJO
+     * @throws IOException if test fails
+     */
+    private <T extends StaticHelperMojo> T configure(final T mojo,
+                                                     final File out,
+                                                     final AtomicReference<String> resources,
+                                                     final File src)
+            throws IOException {
+        final String wuicXml = IOUtils.normalizePathSeparator(getClass().getResource("/wuic.xml").toString());
+        final String wuicProperties = IOUtils.normalizePathSeparator(getClass().getResource("/wuic.properties").toString());
+        final String currentDir = IOUtils.normalizePathSeparator(new File(".").toURI().toURL().toString());
+
+        // Configure MOJO
+        mojo.setRelocateTransformedXml(Boolean.TRUE);
+        mojo.setXml(wuicXml.substring(currentDir.length() - 2));
+        mojo.setProperties(wuicProperties.substring(currentDir.length() - 2));
+        mojo.setOutput("generated");
+        mojo.setContextPath("/");
+
+        // Mock
+        final MavenProject mavenProject = Mockito.mock(MavenProject.class);
+        final Build build = Mockito.mock(Build.class);
+        Mockito.when(build.getDirectory()).thenReturn(out.getAbsolutePath());
+        Mockito.when(build.getOutputDirectory()).thenReturn(out.getAbsolutePath());
+        Mockito.when(mavenProject.getBuild()).thenReturn(build);
+        Mockito.when(mavenProject.getBasedir()).thenReturn(src == null ? new File(".") : src.getParentFile());
+
+        if (src != null) {
+            final Resource resource = new Resource();
+            resource.setDirectory(src.getAbsolutePath());
+            Mockito.when(mavenProject.getResources()).thenReturn(Arrays.asList(resource));
+            mojo.setXml(new File(src, "wuic.xml").getAbsolutePath());
+            mojo.setProperties(new File(src, "wuic.properties").getAbsolutePath());
+        }
+
+        mojo.setMavenProject(mavenProject);
+        final MavenProjectHelper helper = Mockito.mock(MavenProjectHelper.class);
+        mojo.setProjectHelper(helper);
+        Mockito.doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocationOnMock) throws Throwable {
+                resources.set(invocationOnMock.getArguments()[1].toString());
+                return null;
+            }
+        }).when(helper).addResource(Mockito.any(MavenProject.class), Mockito.anyString(), Mockito.any(List.class), Mockito.any(List.class));
+
+        return mojo;
+    }
+
+    /**
+     * <p>
+     * Finds the first file ending with the given suffix.
+     * </p>
+     *
+     * @param files the files
+     * @param suffix the suffix
+     * @return the file
+     */
+    private File find(final File[] files, final String suffix) {
+        for (final File file : files) {
+            if (file.getName().endsWith(suffix)) {
+                return file;
+            } else if (file.listFiles() != null) {
+                final File child = find(file.listFiles(), suffix);
+
+                if (child != null) {
+                    return child;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * <p>
+     * A log recording the information messages.
+     * </p>
+     *
+     * @author Guillaume DROUET
+     * @since 0.5.3
+     */
+    private static final class RecordingLog extends SystemStreamLog {
+
+        /**
+         * The messages.
+         */
+        private final List<String> messages = new ArrayList<String>();
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void info(final CharSequence content) {
+            super.info(content);
+
+            synchronized (messages) {
+                messages.add(content.toString());
+            }
+        }
+
+        /**
+         * <p>
+         * Indicates if a recorded message starts with the given prefix.
+         * </p>
+         *
+         * @param prefix the prefix
+         * @return {@code true} if a message starts with the prefix, {@code false} otherwise
+         */
+        boolean contains(final String prefix) {
+            synchronized (messages) {
+                for (final String message : messages) {
+                    if (message.startsWith(prefix)) {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
     }
-}
\ No newline at end of file
+}